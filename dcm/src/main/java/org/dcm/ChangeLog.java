@@ -0,0 +1,364 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Name;
+import org.jooq.Record;
+import org.jooq.Record4;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.UniqueKey;
+import org.jooq.exception.DataAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.table;
+
+/**
+ * Tracks row-level changes to the base tables of a Model, so that Model.updateData() only has to apply the
+ * rows that were inserted, updated or deleted since the previous invocation instead of re-scanning every table.
+ *
+ * Changes are recorded by H2 triggers into a change-log table. Because the log is written within the same
+ * transaction as the modification itself, changes that are rolled back are never observed. The logged changes
+ * are applied to a columnar copy of each tracked table, so tables are neither re-read nor turned into records.
+ * The triggers and change-log tables stay in the database until uninstall() is invoked.
+ *
+ * Only tables with a primary key and without controllable columns are tracked. Views have no triggers,
+ * and solvers write their results into the records of tables with controllable columns, so those are
+ * always re-read in full.
+ */
+class ChangeLog {
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeLog.class);
+    static final String LOG_TABLE_PREFIX = "DCM_CHANGE_LOG_";
+    private static final AtomicInteger LOG_ID = new AtomicInteger(0);
+    private static final String[] TRIGGER_EVENTS = {"INSERT", "UPDATE", "DELETE"};
+    private static final Field<Long> SEQ = field(name("SEQ"), Long.class);
+    private static final Field<String> TABLE_NAME = field(name("TABLE_NAME"), String.class);
+    private static final Field<Object[]> OLD_ROW = field(name("OLD_ROW"), Object[].class);
+    private static final Field<Object[]> NEW_ROW = field(name("NEW_ROW"), Object[].class);
+    private final DSLContext dbCtx;
+    private final String logTableName;
+    private final Set<Table<? extends Record>> logTables = new HashSet<>();
+    private final List<Name> triggers = new ArrayList<>();
+    private final Map<Table<? extends Record>, TrackedTable> trackedTables = new HashMap<>();
+
+    private ChangeLog(final DSLContext dbCtx) {
+        this.dbCtx = dbCtx;
+        this.logTableName = LOG_TABLE_PREFIX + LOG_ID.incrementAndGet();
+    }
+
+    /**
+     * Installs change-log triggers on all the eligible tables among the supplied IRTables.
+     *
+     * @param dbCtx the DSLContext the Model reads from
+     * @param irTables the tables of the Model
+     * @return a ChangeLog for the tracked tables. Tables that are not tracked are left untouched.
+     */
+    static ChangeLog install(final DSLContext dbCtx, final Collection<IRTable> irTables) {
+        final ChangeLog changeLog = new ChangeLog(dbCtx);
+        if (dbCtx.dialect().family() != SQLDialect.H2) {
+            LOG.warn("Incremental updates are only supported with H2 (dialect: {}). " +
+                     "All tables will be re-read on every update.", dbCtx.dialect());
+            return changeLog;
+        }
+        for (final IRTable irTable : irTables) {
+            final Table<? extends Record> table = irTable.getTable();
+            final UniqueKey<? extends Record> primaryKey = table.getPrimaryKey();
+            if (primaryKey == null || irTable.hasVars() || table.getSchema() == null) {
+                continue;
+            }
+            final String schemaName = table.getSchema().getName();
+            final Table<Record> logTable = table(name(schemaName, changeLog.logTableName));
+            if (changeLog.logTables.add(logTable)) {
+                dbCtx.execute("create table if not exists {0} (" +
+                              "seq bigint auto_increment primary key, " +
+                              "table_name varchar(256) not null, " +
+                              "old_row array, " +
+                              "new_row array)", logTable);
+            }
+            for (final String event : TRIGGER_EVENTS) {
+                final Name triggerName = name(schemaName, changeLog.logTableName + "_" + event + "_"
+                                                          + table.getName());
+                dbCtx.execute("create trigger {0} after " + event + " on {1} for each row call {2}",
+                              triggerName, table, name(Trigger.class.getName()));
+                changeLog.triggers.add(triggerName);
+            }
+            final List<Field<?>> fields = Arrays.asList(table.fields());
+            final int[] keyIndices = primaryKey.getFields().stream().mapToInt(fields::indexOf).toArray();
+            changeLog.trackedTables.put(table, new TrackedTable(table.fields(), keyIndices));
+            LOG.info("Tracking changes to table {} in {}", table.getName(), logTable);
+        }
+        return changeLog;
+    }
+
+    /**
+     * @return whether changes to the given table are being tracked
+     */
+    boolean isTracked(final Table<? extends Record> table) {
+        return trackedTables.containsKey(table);
+    }
+
+    /**
+     * Consumes all the changes logged since the last invocation, and applies them to the tracked tables.
+     * This has to be invoked once per Model.updateData() round, before any of the tracked tables are read.
+     */
+    void consume() {
+        for (final Table<? extends Record> logTable : logTables) {
+            final Result<Record4<Long, String, Object[], Object[]>> changes =
+                    dbCtx.select(SEQ, TABLE_NAME, OLD_ROW, NEW_ROW)
+                         .from(logTable)
+                         .orderBy(SEQ)
+                         .fetch();
+            if (changes.isEmpty()) {
+                continue;
+            }
+            final Map<String, Table<? extends Record>> tablesByName = new HashMap<>(trackedTables.size());
+            trackedTables.keySet().forEach(table -> tablesByName.put(table.getName(), table));
+            for (final Record4<Long, String, Object[], Object[]> change : changes) {
+                final Table<? extends Record> table = tablesByName.get(change.get(TABLE_NAME));
+                if (table == null) {
+                    continue;
+                }
+                final TrackedTable trackedTable = trackedTables.get(table);
+                // Tables that are yet to be loaded will see these changes when they are read in full
+                if (trackedTable.current != null) {
+                    trackedTable.apply(change.get(OLD_ROW), change.get(NEW_ROW));
+                }
+            }
+            // Delete exactly what we have read: rows from transactions that commit while we
+            // are applying these changes will be picked up in the next round
+            dbCtx.deleteFrom(logTable).where(SEQ.in(changes.getValues(SEQ))).execute();
+        }
+    }
+
+    /**
+     * Returns the current data for a tracked table, if any of it changed since the last time it was fetched.
+     * Only the columns that changed are copied out of the cached state, the other columns are returned as is.
+     *
+     * @param table a tracked table
+     * @return the table's columns if they changed (or were read for the first time), null if nothing changed
+     */
+    @Nullable
+    ColumnValues[] fetchIfChanged(final Table<? extends Record> table) {
+        final TrackedTable trackedTable = trackedTables.get(table);
+        if (trackedTable.current == null) {
+            try (final ResultSet resultSet = dbCtx.selectFrom(table).fetchResultSet()) {
+                trackedTable.load(resultSet);
+            } catch (final SQLException e) {
+                throw new DataAccessException("Could not read table " + table.getName(), e);
+            }
+        } else if (!trackedTable.changed) {
+            return null;
+        }
+        return trackedTable.snapshot();
+    }
+
+    /**
+     * Drops the triggers and change-log tables installed by this ChangeLog. No table is tracked afterwards.
+     */
+    void uninstall() {
+        for (final Name trigger : triggers) {
+            dbCtx.execute("drop trigger if exists {0}", trigger);
+        }
+        for (final Table<? extends Record> logTable : logTables) {
+            dbCtx.execute("drop table if exists {0}", logTable);
+        }
+        triggers.clear();
+        logTables.clear();
+        trackedTables.clear();
+    }
+
+    /**
+     * Cached state for a tracked table, kept in the same columnar form that a Model reads tables into.
+     * Rows are kept in the order they were inserted in, and updates replace rows in-place. This may differ
+     * from the order of a full scan, which models do not depend on. Deleted rows are only removed from the
+     * columns when the table is next fetched.
+     */
+    private static class TrackedTable {
+        private final Field<?>[] fields;
+        private final int[] keyIndices;
+        private final ColumnValues.Builder[] columns;
+        private final Map<List<Object>, Integer> rowIndex = new HashMap<>();
+        private final BitSet deletedRows = new BitSet();
+        private final BitSet changedColumns = new BitSet();
+        @Nullable private ColumnValues[] current = null;
+        private int numRows = 0;
+        private boolean changed = false;
+
+        private TrackedTable(final Field<?>[] fields, final int[] keyIndices) {
+            this.fields = fields;
+            this.keyIndices = keyIndices;
+            this.columns = new ColumnValues.Builder[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                columns[i] = ColumnValues.Builder.forField(fields[i]);
+            }
+        }
+
+        private void load(final ResultSet resultSet) throws SQLException {
+            numRows = ColumnValues.readInto(resultSet, columns);
+            for (int row = 0; row < numRows; row++) {
+                final List<Object> key = new ArrayList<>(keyIndices.length);
+                for (final int index : keyIndices) {
+                    key.add(columns[index].get(row));
+                }
+                rowIndex.put(key, row);
+            }
+            changedColumns.set(0, columns.length);
+        }
+
+        private List<Object> key(final Object[] row) {
+            final List<Object> key = new ArrayList<>(keyIndices.length);
+            for (final int index : keyIndices) {
+                key.add(row[index]);
+            }
+            return key;
+        }
+
+        private void apply(@Nullable final Object[] oldRow, @Nullable final Object[] newRow) {
+            assert current != null;
+            // Convert the logged values to the types used by the table's fields, so that keys compare
+            // equal to those read from the database
+            @Nullable final List<Object> oldKey = oldRow == null ? null : key(converted(oldRow));
+            @Nullable final Integer oldIndex = oldKey == null ? null : rowIndex.remove(oldKey);
+            if (newRow == null) {
+                if (oldIndex != null) {
+                    deletedRows.set(oldIndex);
+                    changedColumns.set(0, columns.length);
+                    changed = true;
+                }
+                return;
+            }
+            final Object[] values = converted(newRow);
+            final List<Object> newKey = key(values);
+            // A logged insert may refer to a row that was already read when the table was first loaded
+            @Nullable final Integer existingIndex = rowIndex.get(newKey);
+            final int row;
+            final boolean appended;
+            if (oldIndex != null && existingIndex != null && !oldIndex.equals(existingIndex)) {
+                deletedRows.set(oldIndex);
+                changedColumns.set(0, columns.length);
+                changed = true;
+                row = existingIndex;
+                appended = false;
+            } else if (oldIndex != null || existingIndex != null) {
+                row = oldIndex != null ? oldIndex : existingIndex;
+                appended = false;
+            } else {
+                row = numRows++;
+                appended = true;
+            }
+            rowIndex.put(newKey, row);
+            for (int i = 0; i < columns.length; i++) {
+                if (appended || !Objects.equals(columns[i].get(row), values[i])) {
+                    columns[i].set(row, values[i]);
+                    changedColumns.set(i);
+                    changed = true;
+                }
+            }
+        }
+
+        private Object[] converted(final Object[] row) {
+            final Object[] values = new Object[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                values[i] = fields[i].getDataType().convert(row[i]);
+            }
+            return values;
+        }
+
+        /**
+         * Applies the pending deletes to the cached columns, and copies out the columns that changed
+         */
+        private ColumnValues[] snapshot() {
+            if (!deletedRows.isEmpty()) {
+                for (final ColumnValues.Builder column : columns) {
+                    column.compact(deletedRows, numRows);
+                }
+                // Every row moves down by the number of deleted rows that precede it
+                final int[] shift = new int[numRows];
+                int numDeleted = 0;
+                for (int row = 0; row < numRows; row++) {
+                    shift[row] = numDeleted;
+                    if (deletedRows.get(row)) {
+                        numDeleted++;
+                    }
+                }
+                rowIndex.replaceAll((key, row) -> row - shift[row]);
+                numRows -= numDeleted;
+                deletedRows.clear();
+            }
+            final ColumnValues[] columnValues = current == null ? new ColumnValues[columns.length] : current.clone();
+            for (int i = changedColumns.nextSetBit(0); i >= 0; i = changedColumns.nextSetBit(i + 1)) {
+                columnValues[i] = columns[i].build(numRows);
+            }
+            changedColumns.clear();
+            changed = false;
+            current = columnValues;
+            return columnValues.clone();
+        }
+    }
+
+    /**
+     * Appends every row-level change made to a tracked table to the change-log table in the same schema.
+     * Triggers are named LOG_TABLE_NAME_EVENT_TABLE, which is how a trigger finds the log it writes to.
+     */
+    public static class Trigger implements org.h2.api.Trigger {
+        @Nullable private String insertSql = null;
+        @Nullable private String tableName = null;
+
+        @Override
+        public void init(final Connection connection, final String schemaName, final String triggerName,
+                         final String tableName, final boolean before, final int type) {
+            // LOG_TABLE_PREFIX is followed by the log's id, the event and the table name
+            final int idEnd = triggerName.indexOf('_', LOG_TABLE_PREFIX.length());
+            final String logTableName = triggerName.substring(0, idEnd);
+            this.insertSql = String.format("insert into \"%s\".\"%s\" (table_name, old_row, new_row) " +
+                                           "values (?, ?, ?)", schemaName, logTableName);
+            this.tableName = tableName;
+        }
+
+        @Override
+        public void fire(final Connection connection, @Nullable final Object[] oldRow,
+                         @Nullable final Object[] newRow) throws SQLException {
+            try (final PreparedStatement stmt = connection.prepareStatement(insertSql)) {
+                stmt.setString(1, tableName);
+                stmt.setObject(2, oldRow);
+                stmt.setObject(3, newRow);
+                stmt.execute();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void remove() {
+        }
+    }
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm;
+
+import org.jooq.Field;
+import org.jooq.Record;
+
+import javax.annotation.Nullable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * An immutable, columnar copy of the values of a single column. Integers, longs and booleans are stored in
+ * primitive arrays, and strings are dictionary-encoded, so that the values of a column do not have to be
+ * retained as one boxed object per cell. Values are boxed again on access.
+ *
+ * Columns of any other type, or columns that mix value types, are stored as an array of objects.
+ *
+ * Has to be public so that the code generated by the OR-tools backend can read input columns directly,
+ * without materializing a record per row.
+ */
+public abstract class ColumnValues extends AbstractList<Object> implements RandomAccess {
+    private final int size;
+    private final BitSet nulls;
+
+    private ColumnValues(final int size, final BitSet nulls) {
+        this.size = size;
+        this.nulls = nulls;
+    }
+
+    /**
+     * Copies the values of a column out of a set of records.
+     *
+     * @param records the records to copy values from
+     * @param fieldIndex the index of the column within each record
+     * @return the values of the column, in the order of the records
+     */
+    static ColumnValues copyOf(final List<? extends Record> records, final int fieldIndex) {
+        final int size = records.size();
+        final BitSet nulls = new BitSet(size);
+        @Nullable Class<?> valueClass = null;
+        for (int i = 0; i < size; i++) {
+            final Object value = records.get(i).get(fieldIndex);
+            if (value == null) {
+                nulls.set(i);
+            } else if (valueClass == null) {
+                valueClass = value.getClass();
+            } else if (valueClass != value.getClass()) {
+                valueClass = Object.class;
+            }
+        }
+        if (valueClass == Integer.class) {
+            final int[] values = new int[size];
+            for (int i = nulls.nextClearBit(0); i < size; i = nulls.nextClearBit(i + 1)) {
+                values[i] = (Integer) records.get(i).get(fieldIndex);
+            }
+            return new IntValues(values, nulls);
+        }
+        if (valueClass == Long.class) {
+            final long[] values = new long[size];
+            for (int i = nulls.nextClearBit(0); i < size; i = nulls.nextClearBit(i + 1)) {
+                values[i] = (Long) records.get(i).get(fieldIndex);
+            }
+            return new LongValues(values, nulls);
+        }
+        if (valueClass == Boolean.class) {
+            final BitSet values = new BitSet(size);
+            for (int i = nulls.nextClearBit(0); i < size; i = nulls.nextClearBit(i + 1)) {
+                values.set(i, (Boolean) records.get(i).get(fieldIndex));
+            }
+            return new BooleanValues(size, values, nulls);
+        }
+        if (valueClass == String.class) {
+            final int[] codes = new int[size];
+            final Map<String, Integer> dictionary = new HashMap<>();
+            for (int i = nulls.nextClearBit(0); i < size; i = nulls.nextClearBit(i + 1)) {
+                final String value = (String) records.get(i).get(fieldIndex);
+                codes[i] = dictionary.computeIfAbsent(value, k -> dictionary.size());
+            }
+            final String[] strings = new String[dictionary.size()];
+            dictionary.forEach((value, code) -> strings[code] = value);
+            return new StringValues(codes, strings, nulls);
+        }
+        final Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = records.get(i).get(fieldIndex);
+        }
+        return new ObjectValues(values, nulls);
+    }
+
+    /**
+     * Reads all the rows of a result set into one column per field, without materializing a record per row.
+     * The representation of each column is picked based on the type of its field.
+     *
+     * @param resultSet the result set to read, positioned before its first row
+     * @param fields the fields of the result set, in order
+     * @return the values of each field, in the order of the rows
+     * @throws SQLException if reading from resultSet fails
+     */
+    static ColumnValues[] readAll(final ResultSet resultSet, final Field<?>[] fields) throws SQLException {
+        final Builder[] builders = new Builder[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            builders[i] = Builder.forField(fields[i]);
+        }
+        final int numRows = readInto(resultSet, builders);
+        final ColumnValues[] columns = new ColumnValues[fields.length];
+        for (int i = 0; i < builders.length; i++) {
+            columns[i] = builders[i].build(numRows);
+        }
+        return columns;
+    }
+
+    /**
+     * Appends all the rows of a result set to a set of builders, one per column of the result set.
+     *
+     * @param resultSet the result set to read, positioned before its first row
+     * @param builders the builders to append to, which are expected to be empty
+     * @return the number of rows that were read
+     * @throws SQLException if reading from resultSet fails
+     */
+    static int readInto(final ResultSet resultSet, final Builder[] builders) throws SQLException {
+        int numRows = 0;
+        while (resultSet.next()) {
+            for (int i = 0; i < builders.length; i++) {
+                builders[i].read(resultSet, i + 1, numRows);
+            }
+            numRows++;
+        }
+        return numRows;
+    }
+
+    /**
+     * @return an empty column
+     */
+    static ColumnValues empty() {
+        return new ObjectValues(new Object[0], new BitSet());
+    }
+
+    /**
+     * @return true if the value at the given index is null
+     */
+    public boolean isNull(final int index) {
+        return nulls.get(index);
+    }
+
+    /*
+     * Typed accessors, which convert values the way jOOQ would and do not box values of columns that are
+     * stored in the corresponding representation. The value at the given index must not be null.
+     */
+
+    public int getInt(final int index) {
+        return ((Number) Objects.requireNonNull(get(index))).intValue();
+    }
+
+    public boolean getBoolean(final int index) {
+        return (Boolean) Objects.requireNonNull(get(index));
+    }
+
+    public String getString(final int index) {
+        return Objects.requireNonNull(get(index)).toString();
+    }
+
+    public float getFloat(final int index) {
+        return ((Number) Objects.requireNonNull(get(index))).floatValue();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @Nullable
+    public Object get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return nulls.get(index) ? null : getNonNull(index);
+    }
+
+    abstract Object getNonNull(int index);
+
+    /**
+     * Compares the values of two columns with the same representation, without boxing them
+     */
+    abstract boolean sameValues(ColumnValues other);
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o != null && o.getClass() == getClass()) {
+            final ColumnValues other = (ColumnValues) o;
+            return size == other.size && nulls.equals(other.nulls) && sameValues(other);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    /**
+     * Accumulates the values of a single column in a growable buffer. Besides appending rows read from a result
+     * set, rows can be overwritten and removed in place, so that a column can be kept up to date with the changes
+     * to a table. Values passed to set() are expected to already be converted to the type of the field.
+     *
+     * Every invocation of build() returns a new, immutable copy of the buffer.
+     */
+    abstract static class Builder {
+        final BitSet nulls = new BitSet();
+
+        static Builder forField(final Field<?> field) {
+            final Class<?> type = field.getType();
+            if (type == Integer.class) {
+                return new IntColumnBuilder();
+            }
+            if (type == Long.class) {
+                return new LongColumnBuilder();
+            }
+            if (type == Boolean.class) {
+                return new BooleanColumnBuilder();
+            }
+            if (type == String.class) {
+                return new StringColumnBuilder();
+            }
+            return new ObjectColumnBuilder(field);
+        }
+
+        abstract void read(ResultSet resultSet, int columnIndex, int row) throws SQLException;
+
+        /**
+         * Sets the value of a row, which may be one past the last row to append a value
+         */
+        abstract void set(int row, @Nullable Object value);
+
+        @Nullable
+        Object get(final int row) {
+            return nulls.get(row) ? null : getNonNull(row);
+        }
+
+        abstract Object getNonNull(int row);
+
+        /**
+         * Copies the value of a row into another, lower row
+         */
+        abstract void move(int from, int to);
+
+        /**
+         * Removes rows from the buffer, shifting the remaining rows down while retaining their order
+         *
+         * @param removed the rows to remove
+         * @param numRows the number of rows in the buffer
+         */
+        void compact(final BitSet removed, final int numRows) {
+            int to = removed.nextSetBit(0);
+            if (to < 0 || to >= numRows) {
+                return;
+            }
+            for (int from = removed.nextClearBit(to); from < numRows; from = removed.nextClearBit(from + 1)) {
+                move(from, to);
+                nulls.set(to, nulls.get(from));
+                to++;
+            }
+            clear(to, numRows);
+        }
+
+        /**
+         * Resets the rows in the given range to their initial state
+         */
+        void clear(final int fromRow, final int toRow) {
+            nulls.clear(fromRow, toRow);
+        }
+
+        abstract ColumnValues build(int numRows);
+    }
+
+    private static final class IntColumnBuilder extends Builder {
+        private int[] values = new int[16];
+
+        @Override
+        void read(final ResultSet resultSet, final int columnIndex, final int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = resultSet.getInt(columnIndex);
+            if (resultSet.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        void set(final int row, @Nullable final Object value) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = value == null ? 0 : (Integer) value;
+            nulls.set(row, value == null);
+        }
+
+        @Override
+        Object getNonNull(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void move(final int from, final int to) {
+            values[to] = values[from];
+        }
+
+        @Override
+        void clear(final int fromRow, final int toRow) {
+            super.clear(fromRow, toRow);
+            Arrays.fill(values, fromRow, toRow, 0);
+        }
+
+        @Override
+        ColumnValues build(final int numRows) {
+            return new IntValues(Arrays.copyOf(values, numRows), nulls.get(0, numRows));
+        }
+    }
+
+    private static final class LongColumnBuilder extends Builder {
+        private long[] values = new long[16];
+
+        @Override
+        void read(final ResultSet resultSet, final int columnIndex, final int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = resultSet.getLong(columnIndex);
+            if (resultSet.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        void set(final int row, @Nullable final Object value) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = value == null ? 0L : (Long) value;
+            nulls.set(row, value == null);
+        }
+
+        @Override
+        Object getNonNull(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void move(final int from, final int to) {
+            values[to] = values[from];
+        }
+
+        @Override
+        void clear(final int fromRow, final int toRow) {
+            super.clear(fromRow, toRow);
+            Arrays.fill(values, fromRow, toRow, 0L);
+        }
+
+        @Override
+        ColumnValues build(final int numRows) {
+            return new LongValues(Arrays.copyOf(values, numRows), nulls.get(0, numRows));
+        }
+    }
+
+    private static final class BooleanColumnBuilder extends Builder {
+        private final BitSet values = new BitSet();
+
+        @Override
+        void read(final ResultSet resultSet, final int columnIndex, final int row) throws SQLException {
+            values.set(row, resultSet.getBoolean(columnIndex));
+            if (resultSet.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        void set(final int row, @Nullable final Object value) {
+            values.set(row, value != null && (Boolean) value);
+            nulls.set(row, value == null);
+        }
+
+        @Override
+        Object getNonNull(final int row) {
+            return values.get(row);
+        }
+
+        @Override
+        void move(final int from, final int to) {
+            values.set(to, values.get(from));
+        }
+
+        @Override
+        void clear(final int fromRow, final int toRow) {
+            super.clear(fromRow, toRow);
+            values.clear(fromRow, toRow);
+        }
+
+        @Override
+        ColumnValues build(final int numRows) {
+            return new BooleanValues(numRows, values.get(0, numRows), nulls.get(0, numRows));
+        }
+    }
+
+    private static final class StringColumnBuilder extends Builder {
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int[] codes = new int[16];
+        private int size = 0;
+        // Whether codes are numbered in order of appearance and every string in the dictionary is in use
+        private boolean canonical = true;
+
+        @Override
+        void read(final ResultSet resultSet, final int columnIndex, final int row) throws SQLException {
+            set(row, resultSet.getString(columnIndex));
+        }
+
+        @Override
+        void set(final int row, @Nullable final Object value) {
+            if (row == codes.length) {
+                codes = Arrays.copyOf(codes, row * 2);
+            }
+            if (row < size) {
+                canonical = false;
+            } else {
+                size = row + 1;
+            }
+            if (value == null) {
+                codes[row] = 0;
+                nulls.set(row);
+            } else {
+                final Integer code = dictionary.get(value);
+                if (code == null) {
+                    codes[row] = strings.size();
+                    dictionary.put((String) value, strings.size());
+                    strings.add((String) value);
+                } else {
+                    codes[row] = code;
+                }
+                nulls.clear(row);
+            }
+        }
+
+        @Override
+        Object getNonNull(final int row) {
+            return strings.get(codes[row]);
+        }
+
+        @Override
+        void move(final int from, final int to) {
+            codes[to] = codes[from];
+        }
+
+        @Override
+        void compact(final BitSet removed, final int numRows) {
+            super.compact(removed, numRows);
+            canonical = false;
+        }
+
+        @Override
+        void clear(final int fromRow, final int toRow) {
+            super.clear(fromRow, toRow);
+            Arrays.fill(codes, fromRow, toRow, 0);
+            size = Math.min(size, fromRow);
+        }
+
+        @Override
+        ColumnValues build(final int numRows) {
+            if (!canonical) {
+                canonicalize(numRows);
+            }
+            return new StringValues(Arrays.copyOf(codes, numRows), strings.toArray(new String[0]),
+                                    nulls.get(0, numRows));
+        }
+
+        /**
+         * Renumbers codes in order of appearance, and drops strings that are no longer in use, so that
+         * equal columns have equal dictionaries and overwritten strings do not accumulate
+         */
+        private void canonicalize(final int numRows) {
+            final int[] renumbered = new int[strings.size()];
+            Arrays.fill(renumbered, -1);
+            final List<String> inUse = new ArrayList<>();
+            for (int row = nulls.nextClearBit(0); row < numRows; row = nulls.nextClearBit(row + 1)) {
+                final int code = codes[row];
+                if (renumbered[code] < 0) {
+                    renumbered[code] = inUse.size();
+                    inUse.add(strings.get(code));
+                }
+                codes[row] = renumbered[code];
+            }
+            strings.clear();
+            strings.addAll(inUse);
+            dictionary.clear();
+            for (int code = 0; code < inUse.size(); code++) {
+                dictionary.put(inUse.get(code), code);
+            }
+            canonical = true;
+        }
+    }
+
+    private static final class ObjectColumnBuilder extends Builder {
+        private final Field<?> field;
+        private Object[] values = new Object[16];
+
+        private ObjectColumnBuilder(final Field<?> field) {
+            this.field = field;
+        }
+
+        @Override
+        void read(final ResultSet resultSet, final int columnIndex, final int row) throws SQLException {
+            // Convert values the way jOOQ would when fetching records
+            set(row, field.getDataType().convert(resultSet.getObject(columnIndex)));
+        }
+
+        @Override
+        void set(final int row, @Nullable final Object value) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = value;
+            nulls.set(row, value == null);
+        }
+
+        @Override
+        Object getNonNull(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void move(final int from, final int to) {
+            values[to] = values[from];
+        }
+
+        @Override
+        void clear(final int fromRow, final int toRow) {
+            super.clear(fromRow, toRow);
+            Arrays.fill(values, fromRow, toRow, null);
+        }
+
+        @Override
+        ColumnValues build(final int numRows) {
+            return new ObjectValues(Arrays.copyOf(values, numRows), nulls.get(0, numRows));
+        }
+    }
+
+    private static final class IntValues extends ColumnValues {
+        private final int[] values;
+
+        private IntValues(final int[] values, final BitSet nulls) {
+            super(values.length, nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object getNonNull(final int index) {
+            return values[index];
+        }
+
+        @Override
+        public int getInt(final int index) {
+            return values[index];
+        }
+
+        @Override
+        boolean sameValues(final ColumnValues other) {
+            return Arrays.equals(values, ((IntValues) other).values);
+        }
+    }
+
+    private static final class LongValues extends ColumnValues {
+        private final long[] values;
+
+        private LongValues(final long[] values, final BitSet nulls) {
+            super(values.length, nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object getNonNull(final int index) {
+            return values[index];
+        }
+
+        @Override
+        public int getInt(final int index) {
+            return (int) values[index];
+        }
+
+        @Override
+        boolean sameValues(final ColumnValues other) {
+            return Arrays.equals(values, ((LongValues) other).values);
+        }
+    }
+
+    private static final class BooleanValues extends ColumnValues {
+        private final BitSet values;
+
+        private BooleanValues(final int size, final BitSet values, final BitSet nulls) {
+            super(size, nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object getNonNull(final int index) {
+            return values.get(index);
+        }
+
+        @Override
+        public boolean getBoolean(final int index) {
+            return values.get(index);
+        }
+
+        @Override
+        boolean sameValues(final ColumnValues other) {
+            return values.equals(((BooleanValues) other).values);
+        }
+    }
+
+    private static final class StringValues extends ColumnValues {
+        private final int[] codes;
+        private final String[] dictionary;
+
+        private StringValues(final int[] codes, final String[] dictionary, final BitSet nulls) {
+            super(codes.length, nulls);
+            this.codes = codes;
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        Object getNonNull(final int index) {
+            return dictionary[codes[index]];
+        }
+
+        @Override
+        public String getString(final int index) {
+            return dictionary[codes[index]];
+        }
+
+        @Override
+        boolean sameValues(final ColumnValues other) {
+            // Dictionaries are built in order of appearance, so equal columns have equal dictionaries
+            final StringValues otherStrings = (StringValues) other;
+            return Arrays.equals(codes, otherStrings.codes) && Arrays.equals(dictionary, otherStrings.dictionary);
+        }
+    }
+
+    private static final class ObjectValues extends ColumnValues {
+        private final Object[] values;
+
+        private ObjectValues(final Object[] values, final BitSet nulls) {
+            super(values.length, nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object getNonNull(final int index) {
+            return values[index];
+        }
+
+        @Override
+        boolean sameValues(final ColumnValues other) {
+            return Arrays.equals(values, ((ObjectValues) other).values);
+        }
+    }
+}
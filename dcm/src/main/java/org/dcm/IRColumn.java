@@ -31,8 +31,7 @@ public class IRColumn {
     @Nullable private final IRTable irTable;
     private final String name;
     private final FieldTag tag;
-    @GuardedBy("this") private List<String> values;
-    @GuardedBy("this") private List<?> fieldValues;
+    @GuardedBy("this") private ColumnValues fieldValues;
     private Optional<IRColumn> foreignKeyParent;
 
 
@@ -146,8 +145,7 @@ public class IRColumn {
         this.name = fieldName;
         this.tag = fieldTag;
         this.type = fieldType;
-        this.values = new ArrayList<>();
-        this.fieldValues = new ArrayList<>();
+        this.fieldValues = ColumnValues.empty();
         this.foreignKeyParent = Optional.empty();
     }
 
@@ -219,59 +217,24 @@ public class IRColumn {
     }
 
     /**
+     * Used by the code generated by the OR-tools backend to read input columns
+     *
      * @return we get the original values from the correspondent jooqField
      */
-    synchronized List<?> getFieldValues() {
+    public synchronized ColumnValues getFieldValues() {
         Preconditions.checkNotNull(type);
         return fieldValues;
     }
 
     /**
      * This is used to update the IRColumn with the values from its corresponding
-     * column in the SQL database. We coerce the variable and value names to a formatting
-     * that is MiniZinc friendly.
+     * column in the SQL database.
      *
-     * @param values A list of values that will be reflected in the dzn file for
-     *               the corresponding jooqField/column.
+     * @param values the values of the corresponding column, in a columnar representation
      */
-    synchronized void setValues(final List<?> values) {
+    synchronized void setValues(final ColumnValues values) {
         Preconditions.checkNotNull(type);
         this.fieldValues = values;
-        this.values = new ArrayList<>();
-        for (final Object v : values) {
-            // we always convert to string
-            String svalue = v == null ? "null" : v.toString();
-
-            /*
-             * The generated model differentiates between primary keys, controllable, and
-             * fixed columns. We translate the values to MiniZinc friendly forms.
-             */
-            switch (tag) {
-                /*
-                 * Both CONTROLLABLE and INPUT have the same rules because current CONTROLLABLE values
-                 * are also part of the data model
-                 */
-                case CONTROLLABLE:
-                case INPUT: {
-                    switch (type) {
-                        // Strings in MiniZinc need to be quoted
-                        case STRING: {
-                            svalue = String.format("\"%s\"", svalue);
-                            break;
-                        }
-                        // bools are lower cased 'true' and 'false'
-                        case BOOL: {
-                            svalue = svalue.toLowerCase(Locale.US);
-                            break;
-                        }
-                        default: { }
-                    }
-                    break;
-                }
-                default: { }
-            }
-            this.values.add(svalue);
-        }
     }
 
     @Override
@@ -281,7 +244,6 @@ public class IRColumn {
                 ", name='" + this.name + '\'' +
                 ", type=" + this.type +
                 ", tag=" + this.tag +
-                ", values=" + this.values +
                 ", fieldValues=" + this.fieldValues +
                 '}';
     }
@@ -307,7 +269,49 @@ public class IRColumn {
         return Objects.hash(jooqField, type, name, tag, foreignKeyParent);
     }
 
+    /**
+     * The values of this column, coerced to a formatting that is MiniZinc friendly. These are computed
+     * on every invocation, so that only backends that need them pay for them.
+     *
+     * @return the values of this column as they should be reflected in the dzn file
+     */
     public synchronized List<String> getValues() {
+        Preconditions.checkNotNull(type);
+        final List<String> values = new ArrayList<>(fieldValues.size());
+        for (final Object v : fieldValues) {
+            // we always convert to string
+            String svalue = v == null ? "null" : v.toString();
+
+            /*
+             * The generated model differentiates between primary keys, controllable, and
+             * fixed columns. We translate the values to MiniZinc friendly forms.
+             */
+            switch (tag) {
+                /*
+                 * Both CONTROLLABLE and INPUT have the same rules because current CONTROLLABLE values
+                 * are also part of the data model
+                 */
+                case CONTROLLABLE:
+                case INPUT: {
+                    switch (type) {
+                        // Strings in MiniZinc need to be quoted
+                        case STRING: {
+                            svalue = String.format("\"%s\"", svalue);
+                            break;
+                        }
+                        // bools are lower cased 'true' and 'false'
+                        case BOOL: {
+                            svalue = svalue.toLowerCase(Locale.US);
+                            break;
+                        }
+                        default: { }
+                    }
+                    break;
+                }
+                default: { }
+            }
+            values.add(svalue);
+        }
         return values;
     }
 }
@@ -7,10 +7,13 @@
 package org.dcm;
 
 import com.google.common.base.Preconditions;
+import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
+import org.jooq.SQLDialect;
 import org.jooq.Table;
+import org.jooq.impl.DSL;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
@@ -37,10 +40,12 @@ public class IRTable {
     private final String alias;
     @Nullable private final Table<? extends Record> jooqTable;
     @Nullable private Result<? extends Record> recentData = null;
+    private boolean hasData = false;
     private final Map<String, IRColumn> irColumns;
     private final Map<Field, IRColumn> fieldToIRColumn;
     private final List<IRForeignKey> foreignKeys;
     private Optional<IRPrimaryKey> primaryKey = Optional.empty();
+    private long dataVersion = 0;
 
     /**
      * Parsing and storing a reference to every field within that jooq table so we can later update the values for
@@ -186,21 +191,93 @@ public class IRTable {
      */
     void updateValues(final Result<? extends Record> recentData) {
         Preconditions.checkNotNull(jooqTable);
+        boolean changed = !hasData;
         this.recentData = recentData;
-        // stores all the values per field for later use in MiniZinc
+        // stores all the values per field in a columnar form, for later use by the solver backends
         for (final Field<?> field : jooqTable.fields()) {
-            fieldToIRColumn.get(field).setValues(recentData.getValues(field));
+            final IRColumn irColumn = fieldToIRColumn.get(field);
+            final ColumnValues values = ColumnValues.copyOf(recentData, recentData.fieldsRow().indexOf(field));
+            changed = changed || !values.equals(irColumn.getFieldValues());
+            irColumn.setValues(values);
         }
+        hasData = true;
+        if (changed) {
+            dataVersion++;
+        }
+    }
+
+    /**
+     * Updates the table with values that were read in a columnar form, one entry per field of the table
+     * in order. Records are only materialized if a backend asks for them through getCurrentData().
+     */
+    void updateValues(final ColumnValues[] columns) {
+        Preconditions.checkNotNull(jooqTable);
+        final Field<?>[] fields = jooqTable.fields();
+        Preconditions.checkArgument(columns.length == fields.length);
+        boolean changed = !hasData;
+        this.recentData = null;
+        for (int i = 0; i < fields.length; i++) {
+            final IRColumn irColumn = fieldToIRColumn.get(fields[i]);
+            changed = changed || !columns[i].equals(irColumn.getFieldValues());
+            irColumn.setValues(columns[i]);
+        }
+        hasData = true;
+        if (changed) {
+            dataVersion++;
+        }
+    }
+
+    /**
+     * @return a counter that is incremented whenever updateValues() changes the data of this table
+     */
+    public long getDataVersion() {
+        return dataVersion;
     }
 
     /**
-     * Get the most recently invoked result set for this table.
+     * Get the most recently invoked result set for this table. Backends that can work with the columnar values
+     * of each IRColumn should read those instead, as the records are materialized on first use.
      */
     public Result<? extends Record> getCurrentData() {
-        Preconditions.checkNotNull(recentData);
+        Preconditions.checkState(hasData);
+        if (recentData == null) {
+            recentData = materializeRecords(Preconditions.checkNotNull(jooqTable));
+        }
         return recentData;
     }
 
+    /**
+     * Used by the OR-tools backend to return the output of a solver.
+     *
+     * @return a new set of records holding the current data of this table, which the caller may modify
+     */
+    public Result<? extends Record> newRecords() {
+        Preconditions.checkState(hasData);
+        return materializeRecords(Preconditions.checkNotNull(jooqTable));
+    }
+
+    private <R extends Record> Result<R> materializeRecords(final Table<R> table) {
+        final Field<?>[] fields = table.fields();
+        final List<List<?>> columns = new ArrayList<>(fields.length);
+        for (final Field<?> field : fields) {
+            columns.add(fieldToIRColumn.get(field).getFieldValues());
+        }
+        final int numRows = getNumRows();
+        final DSLContext dslContext = DSL.using(SQLDialect.DEFAULT);
+        final Result<R> result = dslContext.newResult(table);
+        final Object[] values = new Object[fields.length];
+        for (int row = 0; row < numRows; row++) {
+            for (int i = 0; i < fields.length; i++) {
+                values[i] = columns.get(i).get(row);
+            }
+            final R record = dslContext.newRecord(table);
+            record.fromArray(values);
+            record.changed(false);
+            result.add(record);
+        }
+        return result;
+    }
+
     @Override
     public String toString() {
         return "IRTable{" +
@@ -13,6 +13,8 @@ import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.CreateView;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import org.dcm.backend.ISolverBackend;
 import org.dcm.backend.MinizincSolver;
@@ -24,14 +26,18 @@ import org.jooq.ForeignKey;
 import org.jooq.Meta;
 import org.jooq.Record;
 import org.jooq.Result;
-import org.jooq.RowN;
 import org.jooq.Table;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -41,8 +47,8 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import static org.jooq.impl.DSL.row;
-import static org.jooq.impl.DSL.values;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 
 
 /**
@@ -66,6 +72,7 @@ public class Model {
     private final ModelCompiler compiler;
     private IRContext irContext;
     private final ISolverBackend backend;
+    @Nullable private ChangeLog changeLog = null;
 
 
     @SuppressWarnings("unused")
@@ -136,7 +143,11 @@ public class Model {
         }
         irContext = new IRContext(irTables);
         compiler = new ModelCompiler(irContext);
-        compiler.compile(constraintViews, backend);
+        // Compilation adds IRTables for views to the IRContext, so we hash it before compiling
+        final String modelHash = modelHash(constraints, irContext);
+        if (!backend.loadCachedModel(modelHash)) {
+            compiler.compile(constraintViews, backend);
+        }
     }
 
     /**
@@ -188,6 +199,40 @@ public class Model {
         return new Model(dslContext, solverBackend, tables, constraints);
     }
 
+    /**
+     * Computes a hash that identifies a model by its constraints, and by the metadata of the tables that
+     * code generation depends on: column names, types and tags, primary keys and foreign keys.
+     */
+    private static String modelHash(final List<String> constraints, final IRContext irContext) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        constraints.forEach(constraint -> hasher.putString(constraint, UTF_8).putChar('\0'));
+        final List<IRTable> tables = new ArrayList<>(irContext.getTables());
+        tables.sort(Comparator.comparing(IRTable::getName));
+        for (final IRTable table : tables) {
+            hasher.putString(table.getName(), UTF_8).putChar('\0');
+            for (final IRColumn column : table.getIRColumns().values()) {
+                hasher.putString(column.getName(), UTF_8)
+                      .putString(column.getType().name(), UTF_8)
+                      .putString(column.getTag().name(), UTF_8)
+                      .putString(column.getJooqField().getType().getName(), UTF_8)
+                      .putChar('\0');
+            }
+            table.getPrimaryKey().ifPresent(pk -> pk.getPrimaryKeyFields()
+                                                     .forEach(column -> hasher.putString(column.getName(), UTF_8)
+                                                                              .putChar('\0')));
+            for (final IRForeignKey fk : table.getForeignKeys()) {
+                final List<String> fields = fk.getFields().entrySet().stream()
+                        .map(e -> e.getKey().getName() + "->" + e.getValue().getIRTable().getName()
+                                  + "." + e.getValue().getName())
+                        .sorted()
+                        .collect(Collectors.toList());
+                fields.forEach(field -> hasher.putString(field, UTF_8).putChar('\0'));
+                hasher.putBoolean(fk.hasConstraint());
+            }
+        }
+        return hasher.hash().toString();
+    }
+
     /**
      * Finds all the tables that are on the CURRENT_SCHEMA on the given DSLContext
      *
@@ -204,6 +249,10 @@ public class Model {
         final Meta dslMeta = dslContext.meta();
         final List<Table<?>> tables = new ArrayList<>();
         for (final Table<?> t : dslMeta.getTables()) {
+            // Change-logs used for incremental updates are never part of a model
+            if (t.getName().startsWith(ChangeLog.LOG_TABLE_PREFIX)) {
+                continue;
+            }
             // If there are no constraints, access all tables in the CURR schema.
             // Else, only access the tables that are referenced by the constraints.
             if ((constraints.size() == 0 && t.getSchema().getName().equals(CURRENT_SCHEMA))
@@ -228,6 +277,36 @@ public class Model {
         updateDataFields();
     }
 
+    /**
+     * Switches updateData() to an incremental mode, where tables are no longer re-scanned on every invocation.
+     * Instead, changes to the tables are logged as they happen, and updateData() only applies the rows that
+     * were inserted, updated or deleted since it was last invoked. Tables that see no changes are not read at all.
+     *
+     * Only tables with a primary key and without controllable columns are tracked this way, and only on H2.
+     * All other tables (including views) continue to be read in full.
+     *
+     * This installs triggers and change-log tables in the database, which have to be removed by invoking
+     * disableIncrementalUpdates() before the model is discarded.
+     */
+    @SuppressWarnings({"WeakerAccess", "reason=Public API"})
+    public synchronized void enableIncrementalUpdates() {
+        if (changeLog == null) {
+            changeLog = ChangeLog.install(dbCtx, jooqTableToIRTable.values());
+        }
+    }
+
+    /**
+     * Removes the triggers and change-log tables installed by enableIncrementalUpdates(). Subsequent
+     * invocations of updateData() read all tables in full.
+     */
+    @SuppressWarnings({"WeakerAccess", "reason=Public API"})
+    public synchronized void disableIncrementalUpdates() {
+        if (changeLog != null) {
+            changeLog.uninstall();
+            changeLog = null;
+        }
+    }
+
     /**
      * Solves the current model by running the current modelFile and dataFile against MiniZinc
      */
@@ -259,72 +338,52 @@ public class Model {
                 recordsToReturn.put(entry.getKey().getName(), entry.getValue());
             }
         }
+        // Backends may leave out tables without variables, whose contents are the same as their input
+        for (final String table : tables) {
+            final IRTable irTable = irTables.get(table);
+            if (!recordsToReturn.containsKey(table) && irTable != null && !irTable.isViewTable()) {
+                recordsToReturn.put(table, irTable.getCurrentData());
+            }
+        }
         return recordsToReturn;
     }
 
     /**
-     * Updates the database tables based on the output from the MiniZinc model.
-     *
-     * XXX: This method is currently a performance bottleneck.
+     * Updates the database tables based on the output from the solver. Only the rows and controllable
+     * columns that differ from the rows currently in the tables are written back.
      */
-    @SuppressWarnings("unchecked")
     private void updateTables(final Map<IRTable, Result<? extends Record>> recordsPerTable) {
-        LOG.info("Removing constraints");
-
-        // We temporarily remove constraints so we avoid SQL errors related to ForeignKey errors
-        removeConstraints(jooqTableConstraintMap);
-
+        final List<TableUpdater> updaters = new ArrayList<>(recordsPerTable.size());
+        boolean modifiesRows = false;
         for (final Map.Entry<IRTable, Result<? extends Record>> tableEntry : recordsPerTable.entrySet()) {
             final IRTable irTable = tableEntry.getKey();
-            LOG.info("Updating rows for table: {}", irTable.getName());
 
-            // if a table has no variables, there will be no new values from MiniZinc output to write
+            // if a table has no variables, there will be no new values from the solver output to write
             // hence we just skip that value
             if (irTable.getVars().isEmpty()) {
                 continue;
             }
-
-            final Table table = irTable.getTable();
-            final Result<? extends Record> records = tableEntry.getValue();
-
-            // transform the result into a temporary VALUES table
-            // https://www.jooq.org/doc/latest/manual/sql-building/table-expressions/values/
-            final RowN[] valuesRows = records.stream().map(Record::valuesRow).toArray(RowN[]::new);
-
-            // Rundown of the different query parts:
-            // - Current Table:
-            //      dbCtx.selectFrom(table)
-            // - Temporary VALUES table built from the MiniZinc output
-            //      dbCtx.selectFrom(values(valuesRows).as(table, table.fields()))
-
-            // Delete rows on current table that are not in the MiniZinc output
-            // computed as: Current Table MINUS MiniZinc output table
-            final Result<? extends Record> rowsToDelete = dbCtx.selectFrom(table)
-                    .except(dbCtx.selectFrom(values(valuesRows).as(table, table.fields())))
-                    .fetchInto(table);
-
-            if (rowsToDelete.size() == 0) {
-                continue;
+            final TableUpdater updater = TableUpdater.diff(dbCtx, irTable, tableEntry.getValue());
+            LOG.info("Updating {} rows for table: {}", updater.numChanges(), irTable.getName());
+            if (updater.numChanges() > 0) {
+                updaters.add(updater);
+                modifiesRows |= updater.modifiesRows();
             }
+        }
+        if (updaters.isEmpty()) {
+            return;
+        }
 
-            // jOOQ's `batchDelete` won't work here because it needs a list of `UpdatableRecord`s,
-            // but `UpdatableRecord` only exists for tables with a primary key.
-            // Since we are not assuming that, we execute an row-by-row delete.
-            dbCtx.transaction(configuration -> {
-                final DSLContext txCtx = DSL.using(configuration);
-                for (final Record recordToDelete : rowsToDelete) {
-                    txCtx.delete(table).where(row(table.fields()).eq(recordToDelete.intoArray())).execute();
-                }
-
-            });
-
-            // Insert new rows from MiniZinc output
-            // computed as: MiniZinc output table MINUS Current Table
-            dbCtx.insertInto(table)
-                    .select(dbCtx.selectFrom(values(valuesRows).as(table, table.fields()))
-                                 .except(dbCtx.selectFrom(table)))
-                    .execute();
+        // Updates to controllable columns of existing rows leave keys intact. Only if we have to delete and
+        // re-insert rows do we temporarily remove constraints, so we avoid SQL errors related to ForeignKey errors.
+        if (modifiesRows) {
+            LOG.info("Removing constraints");
+            removeConstraints(jooqTableConstraintMap);
         }
+        dbCtx.transaction(configuration -> {
+            final DSLContext txCtx = DSL.using(configuration);
+            updaters.forEach(updater -> updater.execute(txCtx));
+        });
 
         // FIXME: If any exception is thrown while performing the operations in the tables we might not be able to
         // restore the constraints here again. Even if we add a try-finally block, there might be the case when the
@@ -332,7 +391,9 @@ public class Model {
         // TODO: Observe the different exceptions that might get thrown in this method and handle them overtime
 
         // After updating the DB we restore the constraints that we removed before
-        restoreConstraints(jooqTableConstraintMap);
+        if (modifiesRows) {
+            restoreConstraints(jooqTableConstraintMap);
+        }
 
         LOG.info("Wrote output to the given DB context! You can read changes now.");
     }
@@ -411,19 +472,38 @@ public class Model {
      */
     private void updateDataFields() {
         final long updateData = System.nanoTime();
+        if (changeLog != null) {
+            changeLog.consume();
+        }
         for (final Map.Entry<Table<? extends Record>, IRTable> entry : jooqTableToIRTable.entrySet()) {
             final Table<? extends Record> table = entry.getKey();
             final IRTable irTable = entry.getValue();
             final long start = System.nanoTime();
-            final Result<? extends Record> recentData = dbCtx.selectFrom(table).fetch();
-            final long select = System.nanoTime();
-            irTable.updateValues(recentData);
-            final long updateValues = System.nanoTime();
-            LOG.info("updateDataFields for table {} took {} ns to fetch {} rows from DB, " +
-                            "and {} ns to reflect in IRTables",
-                     table.getName(), (select - start), recentData.size(), (System.nanoTime() - updateValues));
+            if (changeLog != null && changeLog.isTracked(table)) {
+                final ColumnValues[] changedData = changeLog.fetchIfChanged(table);
+                if (changedData == null) {
+                    LOG.info("updateDataFields for table {} skipped: no changes", table.getName());
+                    continue;
+                }
+                irTable.updateValues(changedData);
+            } else {
+                irTable.updateValues(fetchColumns(table));
+            }
+            LOG.info("updateDataFields for table {} took {} ns to fetch {} rows from DB",
+                     table.getName(), (System.nanoTime() - start), irTable.getNumRows());
         }
         compiler.updateData(irContext, backend);
         LOG.info("compiler.updateData() took {}ns to complete", (System.nanoTime() - updateData));
     }
+
+    /**
+     * Reads a table straight from its JDBC result set into columns, without creating a record per row
+     */
+    private ColumnValues[] fetchColumns(final Table<? extends Record> table) {
+        try (final ResultSet resultSet = dbCtx.selectFrom(table).fetchResultSet()) {
+            return ColumnValues.readAll(resultSet, table.fields());
+        } catch (final SQLException e) {
+            throw new DataAccessException("Could not read table " + table.getName(), e);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm;
+
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.Table;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the output of a solver back to a table. Rather than replacing the contents of the table, we diff
+ * the solver's output against the rows currently in the table, and issue batched statements that only touch
+ * the rows and controllable columns that changed.
+ *
+ * Rows are matched by primary key if the table has one that does not include controllable columns. All
+ * other tables are diffed row by row, and changed rows are deleted and re-inserted.
+ */
+class TableUpdater {
+    private final Table<? extends Record> table;
+    private final Field<?>[] keyFields;
+    private final boolean matchByKey;
+    private final Map<BitSet, List<Object[]>> updatesByColumns = new LinkedHashMap<>();
+    private final List<Object[]> deletes = new ArrayList<>();
+    private final List<Object[]> inserts = new ArrayList<>();
+
+    private TableUpdater(final Table<? extends Record> table, final Field<?>[] keyFields,
+                         final boolean matchByKey) {
+        this.table = table;
+        this.keyFields = keyFields;
+        this.matchByKey = matchByKey;
+    }
+
+    /**
+     * Computes the changes required to reflect a solver's output in a table.
+     *
+     * @param dbCtx the DSLContext to read the current rows of the table from
+     * @param irTable a table with controllable columns
+     * @param records the solver's output for that table
+     * @return a TableUpdater with the set of changes to apply
+     */
+    static TableUpdater diff(final DSLContext dbCtx, final IRTable irTable,
+                             final Result<? extends Record> records) {
+        final Table<? extends Record> table = irTable.getTable();
+        final Field<?>[] fields = table.fields();
+
+        // The rows currently in the table. We cannot use the data the model was last updated with, because
+        // the table might have changed while the solver was running.
+        final List<List<?>> previousValues;
+        try (final ResultSet resultSet = dbCtx.selectFrom(table).fetchResultSet()) {
+            previousValues = Arrays.asList(ColumnValues.readAll(resultSet, fields));
+        } catch (final SQLException e) {
+            throw new DataAccessException("Could not read table " + table.getName(), e);
+        }
+        final int numRows = previousValues.isEmpty() ? 0 : previousValues.get(0).size();
+
+        // Backends do not necessarily produce values of the same type as the table's fields (like Long values
+        // for an integer column), so we convert them the same way as values read from the table.
+        final List<Object[]> newValues = new ArrayList<>(records.size());
+        for (final Record record : records) {
+            final Object[] values = record.intoArray();
+            for (int i = 0; i < fields.length; i++) {
+                values[i] = fields[i].getDataType().convert(values[i]);
+            }
+            newValues.add(values);
+        }
+        final boolean matchByKey = irTable.getPrimaryKey().isPresent()
+                                   && !irTable.getPrimaryKey().get().getPrimaryKeyFields().isEmpty()
+                                   && !irTable.getPrimaryKey().get().hasControllableColumn();
+        if (matchByKey) {
+            final Field<?>[] keyFields = irTable.getPrimaryKey().get().getPrimaryKeyFields().stream()
+                                                .map(IRColumn::getJooqField)
+                                                .toArray(Field[]::new);
+            final TableUpdater updater = new TableUpdater(table, keyFields, true);
+            updater.diffByKey(irTable, previousValues, numRows, newValues);
+            return updater;
+        }
+        final TableUpdater updater = new TableUpdater(table, fields, false);
+        updater.diffByRow(previousValues, numRows, newValues);
+        return updater;
+    }
+
+    private void diffByKey(final IRTable irTable, final List<List<?>> previousValues, final int numRows,
+                           final List<Object[]> newValues) {
+        final Field<?>[] fields = table.fields();
+        final int[] keyIndices = Arrays.stream(keyFields).mapToInt(Arrays.asList(fields)::indexOf).toArray();
+        final int[] controllableIndices = new int[fields.length];
+        int numControllable = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (irTable.getField(fields[i]).isControllable()) {
+                controllableIndices[numControllable++] = i;
+            }
+        }
+
+        final Map<List<Object>, Integer> rowIndexByKey = new HashMap<>(numRows);
+        for (int row = 0; row < numRows; row++) {
+            final List<Object> key = new ArrayList<>(keyIndices.length);
+            for (final int index : keyIndices) {
+                key.add(previousValues.get(index).get(row));
+            }
+            rowIndexByKey.put(key, row);
+        }
+
+        for (final Object[] values : newValues) {
+            final List<Object> key = new ArrayList<>(keyIndices.length);
+            for (final int index : keyIndices) {
+                key.add(values[index]);
+            }
+            final Integer row = rowIndexByKey.remove(key);
+            if (row == null) {
+                inserts.add(values);
+                continue;
+            }
+            // Group updates by the set of columns they change, so that each group is a single batch
+            final BitSet changedColumns = new BitSet(fields.length);
+            for (int i = 0; i < numControllable; i++) {
+                final int index = controllableIndices[i];
+                if (!Objects.equals(previousValues.get(index).get(row), values[index])) {
+                    changedColumns.set(index);
+                }
+            }
+            if (changedColumns.isEmpty()) {
+                continue;
+            }
+            final Object[] bindValues = new Object[changedColumns.cardinality() + keyIndices.length];
+            int bindIndex = 0;
+            for (final int index : changedColumns.stream().toArray()) {
+                bindValues[bindIndex++] = values[index];
+            }
+            for (final Object keyValue : key) {
+                bindValues[bindIndex++] = keyValue;
+            }
+            updatesByColumns.computeIfAbsent(changedColumns, k -> new ArrayList<>()).add(bindValues);
+        }
+
+        // Rows that are absent from the solver's output
+        for (final List<Object> key : rowIndexByKey.keySet()) {
+            deletes.add(key.toArray());
+        }
+    }
+
+    private void diffByRow(final List<List<?>> previousValues, final int numRows,
+                           final List<Object[]> newValues) {
+        // Rows are compared in their entirety: we delete the rows that are absent from the solver's output,
+        // and insert the ones that are new. Like SQL's EXCEPT, duplicate rows are only inserted once.
+        final Set<List<Object>> previousRows = new HashSet<>(numRows);
+        for (int row = 0; row < numRows; row++) {
+            final List<Object> values = new ArrayList<>(previousValues.size());
+            for (final List<?> column : previousValues) {
+                values.add(column.get(row));
+            }
+            previousRows.add(values);
+        }
+        final Set<List<Object>> newRows = new LinkedHashSet<>(newValues.size());
+        for (final Object[] values : newValues) {
+            newRows.add(Arrays.asList(values));
+        }
+        for (final List<Object> row : previousRows) {
+            if (!newRows.contains(row)) {
+                deletes.add(row.toArray());
+            }
+        }
+        for (final List<Object> row : newRows) {
+            if (!previousRows.contains(row)) {
+                inserts.add(row.toArray());
+            }
+        }
+    }
+
+    /**
+     * @return true if rows have to be inserted or deleted, which may transiently violate foreign key
+     *         constraints that reference this table or that this table holds
+     */
+    boolean modifiesRows() {
+        return !deletes.isEmpty() || !inserts.isEmpty();
+    }
+
+    /**
+     * @return the number of rows that will be inserted, deleted or updated
+     */
+    int numChanges() {
+        return deletes.size() + inserts.size() + updatesByColumns.values().stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * Applies the changes as a series of batched statements, one per type of change.
+     *
+     * @param dbCtx the DSLContext to execute the statements against, typically that of an ongoing transaction
+     */
+    void execute(final DSLContext dbCtx) {
+        final Field<?>[] fields = table.fields();
+        if (!deletes.isEmpty()) {
+            final Query delete = dbCtx.deleteFrom(table).where(matches());
+            dbCtx.batch(delete).bind(deletes.toArray(new Object[0][])).execute();
+        }
+        if (!inserts.isEmpty()) {
+            final Query insert = dbCtx.insertInto(table)
+                                      .values(Arrays.stream(fields).map(DSL::param).toArray(Field[]::new));
+            dbCtx.batch(insert).bind(inserts.toArray(new Object[0][])).execute();
+        }
+        for (final Map.Entry<BitSet, List<Object[]>> entry : updatesByColumns.entrySet()) {
+            final Map<Field<?>, Field<?>> setClause = new LinkedHashMap<>();
+            entry.getKey().stream().forEach(index -> setClause.put(fields[index], DSL.param(fields[index])));
+            final Query update = dbCtx.update(table).set(setClause).where(matches());
+            dbCtx.batch(update).bind(entry.getValue().toArray(new Object[0][])).execute();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Condition matches() {
+        // Primary keys are matched with equalities so that lookups can use the key's index. Whole rows
+        // might have null values however, which only "is not distinct from" matches.
+        return DSL.and(Arrays.stream(keyFields)
+                             .map(field -> (Field<Object>) field)
+                             .map(field -> matchByKey ? field.eq(DSL.param(field))
+                                                      : field.isNotDistinctFrom(DSL.param(field)))
+                             .collect(Collectors.toList()));
+    }
+}
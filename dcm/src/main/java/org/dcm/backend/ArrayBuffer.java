@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm.backend;
+
+import com.google.ortools.sat.IntVar;
+
+import java.util.Arrays;
+
+/**
+ * Growable arrays used by the generated code to collect the arguments of aggregate functions, without boxing
+ * them into lists. Buffers are sized by the number of rows being scanned, and toArray() only copies if some
+ * of those rows were filtered out.
+ */
+public final class ArrayBuffer {
+
+    private ArrayBuffer() {
+    }
+
+    private static int grow(final int capacity) {
+        return Math.max(8, capacity + (capacity >> 1));
+    }
+
+    public static final class OfInt {
+        private int[] values;
+        private int size = 0;
+
+        public OfInt(final int expectedSize) {
+            this.values = new int[expectedSize];
+        }
+
+        public void add(final int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = value;
+        }
+
+        public int[] toArray() {
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+    }
+
+    public static final class OfLong {
+        private long[] values;
+        private int size = 0;
+
+        public OfLong(final int expectedSize) {
+            this.values = new long[expectedSize];
+        }
+
+        public void add(final long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = value;
+        }
+
+        public long[] toArray() {
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+    }
+
+    public static final class OfIntVar {
+        private IntVar[] values;
+        private int size = 0;
+
+        public OfIntVar(final int expectedSize) {
+            this.values = new IntVar[expectedSize];
+        }
+
+        public void add(final IntVar value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = value;
+        }
+
+        public IntVar[] toArray() {
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm.backend;
+
+import org.dcm.compiler.monoid.ColumnIdentifier;
+import org.dcm.compiler.monoid.Expr;
+import org.dcm.compiler.monoid.Head;
+import org.dcm.compiler.monoid.MonoidVisitor;
+import org.dcm.compiler.monoid.TableRowGenerator;
+
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A visitor that returns the set of tables iterated over by a comprehension, including within sub-queries,
+ * and whether any of the columns it accesses are controllable.
+ */
+class FindAccessedTables extends MonoidVisitor<Void, Void> {
+    private final Set<String> tables = new HashSet<>();
+    private boolean accessesControllableColumns = false;
+
+    @Nullable
+    @Override
+    protected Void visitHead(final Head node, @Nullable final Void context) {
+        for (final Expr expr : node.getSelectExprs()) {
+            visit(expr, context);
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    protected Void visitTableRowGenerator(final TableRowGenerator node, @Nullable final Void context) {
+        tables.add(node.getTable().getName().toUpperCase(Locale.US));
+        return super.visitTableRowGenerator(node, context);
+    }
+
+    @Nullable
+    @Override
+    protected Void visitColumnIdentifier(final ColumnIdentifier node, @Nullable final Void context) {
+        accessesControllableColumns = accessesControllableColumns || node.getField().isControllable();
+        return super.visitColumnIdentifier(node, context);
+    }
+
+    Set<String> getTables() {
+        return tables;
+    }
+
+    boolean accessesControllableColumns() {
+        return accessesControllableColumns;
+    }
+}
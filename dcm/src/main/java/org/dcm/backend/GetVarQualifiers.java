@@ -15,6 +15,7 @@ import org.dcm.compiler.monoid.GroupByComprehension;
 import org.dcm.compiler.monoid.GroupByQualifier;
 import org.dcm.compiler.monoid.IsNotNullPredicate;
 import org.dcm.compiler.monoid.IsNullPredicate;
+import org.dcm.compiler.monoid.JoinPredicate;
 import org.dcm.compiler.monoid.MonoidComprehension;
 import org.dcm.compiler.monoid.MonoidFunction;
 import org.dcm.compiler.monoid.MonoidLiteral;
@@ -136,8 +137,11 @@ class GetVarQualifiers extends MonoidVisitor<GetVarQualifiers.QualifiersList, Ge
                 return context.withNonVarQualifier(checkForAggregate(node));
             }
             case AND: {
-                final QualifiersList left = Objects.requireNonNull(visit(node.getLeft(), context));
-                final QualifiersList right = Objects.requireNonNull(visit(node.getRight(), context));
+                // The conjuncts of a join predicate are join predicates themselves
+                final QualifiersList left = Objects.requireNonNull(visit(asJoinPredicate(node, node.getLeft()),
+                                                                         context));
+                final QualifiersList right = Objects.requireNonNull(visit(asJoinPredicate(node, node.getRight()),
+                                                                          context));
                 return left.withQualifiersList(right);
             }
             default:
@@ -145,6 +149,12 @@ class GetVarQualifiers extends MonoidVisitor<GetVarQualifiers.QualifiersList, Ge
         }
     }
 
+    private Expr asJoinPredicate(final BinaryOperatorPredicate parent, final Expr expr) {
+        return parent instanceof JoinPredicate && expr instanceof BinaryOperatorPredicate
+               && !(expr instanceof BinaryOperatorPredicateWithAggregate)
+               ? new JoinPredicate((BinaryOperatorPredicate) expr) : expr;
+    }
+
     private boolean involvesAggregateFunctions(final BinaryOperatorPredicate node) {
         if (skipAggregates) {
             return (!(node.getLeft() instanceof MonoidFunction) && !(node.getRight() instanceof MonoidFunction));
@@ -14,5 +14,11 @@ import org.jooq.Result;
 import java.util.Map;
 
 public interface IGeneratedBackend {
+    /**
+     * Builds and solves the model against the current data in context.
+     *
+     * @param context the IRContext to read data from and to write the solution to
+     * @return the records of each table, with controllable columns set to the values from the solution
+     */
     Map<IRTable, Result<? extends Record>> solve(final IRContext context);
 }
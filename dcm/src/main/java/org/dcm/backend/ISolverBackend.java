@@ -28,4 +28,16 @@ public interface ISolverBackend {
     List<String> generateDataCode(final IRContext context);
 
     boolean needsGroupTables();
+
+    /**
+     * Invoked before generateModelCode() with a hash that identifies the model: its constraints and the
+     * schema of the tables it is built on. Backends that can restore the generated model for the same hash
+     * (e.g., from a previous run) may do so and return true, in which case generateModelCode() is not invoked.
+     *
+     * @param modelHash a hash of the constraints and table metadata of the model being built
+     * @return true if the model was restored, false if the model has to be generated
+     */
+    default boolean loadCachedModel(final String modelHash) {
+        return false;
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm.backend;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles generated Java sources without touching the file system. Class files are written to in-memory
+ * buffers, and loaded from there by a GeneratedClassLoader.
+ */
+class InMemoryCompiler {
+
+    /**
+     * Compiles a single compilation unit.
+     *
+     * @param compilationUnit the source to compile
+     * @return a map from binary class names to class file contents, for all the classes in compilationUnit
+     * @throws IllegalStateException if the source does not compile
+     */
+    static Map<String, byte[]> compile(final JavaFileObject compilationUnit) {
+        // Compile Java code. This steps requires an SDK, and a JRE will not suffice
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        final Map<String, ByteArrayOutputStream> classFiles = new HashMap<>();
+        try (final JavaFileManager fileManager = new ClassFileManager(standardFileManager, classFiles)) {
+            final Boolean success = compiler.getTask(null, fileManager, diagnostics, null, null,
+                                                     Collections.singleton(compilationUnit)).call();
+            if (!success) {
+                final StringBuilder errors = new StringBuilder();
+                for (final Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    errors.append(diagnostic).append('\n');
+                }
+                throw new IllegalStateException("Compilation failed:\n" + errors);
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        final Map<String, byte[]> classes = new HashMap<>(classFiles.size());
+        classFiles.forEach((className, bytes) -> classes.put(className, bytes.toByteArray()));
+        return classes;
+    }
+
+    /**
+     * Redirects class files emitted by the compiler to in-memory buffers
+     */
+    private static class ClassFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, ByteArrayOutputStream> classFiles;
+
+        private ClassFileManager(final StandardJavaFileManager fileManager,
+                                 final Map<String, ByteArrayOutputStream> classFiles) {
+            super(fileManager);
+            this.classFiles = classFiles;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(final Location location, final String className,
+                                                   final JavaFileObject.Kind kind, final FileObject sibling) {
+            final URI uri = URI.create("mem:///" + className.replace('.', '/') + kind.extension);
+            return new SimpleJavaFileObject(uri, kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    classFiles.put(className, bytes);
+                    return bytes;
+                }
+            };
+        }
+    }
+
+    /**
+     * Loads classes from the output of InMemoryCompiler.compile(), and delegates everything else to its parent.
+     */
+    static class GeneratedClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        GeneratedClassLoader(final Map<String, byte[]> classes, final ClassLoader parent) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(final String name) throws ClassNotFoundException {
+            final byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
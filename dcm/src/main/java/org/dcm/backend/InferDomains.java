@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm.backend;
+
+import org.dcm.IRColumn;
+import org.dcm.compiler.monoid.BinaryOperatorPredicate;
+import org.dcm.compiler.monoid.BinaryOperatorPredicateWithAggregate;
+import org.dcm.compiler.monoid.ColumnIdentifier;
+import org.dcm.compiler.monoid.Expr;
+import org.dcm.compiler.monoid.GroupByComprehension;
+import org.dcm.compiler.monoid.Head;
+import org.dcm.compiler.monoid.JoinPredicate;
+import org.dcm.compiler.monoid.MonoidComprehension;
+import org.dcm.compiler.monoid.Qualifier;
+import org.dcm.compiler.monoid.TableRowGenerator;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds constraint views that restrict a controllable column to the values of another column, like
+ * 'select * from t where t.controllable__x in (select y from s)'. Such a constraint holds for every row of t, so
+ * the IntVars for t.controllable__x can be created with the values of s.y as their domain, rather than created
+ * unbounded and restricted afterwards.
+ *
+ * A view is only considered if it iterates over a single table without grouping its rows, and every conjunct of
+ * its where clause is checked independently. If all the conjuncts of a view are domain constraints like the above,
+ * the view is subsumed by the inferred domains.
+ */
+class InferDomains {
+    private final Map<IRColumn, Set<IRColumn>> domains = new LinkedHashMap<>();
+    private final Set<String> subsumedViews = new HashSet<>();
+
+    static InferDomains apply(final Map<String, MonoidComprehension> constraintViews) {
+        final InferDomains inferDomains = new InferDomains();
+        constraintViews.forEach(inferDomains::inferFromView);
+        return inferDomains;
+    }
+
+    /**
+     * @return for each controllable column, the columns whose values it is restricted to
+     */
+    Map<IRColumn, Set<IRColumn>> getDomains() {
+        return domains;
+    }
+
+    /**
+     * @return true if the constraint view is fully enforced by the domains returned by getDomains()
+     */
+    boolean isSubsumed(final String viewName) {
+        return subsumedViews.contains(viewName);
+    }
+
+    private void inferFromView(final String viewName, final MonoidComprehension view) {
+        if (view instanceof GroupByComprehension) {
+            return;
+        }
+        @Nullable TableRowGenerator generator = null;
+        final List<Expr> conjuncts = new ArrayList<>();
+        for (final Qualifier qualifier : view.getQualifiers()) {
+            if (qualifier instanceof TableRowGenerator) {
+                if (generator != null) {
+                    return;
+                }
+                generator = (TableRowGenerator) qualifier;
+            } else if (qualifier instanceof BinaryOperatorPredicate && !(qualifier instanceof JoinPredicate)) {
+                addConjuncts(qualifier, conjuncts);
+            } else {
+                return;
+            }
+        }
+        if (generator == null || generator.getTable().isAliasedTable() || conjuncts.isEmpty()) {
+            return;
+        }
+        final Map<IRColumn, Set<IRColumn>> inferred = new LinkedHashMap<>();
+        boolean subsumed = true;
+        for (final Expr conjunct : conjuncts) {
+            final boolean isDomainConstraint = conjunct instanceof BinaryOperatorPredicate
+                    && inferFromConjunct((BinaryOperatorPredicate) conjunct, generator, inferred);
+            subsumed = subsumed && isDomainConstraint;
+        }
+        inferred.forEach((column, values) ->
+                domains.computeIfAbsent(column, (k) -> new LinkedHashSet<>()).addAll(values));
+        if (subsumed) {
+            subsumedViews.add(viewName);
+        }
+    }
+
+    private static void addConjuncts(final Expr expr, final List<Expr> conjuncts) {
+        if (expr instanceof BinaryOperatorPredicate
+                && ((BinaryOperatorPredicate) expr).getOperator() == BinaryOperatorPredicate.Operator.AND) {
+            addConjuncts(((BinaryOperatorPredicate) expr).getLeft(), conjuncts);
+            addConjuncts(((BinaryOperatorPredicate) expr).getRight(), conjuncts);
+        } else {
+            conjuncts.add(expr);
+        }
+    }
+
+    /**
+     * Matches 'controllable column in (select column from table)', where the sub-query neither filters its rows
+     * nor selects a controllable column.
+     */
+    private static boolean inferFromConjunct(final BinaryOperatorPredicate predicate,
+                                             final TableRowGenerator generator,
+                                             final Map<IRColumn, Set<IRColumn>> inferred) {
+        if (predicate.getOperator() != BinaryOperatorPredicate.Operator.IN
+                || predicate instanceof BinaryOperatorPredicateWithAggregate
+                || !(predicate.getLeft() instanceof ColumnIdentifier)
+                || !(predicate.getRight() instanceof MonoidComprehension)
+                || predicate.getRight() instanceof GroupByComprehension) {
+            return false;
+        }
+        final IRColumn column = ((ColumnIdentifier) predicate.getLeft()).getField();
+        if (!column.isControllable() || column.getIRTable() != generator.getTable()) {
+            return false;
+        }
+        final MonoidComprehension subquery = (MonoidComprehension) predicate.getRight();
+        final Head head = subquery.getHead();
+        if (head == null || head.getSelectExprs().size() != 1
+                || !(head.getSelectExprs().get(0) instanceof ColumnIdentifier)
+                || subquery.getQualifiers().size() != 1
+                || !(subquery.getQualifiers().get(0) instanceof TableRowGenerator)) {
+            return false;
+        }
+        final IRColumn values = ((ColumnIdentifier) head.getSelectExprs().get(0)).getField();
+        final TableRowGenerator valuesGenerator = (TableRowGenerator) subquery.getQualifiers().get(0);
+        if (values.isControllable() || values.getType() != column.getType()
+                || values.getIRTable() != valuesGenerator.getTable()
+                || valuesGenerator.getTable().isAliasedTable() || valuesGenerator.getTable().isViewTable()) {
+            return false;
+        }
+        inferred.computeIfAbsent(column, (k) -> new LinkedHashSet<>()).add(values);
+        return true;
+    }
+}
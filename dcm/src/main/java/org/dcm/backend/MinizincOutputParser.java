@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm.backend;
+
+import org.dcm.IRTable;
+import org.dcm.ModelException;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.Table;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incrementally parses the output of the MiniZinc solver, one line at a time, into a set of records per table.
+ *
+ * Sample output:
+ *      !!HOSTS
+ *      HOST_ID,CONTROLLABLE__IN_SEGMENT
+ *      'h1',true
+ *      'h2',true
+ *      ----------
+ */
+class MinizincOutputParser {
+    static final String MNZ_UNSATISFIABLE = "=====UNSATISFIABLE=====";
+    static final String MNZ_SOLUTION_SEP = "----------";
+    private static final String TABLE_NAME_TAG = MinizincString.MNZ_OUTPUT_TABLENAME_TAG.trim();
+    private final DSLContext dbCtx;
+    private final Map<String, IRTable> irTables;
+    private final Map<IRTable, Result<? extends Record>> recordsPerTable = new HashMap<>();
+    @Nullable private TableParser currentTable = null;
+    private boolean done = false;
+
+    MinizincOutputParser(final DSLContext dbCtx, final Map<String, IRTable> irTables) {
+        this.dbCtx = dbCtx;
+        this.irTables = irTables;
+    }
+
+    /**
+     * Parses a single line of output
+     *
+     * @param line a line of output, without its line terminator
+     * @return false once the first solution has been parsed, and no further lines need to be read
+     * @throws ModelException if the model is unsatisfiable or if the output is mal-formed
+     */
+    boolean parseLine(final String line) {
+        if (done) {
+            return false;
+        }
+        // if we find the unsatisfiable line in the output we throw an exception
+        if (line.equals(MNZ_UNSATISFIABLE)) {
+            throw new ModelException("Model UNSATISFIABLE. Please verify your model and data.");
+        }
+        // break at first solution. Since we are not specifying '--all-solutions' the solver
+        // will only output the last solution
+        if (line.equals(MNZ_SOLUTION_SEP)) {
+            done = true;
+            return false;
+        }
+        // ignore empty lines (includes whitespace-only lines)
+        if (line.trim().isEmpty()) {
+            return true;
+        }
+        if (line.startsWith(TABLE_NAME_TAG)) {
+            final String tableName = line.substring(TABLE_NAME_TAG.length());
+            final IRTable irTable = irTables.get(tableName);
+            if (irTable == null) {
+                throw new ModelException("Null irtable: " + tableName);
+            }
+            currentTable = new TableParser(irTable.getTable());
+            recordsPerTable.put(irTable, currentTable.records);
+            return true;
+        }
+        if (currentTable == null) {
+            throw new ModelException("Mal-formed output! Expected a table name, but got: " + line);
+        }
+        currentTable.parseLine(line);
+        return true;
+    }
+
+    /**
+     * @return the records parsed so far, per table
+     */
+    Map<IRTable, Result<? extends Record>> getRecordsPerTable() {
+        return recordsPerTable;
+    }
+
+    /**
+     * Parses the CSV header and rows of a single table
+     */
+    private final class TableParser {
+        private final Table<? extends Record> table;
+        private final Result<? extends Record> records;
+        @Nullable private int[] fieldIndices = null;
+
+        private TableParser(final Table<? extends Record> table) {
+            this.table = table;
+            this.records = dbCtx.newResult(table);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void parseLine(final String line) {
+            final List<String> values = splitCsvLine(line);
+            final Field<?>[] fields = table.fields();
+            if (fieldIndices == null) {
+                // The first line is the header, which maps CSV columns to the fields of the table
+                fieldIndices = new int[values.size()];
+                for (int i = 0; i < values.size(); i++) {
+                    final Field<?> field = table.field(values.get(i));
+                    if (field == null) {
+                        throw new ModelException("Mal-formed output! Unknown column " + values.get(i) +
+                                                 " in table " + table.getName());
+                    }
+                    fieldIndices[i] = table.fieldsRow().indexOf(field);
+                }
+                return;
+            }
+            if (values.size() != fieldIndices.length) {
+                throw new ModelException("Mal-formed output! Expected " + fieldIndices.length +
+                                         " values, but got: " + line);
+            }
+            final Object[] row = new Object[fields.length];
+            for (int i = 0; i < fieldIndices.length; i++) {
+                final Field<?> field = fields[fieldIndices[i]];
+                row[fieldIndices[i]] = field.getDataType().convert(values.get(i));
+            }
+            final Record record = dbCtx.newRecord(table);
+            record.fromArray(row);
+            ((Result<Record>) records).add(record);
+        }
+    }
+
+    /**
+     * Splits a line of CSV output. Strings are quoted with either single or double quotes.
+     */
+    static List<String> splitCsvLine(final String line) {
+        final List<String> values = new ArrayList<>();
+        final StringBuilder value = new StringBuilder();
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote && i + 1 < line.length() && line.charAt(i + 1) == quote) {
+                    value.append(c); // escaped quote
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == MinizincString.MNZ_OUTPUT_CSV_DELIMITER) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+}
@@ -7,7 +7,6 @@
 package org.dcm.backend;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import org.dcm.Conf;
@@ -31,7 +30,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.Writer;
+import java.io.StringWriter;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -43,7 +42,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -53,24 +52,35 @@ public class MinizincSolver implements ISolverBackend {
     private static final String MODEL_FILENAME = "mnz_model.ftl";
     private static final String DATA_FILENAME = "mnz_data.ftl";
     private static final Logger LOG = LoggerFactory.getLogger(MinizincSolver.class);
-    private static final String MNZ_UNSATISFIABLE = "=====UNSATISFIABLE=====";
-    private static final String MNZ_SOLUTION_SEP = "----------";
     private static final SolverBackend MNZ_DEFAULT_SOLVER = SolverBackend.CHUFFED;
     private static final String CONF_SOLVER_KEY = "solver";
     private static final String CONF_DEBUG_MODE = "debug_mode";
     private static final String CONF_FZN_FLAGS = "fzn_flags";
+    /**
+     * If set, the model and data are flattened into FlatZinc ahead of solving, and the FlatZinc is reused by
+     * later calls to the solver for as long as neither the model nor the data change. This only pays off for
+     * workloads that solve the same instance repeatedly. The Kubernetes scheduler, for instance, never hits
+     * the cache, as the data changes from one round to the next.
+     */
+    private static final String CONF_CACHE_FZN = "cache_fzn";
     private static final int MNZ_SOLVER_TIMEOUT_MS = 1000000;
     private final SolverBackend solverToUse;
     private final boolean debugMode;
     private final String fznFlags;
+    private final boolean cacheFlatZinc;
     private final File modelFile;
     private final File dataFile;
+    private final File fznFile;
+    private final File oznFile;
     private final File stderr;
-    private final File stdout;
     private final Template modelTemplate;
     private final Template dataTemplate;
     private Set<String> stringLiteralsInModel = new HashSet<>();
     private final AtomicInteger batch = new AtomicInteger(0);
+    private String modelCode = "";
+    private String dataCode = "";
+    private boolean flatZincIsStale = true;
+    private int numCompilations = 0;
 
 
     public MinizincSolver(final File modelFile, final File dataFile, final Conf conf) {
@@ -83,11 +93,15 @@ public class MinizincSolver implements ISolverBackend {
         this.solverToUse =  solverName != null ? SolverBackend.valueOf(solverName) : MNZ_DEFAULT_SOLVER;
         final String fznFlags = conf.getProperty(CONF_FZN_FLAGS);
         this.fznFlags =  fznFlags != null ? fznFlags : "";
+        this.cacheFlatZinc = conf.getProperty(CONF_CACHE_FZN) != null;
+        LOG.info("Cache FlatZinc: {}", this.cacheFlatZinc);
         try {
             this.stderr = File.createTempFile("mnz", "-err");
             this.stderr.deleteOnExit();
-            this.stdout = File.createTempFile("mnz", "-out");
-            this.stdout.deleteOnExit();
+            this.fznFile = File.createTempFile("mnz", ".fzn");
+            this.fznFile.deleteOnExit();
+            this.oznFile = File.createTempFile("mnz", ".ozn");
+            this.oznFile.deleteOnExit();
         } catch (final IOException e) {
             throw new ModelException("Model file not found or has formatting errors", e);
         }
@@ -110,8 +124,7 @@ public class MinizincSolver implements ISolverBackend {
     @Override
     public Map<IRTable, Result<? extends Record>> runSolver(final DSLContext dbCtx,
                                                             final Map<String, IRTable> irTables) {
-        final String output = runMnzSolver(solverToUse);
-        return parseMnzOutput(dbCtx, irTables, output);
+        return runMnzSolver(solverToUse, new MinizincOutputParser(dbCtx, irTables));
     }
 
 
@@ -183,7 +196,7 @@ public class MinizincSolver implements ISolverBackend {
         } else {
             templateVars.put("objectiveFunctionsCode", Lists.newArrayList("solve satisfy;"));
         }
-        writeTemplateToFile(modelTemplate, modelFile, templateVars);
+        modelCode = writeTemplateToFile(modelTemplate, modelFile, templateVars, modelCode);
         return Lists.newArrayList(Iterables.concat(arrayDeclarations, nonConstraintViewCode,
                                                    constraintViewCode, objectiveFunctionsCode));
     }
@@ -232,7 +245,7 @@ public class MinizincSolver implements ISolverBackend {
         }
         templateVars.put("string_literals", new ArrayList<>(stringLiterals));
         templateVars.put("input_parameters", ret);
-        writeTemplateToFile(dataTemplate, dataFile, templateVars);
+        dataCode = writeTemplateToFile(dataTemplate, dataFile, templateVars, dataCode);
         return ret;
     }
 
@@ -275,6 +288,41 @@ public class MinizincSolver implements ISolverBackend {
             return solver;
         }
 
+        /**
+         * Command to flatten the model and data into FlatZinc, without solving it
+         */
+        public ProcessBuilder getCompileCmd(final String modelFile, final String dataFile,
+                                            final String fznFile, final String oznFile) {
+            final List<String> cmd = Lists.newArrayList("minizinc", "--solver", solver);
+            if (SolverBackend.this == ORTOOLS) {
+                cmd.add("-Gminizinc_sat");
+            }
+            cmd.addAll(List.of("--compile", "--fzn", fznFile, "--ozn", oznFile, modelFile, dataFile));
+            return new ProcessBuilder(cmd);
+        }
+
+        /**
+         * Command to solve a previously flattened model
+         */
+        public ProcessBuilder getFznCmd(final int timeout, final String fznFile, final String oznFile,
+                                        final String fznFlags) {
+            switch (SolverBackend.this) {
+                case GECODE:
+                case CHUFFED:
+                    return new ProcessBuilder("minizinc", "--solver", solver,
+                        "--time-limit", Integer.toString(timeout), "--num-solutions", "1",
+                        "--ozn-file", oznFile, fznFile);
+                case ORTOOLS:
+                    final String fznString =
+                            String.format("-time-limit %s -num_solutions 1 %s", timeout, fznFlags).trim();
+                    return new ProcessBuilder("minizinc", "--solver", solver,
+                        "--fzn-flags", fznString,
+                        "--ozn-file", oznFile, fznFile);
+                default:
+                    throw new IllegalArgumentException(solver);
+            }
+        }
+
         public ProcessBuilder getCmd(final int timeout, final String modelFile,
                                      final String dataFile, final String fznFlags) {
             switch (SolverBackend.this) {
@@ -297,121 +345,62 @@ public class MinizincSolver implements ISolverBackend {
 
 
     /**
-     * Parses MiniZinc output splitting it into one CSV for each table.
+     * Runs the MiniZinc solver, and parses its output as it is produced. We stop reading output at the first
+     * solution, and fail as soon as the solver reports that the model is unsatisfiable.
      *
-     * Sample output:
-     *      !!HOSTS
-     *      HOST_ID,CONTROLLABLE__IN_SEGMENT
-     *      "h1",true
-     *      "h2",true
-     *
-     * @return Map with table to CSVParser
-     */
-    private Map<IRTable, Result<? extends Record>> parseMnzOutput(final DSLContext dbCtx,
-                                                                  final Map<String, IRTable> irTables,
-                                                                  final String output) {
-        final Map<IRTable, Result<? extends Record>> csvPerTable = new HashMap<>();
-        // we split tables by a specific tag
-        for (final String tableLine : Splitter.on(MinizincString.MNZ_OUTPUT_TABLENAME_TAG)
-                .omitEmptyStrings().split(output)) {
-            try {
-                // and now we split output in 2 parts
-                final List<String> tableParts = Splitter.on("\n").limit(2).splitToList(tableLine);
-                // - 1st line: table name
-                final String tableName = tableParts.get(0);
-                final IRTable irTable = irTables.get(tableName);
-                if (irTable == null) {
-                    LOG.error("Null irtable with batch-ID {}, tablename {} and " +
-                              "line {}", batch.get(), tableLine, tableName);
-                    throw new ModelException("Null irtable");
-                }
-                // - 2nd to nth line: CSV with header
-                // TODO: workaround for single-quoted strings
-                final String csvWithHeader = tableParts.get(1).replace("'", "\"");
-                final Result<? extends Record> records = dbCtx
-                        .fetchFromCSV(csvWithHeader, true, MinizincString.MNZ_OUTPUT_CSV_DELIMITER)
-                        .into(irTable.getTable());
-                csvPerTable.put(irTable, records);
-            } catch (final IndexOutOfBoundsException e) {
-                throw new ModelException("Mal-formed output!", e);
-            }
-        }
-        return csvPerTable;
-    }
-
-    /**
-     * Runs the MiniZinc solver and returns a pre-verified output.
-     * We check for UNSATISFIABLE, remove standard MiniZinc and empty lines
-     *
-     * @return Returns a pre-parsed output string from the MiniZinc solver
+     * @return the records in the solution, per table
      */
-    private String runMnzSolver(final SolverBackend solver) {
-        final Process mnz;
+    private Map<IRTable, Result<? extends Record>> runMnzSolver(final SolverBackend solver,
+                                                                final MinizincOutputParser parser) {
         try {
+            final Process mnz;
             try {
-                final ProcessBuilder pb = solver.getCmd(MNZ_SOLVER_TIMEOUT_MS,
+                final ProcessBuilder pb;
+                if (cacheFlatZinc) {
+                    if (flatZincIsStale) {
+                        flatten(solver);
+                    }
+                    pb = solver.getFznCmd(MNZ_SOLVER_TIMEOUT_MS, fznFile.getAbsolutePath(),
+                                          oznFile.getAbsolutePath(), fznFlags);
+                } else {
+                    pb = solver.getCmd(MNZ_SOLVER_TIMEOUT_MS,
                         modelFile.getAbsolutePath(),
                         dataFile.getAbsolutePath(),
                         fznFlags);
+                }
                 LOG.info("Running command {}", pb.command());
 
-                mnz = pb.redirectError(stderr).redirectOutput(stdout).start();
+                mnz = pb.redirectError(stderr).start();
             } catch (final IOException e) {
                 throw new ModelException("Could not execute MiniZinc", e);
             }
-            // wait for minizinc to solve the model
-            try {
-                mnz.waitFor();
-            } catch (final InterruptedException e) {
-                throw new ModelException("MiniZinc was interrupted", e);
-            }
-
-            LOG.info("Solver command completed. Parsing output.");
-            // Throw exception if minizinc throws an error exit code
-            if (mnz.exitValue() != 0) {
-                try (BufferedReader stdError =
-                             new BufferedReader(new InputStreamReader(new FileInputStream(stderr), UTF_8))) {
-                    final String errorOutput = stdError.lines().collect(Collectors.joining());
-                    if (!errorOutput.contains("WARNING: the --time-out flag has recently been changed")) {
-                        throw new ModelException(
-                                String.format("MiniZinc exited with error code %d:%n%s", mnz.exitValue(), errorOutput));
-                    }
-                } catch (final IOException ioe) {
-                    throw new ModelException("Could not execute MiniZinc", ioe);
-                }
-            }
-
-            LOG.info("Before string joiner");
-
-            // parse input
-            final StringJoiner output = new StringJoiner("\n");
-            // adds empty line so we can then split by "\nOUTPUT_TABLENAME_TAG"
-            output.add("");
-            try (BufferedReader stdInput =
-                         new BufferedReader(new InputStreamReader(new FileInputStream(stdout), UTF_8))) {
+            try (BufferedReader stdInput = new BufferedReader(new InputStreamReader(mnz.getInputStream(), UTF_8))) {
                 String line;
                 while ((line = stdInput.readLine()) != null) {
-                    // if we find the unsatisfiable line in the output we throw an exception
-                    if (line.equals(MNZ_UNSATISFIABLE)) {
-                        throw new ModelException("Model UNSATISFIABLE. Please verify your " +
-                                                                 "model and data.");
-                    }
-                    // break at first solution. Since we are not specifying '--all-solutions' the solver
-                    // will only output the last solution
-                    if (line.equals(MNZ_SOLUTION_SEP)) {
+                    if (!parser.parseLine(line)) {
                         break;
                     }
-                    // ignore empty lines (includes whitespace-only lines)
-                    if (line.trim().length() <= 0) {
-                        continue;
-                    }
-                    output.add(line);
                 }
-                // LOG.info("MNZ OUTPUT = " + output.toString());
-                return output.toString();
+                // Drain the rest of the output, so that the solver does not block on a full pipe
+                final long skipped = stdInput.skip(Long.MAX_VALUE);
+                LOG.debug("Skipped {} characters of solver output after the first solution", skipped);
             } catch (final IOException ioe) {
+                mnz.destroyForcibly();
                 throw new ModelException("Could not execute MiniZinc", ioe);
+            } catch (final ModelException e) {
+                mnz.destroyForcibly();
+                throw e;
+            }
+            try {
+                mnz.waitFor();
+            } catch (final InterruptedException e) {
+                mnz.destroyForcibly();
+                throw new ModelException("MiniZinc was interrupted", e);
             }
+
+            LOG.info("Solver command completed.");
+            checkExitValue(mnz);
+            return parser.getRecordsPerTable();
         } finally {
             if (debugMode) {
                 final Path path = dataFile.toPath();
@@ -427,13 +416,77 @@ public class MinizincSolver implements ISolverBackend {
     }
 
     /**
-     * Populates a file based on a Apache FreeMarker template
+     * Flattens the current model and data into FlatZinc, which is then reused by every call to the solver
+     * until either the model or the data changes.
      */
-    private void writeTemplateToFile(final Template template, final File templateFile,
-                                     final Map<String, List<String>> templateVars) {
+    private void flatten(final SolverBackend solver) {
+        final ProcessBuilder pb = solver.getCompileCmd(modelFile.getAbsolutePath(), dataFile.getAbsolutePath(),
+                                                       fznFile.getAbsolutePath(), oznFile.getAbsolutePath());
+        LOG.info("Running command {}", pb.command());
+        try {
+            final Process mzn2fzn = pb.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                                      .redirectError(stderr)
+                                      .start();
+            numCompilations++;
+            try {
+                if (!mzn2fzn.waitFor(MNZ_SOLVER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    mzn2fzn.destroyForcibly();
+                    throw new ModelException("MiniZinc did not flatten the model within " +
+                                             MNZ_SOLVER_TIMEOUT_MS + "ms");
+                }
+            } catch (final InterruptedException e) {
+                mzn2fzn.destroyForcibly();
+                throw new ModelException("MiniZinc was interrupted", e);
+            }
+            checkExitValue(mzn2fzn);
+        } catch (final IOException e) {
+            throw new ModelException("Could not execute MiniZinc", e);
+        }
+        flatZincIsStale = false;
+    }
+
+    /**
+     * @return the number of times the model and data were flattened into FlatZinc
+     */
+    int getNumCompilations() {
+        return numCompilations;
+    }
+
+    /**
+     * Throw exception if minizinc throws an error exit code
+     */
+    private void checkExitValue(final Process mnz) {
+        if (mnz.exitValue() != 0) {
+            try (BufferedReader stdError =
+                         new BufferedReader(new InputStreamReader(new FileInputStream(stderr), UTF_8))) {
+                final String errorOutput = stdError.lines().collect(Collectors.joining());
+                if (!errorOutput.contains("WARNING: the --time-out flag has recently been changed")) {
+                    throw new ModelException(
+                            String.format("MiniZinc exited with error code %d:%n%s", mnz.exitValue(), errorOutput));
+                }
+            } catch (final IOException ioe) {
+                throw new ModelException("Could not execute MiniZinc", ioe);
+            }
+        }
+    }
+
+    /**
+     * Populates a file based on a Apache FreeMarker template. The file is only rewritten if its contents
+     * differ from those of the previous call, in which case any cached FlatZinc is invalidated.
+     *
+     * @return the contents of the file
+     */
+    private String writeTemplateToFile(final Template template, final File templateFile,
+                                       final Map<String, List<String>> templateVars, final String previousContents) {
+        final StringWriter writer = new StringWriter();
         try {
-            final Writer writer = Files.newBufferedWriter(templateFile.toPath(), UTF_8);
             template.process(templateVars, writer);
+            final String contents = writer.toString();
+            if (!contents.equals(previousContents) || !templateFile.exists()) {
+                Files.writeString(templateFile.toPath(), contents, UTF_8);
+                flatZincIsStale = true;
+            }
+            return contents;
         } catch (final TemplateException | IOException e) {
             throw new ModelException("Error processing template", e);
         }
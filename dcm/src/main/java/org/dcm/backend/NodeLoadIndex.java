@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm.backend;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Orders the nodes of a capacity constraint from the least to the most loaded, and is kept up to date across
+ * solves by a generated backend. The load of a node is the sum over all resources of the total demand for that
+ * resource, divided by the node's capacity, so that a batch of tasks that mostly needs one resource prefers the
+ * nodes with the most spare capacity of that resource.
+ *
+ * The weight of each resource is its total demand as a fraction of the largest one, rounded to a thousandth,
+ * so that successive batches with a similar mix of demands weigh resources the same, and all nodes are only
+ * re-scored when those weights change. Otherwise, update() only re-scores the nodes whose capacities changed, and
+ * does nothing at all if the caller reports that the data the nodes were read from did not change.
+ * Instances are not thread-safe.
+ */
+public class NodeLoadIndex {
+    /**
+     * The version to pass to update() when the caller cannot tell whether the nodes changed
+     */
+    public static final long UNKNOWN_VERSION = -1;
+    private static final long WEIGHT_SCALE = 1000;
+    private static final long SCALE = 1_000_000;
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private final TreeSet<Node> byLoad = new TreeSet<>(
+            (a, b) -> a.score != b.score ? Long.compare(a.score, b.score) : Long.compare(a.value, b.value));
+    private long[] weights = new long[0];
+    private long version = UNKNOWN_VERSION;
+    private long round = 0;
+
+    /**
+     * Updates the index with the current nodes of a capacity constraint, and the demands of the current batch.
+     *
+     * @param domain the values of the nodes
+     * @param capacities for each resource, the capacity of each node, in the order of the domain
+     * @param totalDemands for each resource, the total demand of all tasks
+     * @param version a version of the data that the domain and capacities were read from, which has to change
+     *                whenever they do, or UNKNOWN_VERSION
+     */
+    public void update(final long[] domain, final int[][] capacities, final long[] totalDemands,
+                       final long version) {
+        final long[] weights = weights(totalDemands);
+        final boolean rescore = !Arrays.equals(this.weights, weights);
+        if (!rescore && version != UNKNOWN_VERSION && version == this.version) {
+            return;
+        }
+        this.version = version;
+        round += 1;
+        if (rescore) {
+            if (this.weights.length != weights.length) {
+                nodes.clear();
+            }
+            this.weights = weights;
+            byLoad.clear();
+        }
+        int numSeen = 0;
+        for (int i = 0; i < domain.length; i++) {
+            Node node = nodes.get(domain[i]);
+            if (node == null) {
+                node = new Node(domain[i], capacities.length);
+                nodes.put(domain[i], node);
+            }
+            if (node.round != round) {
+                numSeen += 1;
+            }
+            node.round = round;
+            if (!rescore && node.hasCapacities(capacities, i)) {
+                continue;
+            }
+            byLoad.remove(node);
+            node.score = 0;
+            for (int resource = 0; resource < capacities.length; resource++) {
+                node.capacities[resource] = capacities[resource][i];
+                node.score += (weights[resource] * SCALE) / Math.max(capacities[resource][i], 1);
+            }
+            byLoad.add(node);
+        }
+        // Drop the nodes that are no longer part of the domain
+        if (numSeen < nodes.size()) {
+            final Iterator<Node> iterator = nodes.values().iterator();
+            while (iterator.hasNext()) {
+                final Node node = iterator.next();
+                if (node.round != round) {
+                    byLoad.remove(node);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the values of up to limit nodes, from the least to the most loaded
+     */
+    public long[] leastLoaded(final int limit) {
+        final long[] values = new long[Math.min(limit, byLoad.size())];
+        final Iterator<Node> iterator = byLoad.iterator();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = iterator.next().value;
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of nodes in the index
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    private static long[] weights(final long[] totalDemands) {
+        final long maxDemand = Arrays.stream(totalDemands).max().orElse(0);
+        final long[] weights = new long[totalDemands.length];
+        if (maxDemand > 0) {
+            for (int resource = 0; resource < totalDemands.length; resource++) {
+                weights[resource] = (totalDemands[resource] * WEIGHT_SCALE + maxDemand / 2) / maxDemand;
+            }
+        }
+        return weights;
+    }
+
+    private static final class Node {
+        private final long value;
+        private final int[] capacities;
+        private long score = Long.MIN_VALUE;
+        private long round = 0;
+
+        private Node(final long value, final int numResources) {
+            this.value = value;
+            this.capacities = new int[numResources];
+        }
+
+        private boolean hasCapacities(final int[][] capacities, final int index) {
+            if (score == Long.MIN_VALUE) {
+                return false;
+            }
+            for (int resource = 0; resource < capacities.length; resource++) {
+                if (this.capacities[resource] != capacities[resource][index]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
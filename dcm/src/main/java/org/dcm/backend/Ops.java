@@ -7,38 +7,47 @@
 package org.dcm.backend;
 
 import com.google.common.base.Preconditions;
+import com.google.common.math.LongMath;
 import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 import com.google.ortools.sat.CpModel;
 import com.google.ortools.sat.IntVar;
+import com.google.ortools.sat.IntegerVariableProto;
 import com.google.ortools.sat.IntervalVar;
 import com.google.ortools.sat.LinearExpr;
 import com.google.ortools.sat.Literal;
 import com.google.ortools.util.Domain;
-import org.apache.commons.lang3.ArrayUtils;
 
+import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 public class Ops {
+    private static final int CAPACITY_SCALE = 1000;
     private final CpModel model;
     private final StringEncoding encoder;
     private final IntVar trueVar;
     private final IntVar falseVar;
     private final boolean configUseFullReifiedConstraintsForJoinPreferences;
+    private final boolean configUseBinPackingForCapacityConstraints;
 
 
     public Ops(final CpModel model, final StringEncoding encoding,
                final boolean configUseFullReifiedConstraintsForJoinPreferences) {
+        this(model, encoding, configUseFullReifiedConstraintsForJoinPreferences, false);
+    }
+
+    public Ops(final CpModel model, final StringEncoding encoding,
+               final boolean configUseFullReifiedConstraintsForJoinPreferences,
+               final boolean configUseBinPackingForCapacityConstraints) {
         this.model = model;
         this.encoder = encoding;
         this.trueVar = model.newConstant(1);
         this.falseVar = model.newConstant(0);
         this.configUseFullReifiedConstraintsForJoinPreferences = configUseFullReifiedConstraintsForJoinPreferences;
+        this.configUseBinPackingForCapacityConstraints = configUseBinPackingForCapacityConstraints;
     }
 
     public int sum(final List<Integer> data) {
@@ -49,17 +58,49 @@ public class Ops {
         return ret;
     }
 
+    public int sum(final int[] data) {
+        int ret = 0;
+        for (final int d: data) {
+            ret += d;
+        }
+        return ret;
+    }
+
     public IntVar sumV(final List<IntVar> data) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
-        model.addEquality(ret, LinearExpr.sum(data.toArray(new IntVar[0])));
+        return sumV(data.toArray(new IntVar[0]));
+    }
+
+    public IntVar sumV(final IntVar[] data) {
+        if (data.length == 1) {
+            return data[0];
+        }
+        long lb = 0;
+        long ub = 0;
+        for (final IntVar var : data) {
+            lb = LongMath.saturatedAdd(lb, lowerBound(var));
+            ub = LongMath.saturatedAdd(ub, upperBound(var));
+        }
+        final IntVar ret = newIntVar(lb, ub);
+        model.addEquality(ret, LinearExpr.sum(data));
         return ret;
     }
 
     // TODO: add test case to OpsTests
     public IntVar scalProd(final List<IntVar> variables, final List<Integer> coefficients) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
-        model.addEquality(ret, LinearExpr.scalProd(variables.toArray(new IntVar[0]),
-                                                   coefficients.stream().mapToInt(Integer::intValue).toArray()));
+        return scalProd(variables.toArray(new IntVar[0]), Ints.toArray(coefficients));
+    }
+
+    public IntVar scalProd(final IntVar[] variables, final int[] coefficients) {
+        long lb = 0;
+        long ub = 0;
+        for (int i = 0; i < variables.length; i++) {
+            final long a = LongMath.saturatedMultiply(lowerBound(variables[i]), coefficients[i]);
+            final long b = LongMath.saturatedMultiply(upperBound(variables[i]), coefficients[i]);
+            lb = LongMath.saturatedAdd(lb, Math.min(a, b));
+            ub = LongMath.saturatedAdd(ub, Math.max(a, b));
+        }
+        final IntVar ret = newIntVar(lb, ub);
+        model.addEquality(ret, LinearExpr.scalProd(variables, coefficients));
         return ret;
     }
 
@@ -74,10 +115,17 @@ public class Ops {
     }
 
     public IntVar exists(final List<IntVar> data) {
+        return exists(data.toArray(new IntVar[0]));
+    }
+
+    public IntVar exists(final IntVar[] data) {
         final IntVar bool = model.newBoolVar("");
-        final Literal[] literals = data.toArray(new Literal[0]);
-        model.addBoolOr(literals).onlyEnforceIf(bool);
-        model.addBoolAnd(data.stream().map(IntVar::not).toArray(Literal[]::new)).onlyEnforceIf(bool.not());
+        model.addBoolOr(data).onlyEnforceIf(bool);
+        final Literal[] negated = new Literal[data.length];
+        for (int i = 0; i < data.length; i++) {
+            negated[i] = data[i].not();
+        }
+        model.addBoolAnd(negated).onlyEnforceIf(bool.not());
         return bool;
     }
 
@@ -85,13 +133,34 @@ public class Ops {
         return Collections.max(data);
     }
 
+    public int maxVInteger(final int[] data) {
+        return Ints.max(data);
+    }
+
     public long maxVLong(final List<Long> data) {
         return Collections.max(data);
     }
 
+    public long maxVLong(final long[] data) {
+        return Longs.max(data);
+    }
+
     public IntVar maxVIntVar(final List<IntVar> data) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
-        model.addMaxEquality(ret, data.toArray(new IntVar[0]));
+        return maxVIntVar(data.toArray(new IntVar[0]));
+    }
+
+    public IntVar maxVIntVar(final IntVar[] data) {
+        if (data.length == 1) {
+            return data[0];
+        }
+        long lb = Long.MIN_VALUE;
+        long ub = Long.MIN_VALUE;
+        for (final IntVar var : data) {
+            lb = Math.max(lb, lowerBound(var));
+            ub = Math.max(ub, upperBound(var));
+        }
+        final IntVar ret = data.length == 0 ? newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE) : newIntVar(lb, ub);
+        model.addMaxEquality(ret, data);
         return ret;
     }
 
@@ -99,13 +168,34 @@ public class Ops {
         return Collections.min(data);
     }
 
+    public int minVInteger(final int[] data) {
+        return Ints.min(data);
+    }
+
     public long minVLong(final List<Long> data) {
         return Collections.min(data);
     }
 
+    public long minVLong(final long[] data) {
+        return Longs.min(data);
+    }
+
     public IntVar minVIntVar(final List<IntVar> data) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
-        model.addMinEquality(ret, data.toArray(new IntVar[0]));
+        return minVIntVar(data.toArray(new IntVar[0]));
+    }
+
+    public IntVar minVIntVar(final IntVar[] data) {
+        if (data.length == 1) {
+            return data[0];
+        }
+        long lb = Long.MAX_VALUE;
+        long ub = Long.MAX_VALUE;
+        for (final IntVar var : data) {
+            lb = Math.min(lb, lowerBound(var));
+            ub = Math.min(ub, upperBound(var));
+        }
+        final IntVar ret = data.length == 0 ? newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE) : newIntVar(lb, ub);
+        model.addMinEquality(ret, data);
         return ret;
     }
 
@@ -114,39 +204,58 @@ public class Ops {
     }
 
     public IntVar div(final IntVar left, final int right) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
+        if (right == 1) {
+            return left;
+        }
+        final IntVar ret;
+        if (right > 0) {
+            ret = newIntVar(lowerBound(left) / right, upperBound(left) / right);
+        } else if (right < 0) {
+            ret = newIntVar(upperBound(left) / right, lowerBound(left) / right);
+        } else {
+            ret = newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
         model.addDivisionEquality(ret, left, model.newConstant(right));
         return ret;
     }
 
     public IntVar plus(final int left, final IntVar right) {
-        return plus(model.newConstant(left), right);
+        return plus(right, left);
     }
 
     public IntVar plus(final IntVar left, final int right) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
-        model.addEquality(ret, LinearExpr.sum(new IntVar[]{left, model.newConstant(right)}));
+        if (right == 0) {
+            return left;
+        }
+        final IntVar ret = newIntVar(LongMath.saturatedAdd(lowerBound(left), right),
+                                     LongMath.saturatedAdd(upperBound(left), right));
+        // ret - left == right
+        model.addEquality(LinearExpr.scalProd(new IntVar[]{ret, left}, new int[]{1, -1}), right);
         return ret;
     }
 
     public IntVar plus(final IntVar left, final IntVar right) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
+        final IntVar ret = newIntVar(LongMath.saturatedAdd(lowerBound(left), lowerBound(right)),
+                                     LongMath.saturatedAdd(upperBound(left), upperBound(right)));
         model.addEquality(ret, LinearExpr.sum(new IntVar[]{left, right}));
         return ret;
     }
 
     public IntVar minus(final int left, final IntVar right) {
-        return minus(model.newConstant(left), right);
+        final IntVar ret = newIntVar(LongMath.saturatedSubtract(left, upperBound(right)),
+                                     LongMath.saturatedSubtract(left, lowerBound(right)));
+        // ret + right == left
+        model.addEquality(LinearExpr.sum(new IntVar[]{ret, right}), left);
+        return ret;
     }
 
     public IntVar minus(final IntVar left, final int right) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
-        model.addEquality(ret, LinearExpr.sum(new IntVar[]{left, model.newConstant(-right)}));
-        return ret;
+        return plus(left, -right);
     }
 
     public IntVar minus(final IntVar left, final IntVar right) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
+        final IntVar ret = newIntVar(LongMath.saturatedSubtract(lowerBound(left), upperBound(right)),
+                                     LongMath.saturatedSubtract(upperBound(left), lowerBound(right)));
         model.addEquality(ret, LinearExpr.scalProd(new IntVar[]{left, right}, new int[]{1, -1}));
         return ret;
     }
@@ -160,13 +269,24 @@ public class Ops {
     }
 
     public IntVar mult(final IntVar left, final int right) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
+        if (right == 1) {
+            return left;
+        }
+        final long a = LongMath.saturatedMultiply(lowerBound(left), right);
+        final long b = LongMath.saturatedMultiply(upperBound(left), right);
+        final IntVar ret = newIntVar(Math.min(a, b), Math.max(a, b));
         model.addEquality(ret, LinearExpr.term(left, right));
         return ret;
     }
 
     public IntVar mult(final IntVar left, final IntVar right) {
-        final IntVar ret = model.newIntVar(Integer.MIN_VALUE, Integer.MAX_VALUE, "");
+        final long[] products = {
+            LongMath.saturatedMultiply(lowerBound(left), lowerBound(right)),
+            LongMath.saturatedMultiply(lowerBound(left), upperBound(right)),
+            LongMath.saturatedMultiply(upperBound(left), lowerBound(right)),
+            LongMath.saturatedMultiply(upperBound(left), upperBound(right))
+        };
+        final IntVar ret = newIntVar(Longs.min(products), Longs.max(products));
         model.addProductEquality(ret, new IntVar[]{left, right});
         return ret;
     }
@@ -349,30 +469,58 @@ public class Ops {
     }
 
     public IntVar inLong(final IntVar left, final List<Long> right) {
+        return inLong(left, Longs.toArray(right));
+    }
+
+    public IntVar inLong(final IntVar left, final long[] right) {
         final IntVar bool = model.newBoolVar("");
-        final Domain domain = Domain.fromValues(right.stream().mapToLong(encoder::toLong).toArray());
+        final Domain domain = Domain.fromValues(right);
         model.addLinearExpressionInDomain(left, domain).onlyEnforceIf(bool);
         model.addLinearExpressionInDomain(left, domain.complement()).onlyEnforceIf(bool.not());
         return bool;
     }
 
     public IntVar inInteger(final IntVar left, final List<Integer> right) {
-        final IntVar bool = model.newBoolVar("");
-        final Domain domain = Domain.fromValues(right.stream().mapToLong(encoder::toLong).toArray());
-        model.addLinearExpressionInDomain(left, domain).onlyEnforceIf(bool);
-        model.addLinearExpressionInDomain(left, domain.complement()).onlyEnforceIf(bool.not());
-        return bool;
+        return inLong(left, right.stream().mapToLong(Integer::longValue).toArray());
+    }
+
+    public IntVar inInteger(final IntVar left, final int[] right) {
+        return inLong(left, Arrays.stream(right).asLongStream().toArray());
+    }
+
+    public void restrictToString(final IntVar left, final List<String> right) {
+        model.addLinearExpressionInDomain(left, Domain.fromValues(right.stream().mapToLong(encoder::toLong).toArray()));
+    }
+
+    public void restrictToLong(final IntVar left, final List<Long> right) {
+        restrictToLong(left, Longs.toArray(right));
+    }
+
+    public void restrictToLong(final IntVar left, final long[] right) {
+        model.addLinearExpressionInDomain(left, Domain.fromValues(right));
+    }
+
+    public void restrictToInteger(final IntVar left, final List<Integer> right) {
+        restrictToLong(left, right.stream().mapToLong(Integer::longValue).toArray());
+    }
+
+    public void restrictToInteger(final IntVar left, final int[] right) {
+        restrictToLong(left, Arrays.stream(right).asLongStream().toArray());
     }
 
     public IntVar inIntVar(final IntVar left, final List<IntVar> right) {
+        return inIntVar(left, right.toArray(new IntVar[0]));
+    }
+
+    public IntVar inIntVar(final IntVar left, final IntVar[] right) {
         final IntVar bool = model.newBoolVar("");
-        final Literal[] literals = new Literal[right.size()];
-        for (int i = 0; i < right.size(); i++) {
-            literals[i] = eq(left, right.get(i));
+        final Literal[] literals = new Literal[right.length];
+        for (int i = 0; i < right.length; i++) {
+            literals[i] = eq(left, right[i]);
         }
         model.addBoolOr(literals).onlyEnforceIf(bool);
 
-        for (int i = 0; i < right.size(); i++) {
+        for (int i = 0; i < right.length; i++) {
             literals[i] = literals[i].not();
         }
         model.addBoolAnd(literals).onlyEnforceIf(bool.not());
@@ -437,26 +585,40 @@ public class Ops {
 
     public void capacityConstraint(final List<IntVar> varsToAssign, final List<?> domain,
                                    final List<List<Integer>> demands, final List<List<Integer>> capacities) {
+        capacityConstraint(varsToAssign.toArray(new IntVar[0]), domain, toIntArrays(demands),
+                           toIntArrays(capacities));
+    }
+
+    public void capacityConstraint(final IntVar[] varsToAssign, final List<?> domain,
+                                   final int[][] demands, final int[][] capacities) {
+        capacityConstraint(varsToAssign, domain, demands, capacities, new NodeLoadIndex(),
+                           NodeLoadIndex.UNKNOWN_VERSION);
+    }
+
+    public void capacityConstraint(final IntVar[] varsToAssign, final List<?> domain,
+                                   final int[][] demands, final int[][] capacities, final NodeLoadIndex nodeLoads,
+                                   final long dataVersion) {
         // Create the variables.
-        capacities.forEach(
-                vec -> Preconditions.checkArgument(domain.size() == vec.size())
-        );
-        demands.forEach(
-                vec -> Preconditions.checkArgument(varsToAssign.size() == vec.size())
-        );
+        for (final int[] vec : capacities) {
+            Preconditions.checkArgument(domain.size() == vec.length);
+        }
+        for (final int[] vec : demands) {
+            Preconditions.checkArgument(varsToAssign.length == vec.length);
+        }
         if (domain.size() == 0) {
-            throw new RuntimeException("Empty domain for capacity constraint " + demands + " " + capacities);
+            throw new RuntimeException("Empty domain for capacity constraint " + Arrays.deepToString(demands) + " "
+                                       + Arrays.deepToString(capacities));
         }
 
         if (domain.get(0) instanceof String) {
             final long[] domainArr = domain.stream().mapToLong(o -> encoder.toLong((String) o)).toArray();
-            capacityConstraint(varsToAssign, domainArr, demands, capacities);
+            capacityConstraint(varsToAssign, domainArr, demands, capacities, nodeLoads, dataVersion);
         } else if (domain.get(0) instanceof Integer) {
             final long[] domainArr = domain.stream().mapToLong(o -> encoder.toLong((Integer) o)).toArray();
-            capacityConstraint(varsToAssign, domainArr, demands, capacities);
+            capacityConstraint(varsToAssign, domainArr, demands, capacities, nodeLoads, dataVersion);
         } else if (domain.get(0) instanceof Long) {
             final long[] domainArr = domain.stream().mapToLong(o -> encoder.toLong((Long) o)).toArray();
-            capacityConstraint(varsToAssign, domainArr, demands, capacities);
+            capacityConstraint(varsToAssign, domainArr, demands, capacities, nodeLoads, dataVersion);
         } else {
             throw new RuntimeException("Unexpected type of list: " + domain);
         }
@@ -464,12 +626,78 @@ public class Ops {
 
     public void capacityConstraint(final List<IntVar> varsToAssign, final long[] domainArr,
                                    final List<List<Integer>> demands, final List<List<Integer>> capacities) {
-        final int scale = 1000;
-        Preconditions.checkArgument(demands.size() == capacities.size());
+        capacityConstraint(varsToAssign.toArray(new IntVar[0]), domainArr, toIntArrays(demands),
+                           toIntArrays(capacities));
+    }
+
+    public void capacityConstraint(final IntVar[] taskToNodeAssignment, final long[] domainArr,
+                                   final int[][] demands, final int[][] capacities) {
+        capacityConstraint(taskToNodeAssignment, domainArr, demands, capacities, new NodeLoadIndex(),
+                           NodeLoadIndex.UNKNOWN_VERSION);
+    }
+
+    /**
+     * Assigns tasks to nodes without exceeding the capacities of the nodes, minimizes the maximum load per
+     * resource, and prefers the nodes that are least loaded by the tasks as a whole. The nodeLoads index orders
+     * nodes by load, and is retained by the caller across solves so that only the nodes that changed need to be
+     * re-ordered. The dataVersion has to change whenever the domain or capacities do, and may be
+     * NodeLoadIndex.UNKNOWN_VERSION.
+     */
+    public void capacityConstraint(final IntVar[] taskToNodeAssignment, final long[] domainArr,
+                                   final int[][] demands, final int[][] capacities,
+                                   final NodeLoadIndex nodeLoads, final long dataVersion) {
+        Preconditions.checkArgument(demands.length == capacities.length);
+        final int numTasks = taskToNodeAssignment.length;
+        final int numResources = demands.length;
+        final int[] maxCapacities = new int[numResources];
+        for (int i = 0; i < numResources; i++) {
+            Preconditions.checkArgument(capacities[i].length == domainArr.length);
+            Preconditions.checkArgument(demands[i].length == numTasks);
+            maxCapacities[i] = Ints.max(capacities[i]);
+        }
 
-        final IntVar[] taskToNodeAssignment = varsToAssign.toArray(IntVar[]::new);
+        // For each resource, scale demands by max-capacities, and the capacity a node lacks compared to the
+        // largest node likewise. This normalizes all resource capacities/demands into the same range (0-1000)
+        final int[][] scaledDemands = new int[numResources][numTasks];
+        final int[][] scaledPadding = new int[numResources][domainArr.length];
+        for (int i = 0; i < numResources; i++) {
+            final int capacity = maxCapacities[i];
+            for (int task = 0; task < numTasks; task++) {
+                scaledDemands[i][task] = (demands[i][task] * CAPACITY_SCALE) / capacity;
+            }
+            for (int node = 0; node < domainArr.length; node++) {
+                scaledPadding[i][node] = ((capacity - capacities[i][node]) * CAPACITY_SCALE) / capacity;
+            }
+        }
+
+        if (configUseBinPackingForCapacityConstraints) {
+            binPackingCapacityConstraint(taskToNodeAssignment, domainArr, demands, capacities, scaledDemands,
+                                         scaledPadding);
+        } else {
+            cumulativeCapacityConstraint(taskToNodeAssignment, domainArr, scaledDemands, scaledPadding);
+        }
+        final long[] totalScaledDemands = new long[numResources];
+        for (int i = 0; i < numResources; i++) {
+            for (int task = 0; task < numTasks; task++) {
+                totalScaledDemands[i] += scaledDemands[i][task];
+            }
+        }
+        // Strings in the domain may be encoded differently once the encoder evicts strings
+        nodeLoads.update(domainArr, capacities, totalScaledDemands,
+                         dataVersion == NodeLoadIndex.UNKNOWN_VERSION ? dataVersion
+                                                                      : dataVersion + encoder.getVersion());
+        preferLessLoadedNodes(taskToNodeAssignment, domainArr.length, nodeLoads);
+    }
+
+    /**
+     * Models every task as an interval of size 1 that starts at the node it is assigned to, and every node as
+     * a fixed interval that uses up the capacity it lacks compared to the largest node. Per resource, one
+     * cumulative constraint enforces capacities, and another one computes the maximum load, which we minimize.
+     */
+    private void cumulativeCapacityConstraint(final IntVar[] taskToNodeAssignment, final long[] domainArr,
+                                              final int[][] scaledDemands, final int[][] scaledPadding) {
         final int numTasks = taskToNodeAssignment.length;
-        final IntervalVar[] tasksIntervals = new IntervalVar[numTasks + capacities.get(0).size()];
+        final IntervalVar[] tasksIntervals = new IntervalVar[numTasks + domainArr.length];
 
         final Domain domainT = Domain.fromValues(domainArr);
         final Domain intervalRange = Domain.fromFlatIntervals(new long[] {domainT.min() + 1, domainT.max() + 1});
@@ -488,83 +716,134 @@ public class Ops {
             tasksIntervals[i] = model.newFixedInterval(domainArr[nodeIndex], 1, "");
         }
 
-        // Convert to list of arrays
-        final List<int[]> nodeCapacities =
-                capacities.stream().map(vec -> vec.stream().mapToInt(Integer::intValue).toArray())
-                        .collect(Collectors.toList());
-        final List<Integer> maxCapacities = nodeCapacities.stream().map(Ints::max)
-                .collect(Collectors.toList());
-        final int numResources = demands.size();
-
-        // For each resource, create dummy demands to accommodate heterogeneous capacities
-        final List<List<Integer>> updatedDemands = new ArrayList<>(demands.size());
+        final int numResources = scaledDemands.length;
+        final int[][] taskDemands = new int[numResources][];
         for (int i = 0; i < numResources; i++) {
-            final List<Integer> demand = new ArrayList<>(demands.get(i));
-            final int maxCapacity = maxCapacities.get(i);
-            for (final int value : nodeCapacities.get(i)) {
-                demand.add(maxCapacity - value);
-            }
-            updatedDemands.add(demand);
-        }
-        updatedDemands.forEach(
-                vec -> Preconditions.checkArgument(vec.size() == (numTasks + capacities.get(0).size()))
-        );
-
-        // Scale demands by max-capacities. This normalizes all resource capacities/demands into the same range (0-100)
-        final List<int[]> taskDemands = new ArrayList<>(maxCapacities.size());
-        for (int i = 0; i < maxCapacities.size(); i++) {
-            final int capacity = maxCapacities.get(i);
-            final int[] scaledDemands = updatedDemands.get(i)
-                    .stream().mapToInt(e -> ((e * scale) / capacity))
-                    .toArray();
-            taskDemands.add(scaledDemands);
+            taskDemands[i] = Ints.concat(scaledDemands[i], scaledPadding[i]);
         }
 
         // 2. Capacity constraints
         for (int i = 0; i < numResources; i++) {
-            model.addCumulative(tasksIntervals, taskDemands.get(i), model.newConstant(scale));
+            model.addCumulative(tasksIntervals, taskDemands[i], model.newConstant(CAPACITY_SCALE));
         }
 
         // Cumulative score
-        final IntVar[] maximumLoads = new IntVar[maxCapacities.size()];
+        final IntVar[] maximumLoads = new IntVar[numResources];
         for (int i = 0; i < numResources; i++) {
-            final IntVar max = model.newIntVar(0, scale, "");
-            model.addCumulative(tasksIntervals, taskDemands.get(i), max);
+            final IntVar max = model.newIntVar(0, CAPACITY_SCALE, "");
+            model.addCumulative(tasksIntervals, taskDemands[i], max);
             maximumLoads[i] = max;
         }
         model.minimize(LinearExpr.sum(maximumLoads));
+    }
 
-        // Prefer less loaded nodes
-        final int[] nodeIdToLoad = new int[domainArr.length];
-        for (int node = 0; node < domainArr.length; node++) {
-            int incidentLoadOnNode = 0;
-            for (int task = 0; task < numTasks; task++) {
-                for (int resource = 0; resource < numResources; resource++) {
-                    incidentLoadOnNode +=
-                            (capacities.get(resource).get(node) - (taskDemands.get(resource)[task] * 100))
-                                    / capacities.get(resource).get(node);
+    /**
+     * Models the assignment of each task with one boolean per node it fits on by itself, and that is in the
+     * domain of its variable. Per node and resource, one linear constraint over those booleans enforces the
+     * node's capacity, and another one bounds the node's load by the maximum load, which we minimize. The
+     * model has one boolean per candidate node of each task, rather than intervals over the whole domain.
+     */
+    private void binPackingCapacityConstraint(final IntVar[] taskToNodeAssignment, final long[] domainArr,
+                                              final int[][] demands, final int[][] capacities,
+                                              final int[][] scaledDemands, final int[][] scaledPadding) {
+        final int numTasks = taskToNodeAssignment.length;
+        final int numNodes = domainArr.length;
+        final int numResources = demands.length;
+
+        // The tasks that are candidates for each node, and the booleans that assign them to it
+        final ArrayBuffer.OfInt[] nodeToTasks = new ArrayBuffer.OfInt[numNodes];
+        final ArrayBuffer.OfIntVar[] nodeToLiterals = new ArrayBuffer.OfIntVar[numNodes];
+        for (int node = 0; node < numNodes; node++) {
+            nodeToTasks[node] = new ArrayBuffer.OfInt(0);
+            nodeToLiterals[node] = new ArrayBuffer.OfIntVar(0);
+        }
+        for (int task = 0; task < numTasks; task++) {
+            final IntVar var = taskToNodeAssignment[task];
+            final Domain varDomain = Domain.fromFlatIntervals(Longs.toArray(var.getBuilder().getDomainList()));
+            final ArrayBuffer.OfIntVar literals = new ArrayBuffer.OfIntVar(0);
+            final ArrayBuffer.OfLong values = new ArrayBuffer.OfLong(0);
+            for (int node = 0; node < numNodes; node++) {
+                if (!varDomain.contains(domainArr[node]) || !fits(demands, capacities, task, node)) {
+                    continue;
                 }
+                final IntVar literal = model.newBoolVar("");
+                literals.add(literal);
+                values.add(domainArr[node]);
+                nodeToTasks[node].add(task);
+                nodeToLiterals[node].add(literal);
             }
-            nodeIdToLoad[node] = incidentLoadOnNode;
+            // Exactly one candidate is chosen, and the variable takes its value. Tasks without candidates make
+            // the model infeasible, like they would with the cumulative encoding.
+            final IntVar[] taskLiterals = literals.toArray();
+            model.addEquality(LinearExpr.sum(taskLiterals), 1);
+            final IntVar[] vars = Arrays.copyOf(taskLiterals, taskLiterals.length + 1);
+            vars[taskLiterals.length] = var;
+            final long[] coeffs = Arrays.copyOf(values.toArray(), taskLiterals.length + 1);
+            coeffs[taskLiterals.length] = -1;
+            model.addEquality(LinearExpr.scalProd(vars, coeffs), 0);
         }
-        final long[] domainSortedByLoad = IntStream.range(0, domainArr.length)
-                .boxed()
-                .sorted(Comparator.comparingInt(idx -> -nodeIdToLoad[idx]))
-                .mapToLong(idx -> domainArr[idx])
-                .toArray();
-        final int maxNumBuckets = 10;
-        final int bucketSize = Math.max(domainSortedByLoad.length / maxNumBuckets, 1);
 
-        Preconditions.checkArgument(domainSortedByLoad.length == domainArr.length);
+        final IntVar[] maximumLoads = new IntVar[numResources];
+        for (int i = 0; i < numResources; i++) {
+            maximumLoads[i] = model.newIntVar(0, CAPACITY_SCALE, "");
+        }
+        for (int node = 0; node < numNodes; node++) {
+            final int[] tasks = nodeToTasks[node].toArray();
+            final IntVar[] literals = nodeToLiterals[node].toArray();
+            if (tasks.length == 0) {
+                continue;
+            }
+            for (int i = 0; i < numResources; i++) {
+                final long[] nodeDemands = new long[tasks.length];
+                final long[] nodeScaledDemands = new long[tasks.length + 1];
+                for (int j = 0; j < tasks.length; j++) {
+                    nodeDemands[j] = demands[i][tasks[j]];
+                    nodeScaledDemands[j] = scaledDemands[i][tasks[j]];
+                }
+                // 2. Capacity constraints
+                model.addLessOrEqual(LinearExpr.scalProd(literals, nodeDemands), capacities[i][node]);
+
+                // Load score: padding + scaled demands <= maximum load
+                final IntVar[] vars = Arrays.copyOf(literals, literals.length + 1);
+                vars[literals.length] = maximumLoads[i];
+                nodeScaledDemands[tasks.length] = -1;
+                model.addLessOrEqual(LinearExpr.scalProd(vars, nodeScaledDemands), -scaledPadding[i][node]);
+            }
+        }
+        model.minimize(LinearExpr.sum(maximumLoads));
+    }
+
+    private static boolean fits(final int[][] demands, final int[][] capacities, final int task, final int node) {
+        for (int i = 0; i < demands.length; i++) {
+            if (demands[i][task] > capacities[i][node]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Prefers assigning tasks to the nodes that are least loaded by the tasks as a whole, by asking that some
+     * task is assigned to one of the buckets of least loaded nodes. Only the nodes in the buckets we need are
+     * read from the index.
+     */
+    private void preferLessLoadedNodes(final IntVar[] taskToNodeAssignment, final int numNodes,
+                                       final NodeLoadIndex nodeLoads) {
+        final int maxNumBuckets = 10;
+        final int bucketSize = Math.max(numNodes / maxNumBuckets, 1);
+        final long numBuckets = Math.max(LongMath.divide(taskToNodeAssignment.length * 2L, bucketSize,
+                                                         RoundingMode.CEILING), 1);
+        final long[] domainSortedByLoad = nodeLoads.leastLoaded((int) Math.min(numNodes, numBuckets * bucketSize));
         long nodesConsidered = 0;
 
         final List<IntVar> bools = new ArrayList<>();
         for (int i = 0; i < domainSortedByLoad.length; i += bucketSize) {
-            final long[] subArray = Arrays.copyOfRange(domainSortedByLoad, i, i + bucketSize);
+            final long[] subArray = Arrays.copyOfRange(domainSortedByLoad, i,
+                                                       Math.min(i + bucketSize, domainSortedByLoad.length));
             for (final IntVar assignmentVar: taskToNodeAssignment) {
                 final IntVar boolVar;
                 if (configUseFullReifiedConstraintsForJoinPreferences) {
-                    boolVar = inLong(assignmentVar, Arrays.asList(ArrayUtils.toObject(subArray)));
+                    boolVar = inLong(assignmentVar, subArray);
                 } else {
                     boolVar = model.newBoolVar("");
                     model.addLinearExpressionInDomain(assignmentVar, Domain.fromValues(subArray))
@@ -578,7 +857,36 @@ public class Ops {
             }
         }
         final IntVar enforcement = model.newBoolVar("");
-        model.addBoolOr(bools.toArray(new IntVar[0])).onlyEnforceIf(enforcement);;
+        model.addBoolOr(bools.toArray(new IntVar[0])).onlyEnforceIf(enforcement);
         model.maximize(enforcement);
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a variable for an intermediate result, with bounds derived from those of its operands. The
+     * bounds are clamped to the range of ints, which is what intermediate results were limited to before.
+     */
+    private IntVar newIntVar(final long lb, final long ub) {
+        return model.newIntVar(clamp(lb), clamp(ub), "");
+    }
+
+    private static long clamp(final long value) {
+        return Math.min(Math.max(value, Integer.MIN_VALUE), Integer.MAX_VALUE);
+    }
+
+    private static long lowerBound(final IntVar var) {
+        return var.getBuilder().getDomain(0);
+    }
+
+    private static long upperBound(final IntVar var) {
+        final IntegerVariableProto.Builder builder = var.getBuilder();
+        return builder.getDomain(builder.getDomainCount() - 1);
+    }
+
+    private static int[][] toIntArrays(final List<List<Integer>> lists) {
+        final int[][] arrays = new int[lists.size()][];
+        for (int i = 0; i < lists.size(); i++) {
+            arrays[i] = Ints.toArray(lists.get(i));
+        }
+        return arrays;
+    }
+}
@@ -9,9 +9,10 @@ package org.dcm.backend;
 import com.google.common.base.CaseFormat;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.ortools.sat.CpModel;
 import com.google.ortools.sat.CpSolver;
 import com.google.ortools.sat.CpSolverStatus;
@@ -20,11 +21,13 @@ import com.google.ortools.util.Domain;
 import com.squareup.javapoet.AnnotationSpec;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeSpec;
 import com.squareup.javapoet.WildcardTypeName;
+import org.dcm.ColumnValues;
 import org.dcm.IRColumn;
 import org.dcm.IRContext;
 import org.dcm.IRTable;
@@ -55,35 +58,37 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import javax.annotation.processing.Generated;
 import javax.lang.model.element.Modifier;
-import javax.tools.JavaCompiler;
-import javax.tools.JavaFileObject;
-import javax.tools.StandardJavaFileManager;
-import javax.tools.ToolProvider;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 
@@ -96,7 +101,6 @@ public class OrToolsSolver implements ISolverBackend {
     public static final String OR_TOOLS_LIB_ENV = "OR_TOOLS_LIB";
     private static final int NUM_THREADS_DEFAULT = 4;
     private static final int MAX_TIME_IN_SECONDS = 1;
-    private static final String GENERATED_BACKEND_CLASS_FILE_PATH = "/tmp";
     private static final Logger LOG = LoggerFactory.getLogger(OrToolsSolver.class);
     private static final String GENERATED_BACKEND_NAME = "GeneratedBackend";
     private static final String GENERATED_FIELD_NAME_PREFIX = "GenField";
@@ -114,6 +118,9 @@ public class OrToolsSolver implements ISolverBackend {
     private final AtomicInteger subqueryCounter = new AtomicInteger(0);
     private final Map<String, Map<String, String>> tableToFieldToType = new HashMap<>();
     private final Map<String, String> viewTupleTypeParameters = new HashMap<>();
+    private final Map<String, Set<String>> referencedColumns = new LinkedHashMap<>();
+    private final Map<String, Set<String>> indexedColumns = new LinkedHashMap<>();
+    private final Deque<String> enclosingLoopTables = new ArrayDeque<>();
     private final Map<String, String> viewGroupByTupleTypeParameters = new HashMap<>();
     private final TupleGen tupleGen = new TupleGen();
     private final OutputIR outputIR = new OutputIR();
@@ -121,6 +128,11 @@ public class OrToolsSolver implements ISolverBackend {
     private final int configMaxTimeInSeconds;
     private final boolean configTryScalarProductEncoding;
     private final boolean configUseFullReifiedConstraintsForJoinPreferences;
+    @Nullable private final File configModelCacheDirectory;
+    private final boolean configUseSolutionHints;
+    private final boolean configBuildViewsInParallel;
+    private final boolean configUseBinPackingForCapacityConstraints;
+    private final List<FieldSpec> generatedFields = new ArrayList<>();
 
     static {
         Preconditions.checkNotNull(System.getenv(OR_TOOLS_LIB_ENV));
@@ -129,14 +141,23 @@ public class OrToolsSolver implements ISolverBackend {
 
     @Nullable private IGeneratedBackend generatedBackend;
     @Nullable private IRContext context = null;
+    @Nullable private String modelCacheKey = null;
 
     private OrToolsSolver(final int configNumThreads, final int configMaxTimeInSeconds,
                           final boolean configTryScalarProductEncoding,
-                          final boolean configUseFullReifiedConstraintsForJoinPreferences) {
+                          final boolean configUseFullReifiedConstraintsForJoinPreferences,
+                          @Nullable final File configModelCacheDirectory,
+                          final boolean configUseSolutionHints,
+                          final boolean configBuildViewsInParallel,
+                          final boolean configUseBinPackingForCapacityConstraints) {
         this.configNumThreads = configNumThreads;
         this.configMaxTimeInSeconds = configMaxTimeInSeconds;
         this.configTryScalarProductEncoding = configTryScalarProductEncoding;
         this.configUseFullReifiedConstraintsForJoinPreferences = configUseFullReifiedConstraintsForJoinPreferences;
+        this.configModelCacheDirectory = configModelCacheDirectory;
+        this.configUseSolutionHints = configUseSolutionHints;
+        this.configBuildViewsInParallel = configBuildViewsInParallel;
+        this.configUseBinPackingForCapacityConstraints = configUseBinPackingForCapacityConstraints;
     }
 
     public static class Builder {
@@ -144,6 +165,10 @@ public class OrToolsSolver implements ISolverBackend {
         private int maxTimeInSeconds = MAX_TIME_IN_SECONDS;
         private boolean tryScalarProductEncoding = true;
         private boolean useFullReifiedConstraintsForJoinPreferences = false;
+        @Nullable private File modelCacheDirectory = null;
+        private boolean useSolutionHints = false;
+        private boolean buildViewsInParallel = false;
+        private boolean useBinPackingForCapacityConstraints = false;
 
         /**
          * Number of solver threads. Corresponds to CP-SAT's setNumSearchWorkers parameter.
@@ -186,9 +211,58 @@ public class OrToolsSolver implements ISolverBackend {
             return this;
         }
 
+        /**
+         * Configures a directory in which to cache compiled models across runs. Models are cached by a hash of
+         * their constraints, table metadata, and the options of this builder, so that building the same model
+         * again loads the previously compiled classes instead of generating and compiling code.
+         * @param modelCacheDirectory directory to cache compiled models in. Defaults to null, which disables
+         *                            caching.
+         */
+        public Builder setModelCacheDirectory(@Nullable final File modelCacheDirectory) {
+            this.modelCacheDirectory = modelCacheDirectory;
+            return this;
+        }
+
+        /**
+         * Configures whether the current values of controllable columns are passed to CP-SAT as hints, so that
+         * rows that were assigned by a previous solve warm-start the search with their previous assignment.
+         * @param useSolutionHints true to hint the solver with the current values of controllable columns.
+         *                         Defaults to false.
+         */
+        public Builder setUseSolutionHints(final boolean useSolutionHints) {
+            this.useSolutionHints = useSolutionHints;
+            return this;
+        }
+
+        /**
+         * Configures whether non-constraint views that do not depend on any controllable columns are computed
+         * concurrently while the model is being built. Such views only read input data, and are computed on
+         * the common ForkJoinPool. Everything that adds variables or constraints to the model is still done in
+         * order on the calling thread, so the model we build does not depend on this option.
+         * @param buildViewsInParallel true to compute independent views concurrently. Defaults to false.
+         */
+        public Builder setBuildViewsInParallel(final boolean buildViewsInParallel) {
+            this.buildViewsInParallel = buildViewsInParallel;
+            return this;
+        }
+
+        /**
+         * Configures how capacity_constraint() is encoded. By default, tasks and nodes are modeled as intervals
+         * in cumulative constraints, whose size grows with the number of nodes in the domain. The bin-packing
+         * encoding instead creates a boolean per task and node that the task fits on by itself, with linear
+         * capacity constraints per node, which is smaller when tasks only fit on a few of many nodes.
+         * @param useBinPackingForCapacityConstraints true to use the bin-packing encoding. Defaults to false.
+         */
+        public Builder setUseBinPackingForCapacityConstraints(final boolean useBinPackingForCapacityConstraints) {
+            this.useBinPackingForCapacityConstraints = useBinPackingForCapacityConstraints;
+            return this;
+        }
+
         public OrToolsSolver build() {
             return new OrToolsSolver(numThreads, maxTimeInSeconds, tryScalarProductEncoding,
-                                     useFullReifiedConstraintsForJoinPreferences);
+                                     useFullReifiedConstraintsForJoinPreferences, modelCacheDirectory,
+                                     useSolutionHints, buildViewsInParallel,
+                                     useBinPackingForCapacityConstraints);
         }
     }
 
@@ -200,6 +274,66 @@ public class OrToolsSolver implements ISolverBackend {
         return generatedBackend.solve(context);
     }
 
+    @Override
+    public boolean loadCachedModel(final String modelHash) {
+        if (configModelCacheDirectory == null) {
+            return false;
+        }
+        // Besides the model itself, the generated code depends on our configuration and on the code generator
+        final Hasher hasher = Hashing.sha256().newHasher()
+                                     .putString(modelHash, StandardCharsets.UTF_8)
+                                     .putInt(configNumThreads)
+                                     .putInt(configMaxTimeInSeconds)
+                                     .putBoolean(configTryScalarProductEncoding)
+                                     .putBoolean(configUseFullReifiedConstraintsForJoinPreferences)
+                                     .putBoolean(configUseSolutionHints)
+                                     .putBoolean(configBuildViewsInParallel)
+                                     .putBoolean(configUseBinPackingForCapacityConstraints);
+        final List<Class<?>> generatorClasses = new ArrayList<>(List.of(OrToolsSolver.class, TupleGen.class,
+                                                                        OutputIR.class, Ops.class,
+                                                                        ArrayBuffer.class, InferDomains.class,
+                                                                        NodeLoadIndex.class));
+        generatorClasses.addAll(Arrays.asList(OrToolsSolver.class.getDeclaredClasses()));
+        generatorClasses.addAll(Arrays.asList(OutputIR.class.getDeclaredClasses()));
+        generatorClasses.addAll(Arrays.asList(ArrayBuffer.class.getDeclaredClasses()));
+        generatorClasses.addAll(Arrays.asList(NodeLoadIndex.class.getDeclaredClasses()));
+        for (final Class<?> cls : generatorClasses) {
+            final String classFile = cls.getName().substring(cls.getPackageName().length() + 1) + ".class";
+            try (final InputStream in = cls.getResourceAsStream(classFile)) {
+                if (in == null) {
+                    LOG.warn("Could not find {}, not caching model", classFile);
+                    return false;
+                }
+                hasher.putBytes(in.readAllBytes());
+            } catch (final IOException e) {
+                LOG.warn("Could not read {}, not caching model", classFile, e);
+                return false;
+            }
+        }
+        final String key = hasher.hash().toString();
+        final Path cachedModel = configModelCacheDirectory.toPath().resolve(key);
+        if (!Files.isDirectory(cachedModel)) {
+            LOG.info("Model {} not found in cache {}", key, configModelCacheDirectory);
+            modelCacheKey = key;
+            return false;
+        }
+        final Map<String, byte[]> classes = new HashMap<>();
+        try (final Stream<Path> classFiles = Files.list(cachedModel)) {
+            for (final Path classFile : classFiles.collect(Collectors.toList())) {
+                final String fileName = classFile.getFileName().toString();
+                classes.put(fileName.substring(0, fileName.length() - ".class".length()),
+                            Files.readAllBytes(classFile));
+            }
+        } catch (final IOException e) {
+            LOG.warn("Could not read cached model {}", cachedModel, e);
+            modelCacheKey = key;
+            return false;
+        }
+        loadGeneratedBackend(classes);
+        LOG.info("Loaded model {} from cache {}", key, configModelCacheDirectory);
+        return true;
+    }
+
     /**
      * This method is where the code generation happens.
      *
@@ -216,15 +350,21 @@ public class OrToolsSolver implements ISolverBackend {
             return Collections.emptyList();
         }
 
-        final MethodSpec.Builder output = MethodSpec.methodBuilder("solve");
+        final MethodSpec.Builder solve = MethodSpec.methodBuilder("solve");
 
-        addInitializer(output);
-        try {
-            addArrayDeclarations(output, context);
-        } catch (final ClassNotFoundException e) {
-            throw new IllegalStateException(e);
-        }
+        addInitializer(solve);
+        final InferDomains inferDomains = InferDomains.apply(constraintViews);
+        addArrayDeclarations(solve, context, inferDomains);
 
+        // The views are generated separately, so that we know which input columns they reference
+        // before we declare the arrays those columns are read from
+        final MethodSpec.Builder output = MethodSpec.methodBuilder("solve");
+
+        final Set<String> viewNames = nonConstraintViews.keySet().stream()
+                                                        .map(name -> name.toUpperCase(Locale.US))
+                                                        .collect(Collectors.toSet());
+        final Set<String> concurrentViews = new HashSet<>();
+        final Set<String> pendingViews = new LinkedHashSet<>();
         nonConstraintViews
                 .forEach((name, comprehension) -> {
                     final MonoidComprehension rewrittenComprehension = rewritePipeline(comprehension);
@@ -233,10 +373,30 @@ public class OrToolsSolver implements ISolverBackend {
                     translationContext.enterScope(outerBlock);
                     final OutputIR.Block block = addView(name, rewrittenComprehension, false, translationContext);
                     translationContext.leaveScope();
-                    output.addCode(block.toString());
+
+                    final FindAccessedTables accessedTables = new FindAccessedTables();
+                    accessedTables.visit(rewrittenComprehension);
+                    final Set<String> dependencies = accessedTables.getTables().stream()
+                                                                   .filter(viewNames::contains)
+                                                                   .collect(Collectors.toCollection(TreeSet::new));
+                    if (configBuildViewsInParallel && !accessedTables.accessesControllableColumns()
+                            && concurrentViews.containsAll(dependencies)) {
+                        addConcurrentView(output, name, block, dependencies, pendingViews);
+                        concurrentViews.add(name.toUpperCase(Locale.US));
+                        pendingViews.add(name.toUpperCase(Locale.US));
+                    } else {
+                        joinConcurrentViews(output, dependencies, pendingViews);
+                        output.addCode(block.toString());
+                    }
                 });
+        joinConcurrentViews(output, Set.copyOf(pendingViews), pendingViews);
         constraintViews
                 .forEach((name, comprehension) -> {
+                    if (inferDomains.isSubsumed(name)) {
+                        output.addCode("\n/* Constraint view $L is enforced by the domains of its variables */\n",
+                                       name);
+                        return;
+                    }
                     final List<MonoidFunction> capacityConstraints = DetectCapacityConstraints.apply(comprehension);
                     if (capacityConstraints.isEmpty()) {
                         final MonoidComprehension rewrittenComprehension = rewritePipeline(comprehension);
@@ -273,8 +433,10 @@ public class OrToolsSolver implements ISolverBackend {
             output.addStatement("model.maximize(o.sumV($T.of($L)))", List.class, objectiveFunctionSum);
         }
 
-        addSolvePhase(output, context);
-        final MethodSpec solveMethod = output.build();
+        addColumnArrays(solve, context);
+        solve.addCode(output.build().code);
+        addSolvePhase(solve, context);
+        final MethodSpec solveMethod = solve.build();
 
         final TypeSpec.Builder backendClassBuilder = TypeSpec.classBuilder(GENERATED_BACKEND_NAME)
                 .addAnnotation(AnnotationSpec.builder(Generated.class)
@@ -282,7 +444,12 @@ public class OrToolsSolver implements ISolverBackend {
                                  .build())
                 .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
                 .addSuperinterface(IGeneratedBackend.class)
+                // Shared across solves, so that strings keep the same encoding from one round to the next
+                .addField(FieldSpec.builder(StringEncoding.class, "encoder", Modifier.PRIVATE, Modifier.FINAL)
+                                   .initializer("new $T()", StringEncoding.class)
+                                   .build())
                 .addMethod(solveMethod)
+                .addFields(generatedFields)
                 .addMethod(INT_VAR_NO_BOUNDS);
         tupleGen.getAllTupleTypes().forEach(backendClassBuilder::addType); // Add tuple types
 
@@ -290,6 +457,46 @@ public class OrToolsSolver implements ISolverBackend {
         return compile(spec);
     }
 
+    /**
+     * Computes a view on the common ForkJoinPool. Views computed this way only read input data and the result
+     * sets of other such views, and never touch the model. Views they depend on that are still being computed
+     * are waited for within the task.
+     */
+    private void addConcurrentView(final MethodSpec.Builder output, final String viewName,
+                                   final OutputIR.Block block, final Set<String> dependencies,
+                                   final Set<String> pendingViews) {
+        final String resultSetNameStr = nonConstraintViewName(viewName);
+        output.addCode("\n");
+        output.addCode("/* Computing non-constraint view $L concurrently */\n", resultSetNameStr);
+        output.addCode("final var $L = $T.supplyAsync(() -> {\n$>", futureStr(viewName), CompletableFuture.class);
+        dependencies.stream()
+                    .filter(pendingViews::contains)
+                    .forEach(dependency -> output.addStatement("final var $L = $L.join()",
+                                                               nonConstraintViewName(dependency),
+                                                               futureStr(dependency)));
+        output.addCode(block.toString());
+        output.addStatement("return $L", resultSetNameStr);
+        output.addCode("$<});\n");
+    }
+
+    /**
+     * Waits for views that are being computed concurrently, before their result sets are accessed by the
+     * current thread.
+     */
+    private void joinConcurrentViews(final MethodSpec.Builder output, final Set<String> dependencies,
+                                     final Set<String> pendingViews) {
+        for (final String dependency : dependencies) {
+            if (pendingViews.remove(dependency)) {
+                output.addStatement("final var $L = $L.join()", nonConstraintViewName(dependency),
+                                    futureStr(dependency));
+            }
+        }
+    }
+
+    private static String futureStr(final String viewName) {
+        return String.format("%sFuture", nonConstraintViewName(viewName));
+    }
+
     /**
      * Creates and populates a block, representing a view. This corresponds to one or more sets of nested
      * for loops and result sets.
@@ -354,17 +561,18 @@ public class OrToolsSolver implements ISolverBackend {
 
             // (2) Loop over the result set collected from the inner comprehension
             final OutputIR.ForBlock forBlock = outputIR.newForBlock(viewName,
-                    CodeBlock.of("for (final $T<Tuple$L<$L>, List<Tuple$L<$L>>> entry: $L.entrySet())",
+                    CodeBlock.of("for (final $T<Tuple$L<$L>, $T<Tuple$L<$L>>> entry: $L.entrySet())",
                                             Map.Entry.class, groupByQualifiersSize, groupByTupleTypeParameters,
-                                            innerTupleSize, headItemsTupleTypeParamters, intermediateView)
+                                            List.class, innerTupleSize, headItemsTupleTypeParamters,
+                                            intermediateView)
             );
 
             forBlock.addHeader(
                 CodeBlock.builder()
                          .addStatement("final Tuple$L<$L> group = entry.getKey()", groupByQualifiersSize,
                                                                                    groupByTupleTypeParameters)
-                         .addStatement("final List<Tuple$L<$L>> data = entry.getValue()", innerTupleSize,
-                                                                                  headItemsTupleTypeParamters)
+                         .addStatement("final $T<Tuple$L<$L>> data = entry.getValue()", List.class,
+                                       innerTupleSize, headItemsTupleTypeParamters)
                          .build()
             );
 
@@ -463,10 +671,14 @@ public class OrToolsSolver implements ISolverBackend {
         populateQualifiersByVarType(comprehension, varQualifiers, nonVarQualifiers, true);
 
         // Start control flows to create nested for loops
-        final OutputIR.Block forLoopsBlock = addNestedForLoops(viewName, nonVarQualifiers);
+        final OutputIR.Block forLoopsBlock = addNestedForLoops(viewName, nonVarQualifiers, isConstraint);
+
+        // Correlated sub-queries within these loops may look up rows by the tables iterated here
+        nonVarQualifiers.tableRowGenerators.forEach(tr -> enclosingLoopTables.push(tr.getTable().getAliasedName()));
 
         // Filter out nested for loops using an if(predicate) statement
         context.enterScope(forLoopsBlock);
+        forLoopsBlock.addBody(maybeAddNullJoinKeyFilters(viewName, nonVarQualifiers));
 
         // Identify head items to be accessed within loop
         final String headItemsStr = headItemsList.stream()
@@ -496,6 +708,7 @@ public class OrToolsSolver implements ISolverBackend {
         }
 
         // Print debugging info
+        nonVarQualifiers.tableRowGenerators.forEach(tr -> enclosingLoopTables.pop());
         context.leaveScope();
         context.leaveScope();
         return block;
@@ -632,13 +845,114 @@ public class OrToolsSolver implements ISolverBackend {
 
     /**
      * Returns a block of code representing nested for loops for a view
+     *
+     * @param viewName the name of the view
+     * @param nonVarQualifiers the qualifiers of the view that do not involve variables
+     * @param isConstraint whether the comprehension represents a constraint. Where clauses of a constraint view
+     *                     are the constraint itself rather than a filter, so they cannot skip rows through a join.
      */
-    private OutputIR.Block addNestedForLoops(final String viewName,
-                                             final QualifiersByType nonVarQualifiers) {
-        final List<CodeBlock> loopStatements = forLoopsFromTableRowGenerators(nonVarQualifiers.tableRowGenerators);
+    private OutputIR.Block addNestedForLoops(final String viewName, final QualifiersByType nonVarQualifiers,
+                                             final boolean isConstraint) {
+        final List<TableRowGenerator> tableRowGenerators = nonVarQualifiers.tableRowGenerators;
+        final List<BinaryOperatorPredicate> equalityPredicates = new ArrayList<>(nonVarQualifiers.joinPredicates);
+        if (!isConstraint) {
+            equalityPredicates.addAll(nonVarQualifiers.wherePredicates);
+        }
+        final Set<String> outerTables = new HashSet<>(enclosingLoopTables);
+        final List<CodeBlock> loopStatements = new ArrayList<>(tableRowGenerators.size());
+        for (final TableRowGenerator tableRowGenerator : tableRowGenerators) {
+            final CodeBlock loopStatement = maybeHashJoin(tableRowGenerator, outerTables, equalityPredicates)
+                    .orElseGet(() -> forLoopsFromTableRowGenerators(List.of(tableRowGenerator)).get(0));
+            loopStatements.add(loopStatement);
+            outerTables.add(tableRowGenerator.getTable().getAliasedName());
+        }
         return outputIR.newForBlock(viewName, loopStatements);
     }
 
+    /**
+     * If a table is equi-joined with a table from an enclosing loop, returns a loop that only iterates over the
+     * rows that match the current row of the enclosing loop. These rows are looked up from a hash index over
+     * the joined column, which turns a join into a linear pass over both tables instead of a quadratic one.
+     * Enclosing loops include those of the views that a correlated sub-query is evaluated in, so that the index
+     * is built once instead of the sub-query scanning its table for every row of the outer view.
+     * The join predicate is still evaluated within the loop, so we only need to find one such predicate.
+     */
+    private Optional<CodeBlock> maybeHashJoin(final TableRowGenerator tableRowGenerator,
+                                              final Set<String> outerTables,
+                                              final List<BinaryOperatorPredicate> equalityPredicates) {
+        final String innerTable = tableRowGenerator.getTable().getAliasedName();
+        if (outerTables.contains(innerTable)) {
+            return Optional.empty();
+        }
+        for (final BinaryOperatorPredicate joinPredicate : equalityPredicates) {
+            if (joinPredicate.getOperator() != BinaryOperatorPredicate.Operator.EQUAL
+                    || !(joinPredicate.getLeft() instanceof ColumnIdentifier)
+                    || !(joinPredicate.getRight() instanceof ColumnIdentifier)) {
+                continue;
+            }
+            final ColumnIdentifier left = (ColumnIdentifier) joinPredicate.getLeft();
+            final ColumnIdentifier right = (ColumnIdentifier) joinPredicate.getRight();
+            final ColumnIdentifier inner;
+            final ColumnIdentifier outer;
+            if (left.getTableName().equals(innerTable) && outerTables.contains(right.getTableName())) {
+                inner = left;
+                outer = right;
+            } else if (right.getTableName().equals(innerTable) && outerTables.contains(left.getTableName())) {
+                inner = right;
+                outer = left;
+            } else {
+                continue;
+            }
+            if (!isIndexableColumn(inner.getField()) || !isIndexableColumn(outer.getField())
+                    || inner.getField().getType() != outer.getField().getType()) {
+                continue;
+            }
+            final String tableName = inner.getField().getIRTable().getName();
+            final String fieldName = inner.getField().getName();
+            referencedColumns.computeIfAbsent(tableName, k -> new LinkedHashSet<>()).add(fieldName);
+            indexedColumns.computeIfAbsent(tableName, k -> new LinkedHashSet<>()).add(fieldName);
+            final String outerValue = fieldNameStrWithIter(outer.getField().getIRTable().getName(),
+                                                           outer.getField().getName(),
+                                                           iterStr(outer.getTableName()));
+            return Optional.of(CodeBlock.of("for (final int $L : $L.getOrDefault($L, $T.emptyList()))",
+                                            iterStr(innerTable), indexStr(tableName, fieldName), outerValue,
+                                            Collections.class));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Only the input columns of base tables are read from arrays, and can therefore be indexed
+     */
+    private boolean isIndexableColumn(final IRColumn column) {
+        return !column.isControllable() && !column.getIRTable().isViewTable()
+                && !viewToFieldIndex.containsKey(column.getIRTable().getName())
+                && column.getType() != IRColumn.FieldType.FLOAT;
+    }
+
+    /**
+     * Returns a block of code representing an if statement that skips rows where a join predicate compares
+     * a null value. Like in SQL, such rows never satisfy the join. The check reads the column arrays directly,
+     * so that it precedes the evaluation of the join predicates themselves.
+     */
+    private OutputIR.Block maybeAddNullJoinKeyFilters(final String viewName, final QualifiersByType nonVarQualifiers) {
+        final String nullChecks = nonVarQualifiers.joinPredicates.stream()
+                .filter(p -> p.getOperator() != BinaryOperatorPredicate.Operator.AND
+                          && p.getOperator() != BinaryOperatorPredicate.Operator.OR)
+                .flatMap(p -> Stream.of(p.getLeft(), p.getRight()))
+                .filter(e -> e instanceof ColumnIdentifier)
+                .map(e -> (ColumnIdentifier) e)
+                .filter(c -> isIndexableColumn(c.getField()) && c.getField().getJooqField().getDataType().nullable())
+                .map(c -> fieldNameStrWithIter(c.getField().getIRTable().getName(), c.getField().getName(),
+                                               iterStr(c.getTableName())) + " == null")
+                .distinct()
+                .collect(Collectors.joining(" || "));
+        if (!nullChecks.isEmpty()) {
+            return outputIR.newIfBlock(viewName + "nullJoinKeyFilter", CodeBlock.of("if ($L)", nullChecks).toString());
+        }
+        return outputIR.newBlock(viewName + "nullJoinKeyFilter");
+    }
+
     /**
      * Returns a block of code representing an if statement that evaluates constant predicates to determine
      * whether a result-set or constraint applies to a row within a view
@@ -764,6 +1078,16 @@ public class OrToolsSolver implements ISolverBackend {
     private CodeBlock topLevelConstraint(final Expr expr, final String joinPredicateStr,
                                     @Nullable final GroupContext groupContext, final TranslationContext context) {
         Preconditions.checkArgument(expr instanceof BinaryOperatorPredicate);
+        // A hard membership constraint on a variable is posted as a restriction of the variable's domain,
+        // rather than as a reified constraint that is then forced to be true.
+        if (joinPredicateStr.isEmpty() && groupContext == null && isDomainConstraint(expr)) {
+            final BinaryOperatorPredicate in = (BinaryOperatorPredicate) expr;
+            final String left = exprToStr(in.getLeft(), true, null, context);
+            final String right = exprToStr(in.getRight(), true, null, context);
+            return CodeBlock.builder()
+                            .addStatement("o.restrictTo$L($L, $L)", inferType(in.getRight()), left, right)
+                            .build();
+        }
         final String statement = maybeWrapped(expr, groupContext, context);
 
         if (joinPredicateStr.isEmpty()) {
@@ -774,6 +1098,20 @@ public class OrToolsSolver implements ISolverBackend {
         }
     }
 
+    /**
+     * @return true if expr is of the form 'var in (list of constants)'
+     */
+    private boolean isDomainConstraint(final Expr expr) {
+        if (!(expr instanceof BinaryOperatorPredicate)
+                || ((BinaryOperatorPredicate) expr).getOperator() != BinaryOperatorPredicate.Operator.IN) {
+            return false;
+        }
+        final BinaryOperatorPredicate in = (BinaryOperatorPredicate) expr;
+        final String rightType = inferType(in.getRight());
+        return inferType(in.getLeft()).equals("IntVar")
+                && (rightType.equals("String") || rightType.equals("Long") || rightType.equals("Integer"));
+    }
+
     /**
      * Wrap constants 'x' in model.newConstant(x) depending on the type. Also converts true/false to 1/0.
      */
@@ -788,39 +1126,159 @@ public class OrToolsSolver implements ISolverBackend {
         return inferType(expr).equals("IntVar") ? exprStr : String.format("o.toConst(%s)", exprStr);
     }
 
+    /**
+     * Copies the input columns that are referenced by the generated code out of their IRColumns, and into arrays.
+     * Columns are converted to their Java type once per row here, so that the nested loops that join tables
+     * can access them by indexing into an array. Columns that cannot be null are stored in primitive arrays.
+     */
+    private void addColumnArrays(final MethodSpec.Builder output, final IRContext context) {
+        referencedColumns.forEach((tableName, fieldNames) -> {
+            final IRTable table = context.getTable(tableName);
+            output.addCode("\n");
+            output.addCode("/* Input columns of table $S */\n", tableName);
+            for (final String fieldName : fieldNames) {
+                final IRColumn column = table.getIRColumns().get(fieldName);
+                final String arrayName = columnArrayStr(tableName, fieldName);
+                final String valuesName = columnValuesStr(tableName, fieldName);
+                output.addStatement("final $T $L = context.getTable($S).getIRColumns().get($S).getFieldValues()",
+                                    ColumnValues.class, valuesName, tableName, fieldName)
+                      .addStatement("final $L[] $L = new $L[$L]", columnArrayType(column), arrayName,
+                                    columnArrayType(column), tableNumRowsStr(tableName))
+                      .beginControlFlow("for (int i = 0; i < $L; i++)", tableNumRowsStr(tableName));
+                if (isPrimitiveColumn(column)) {
+                    output.addStatement("$L[i] = $L.$L(i)", arrayName, valuesName, columnGetter(column));
+                } else {
+                    output.addStatement("$L[i] = $L.isNull(i) ? null : $L.$L(i)", arrayName, valuesName, valuesName,
+                                        columnGetter(column));
+                }
+                output.endControlFlow();
+            }
+        });
+        // Hash indexes for equi-joins, from the values of a column to the rows that hold them. Null values
+        // never satisfy a join predicate, and are left out.
+        indexedColumns.forEach((tableName, fieldNames) -> {
+            final IRTable table = context.getTable(tableName);
+            for (final String fieldName : fieldNames) {
+                final IRColumn column = table.getIRColumns().get(fieldName);
+                final String type = tableToFieldToType.get(tableName).get(fieldName);
+                final String arrayName = columnArrayStr(tableName, fieldName);
+                output.addStatement("final $T<$L, $T<Integer>> $L = new $T<>()", Map.class, type, List.class,
+                                    indexStr(tableName, fieldName), HashMap.class)
+                      .beginControlFlow("for (int i = 0; i < $L; i++)", tableNumRowsStr(tableName));
+                if (!isPrimitiveColumn(column)) {
+                    output.beginControlFlow("if ($L[i] == null)", arrayName)
+                          .addStatement("continue")
+                          .endControlFlow();
+                }
+                output.addStatement("$L.computeIfAbsent($L[i], k -> new $T<>()).add(i)",
+                                    indexStr(tableName, fieldName), arrayName, ArrayList.class)
+                      .endControlFlow();
+            }
+        });
+    }
+
+    /**
+     * Input columns of integer or boolean types are stored in primitive arrays, unless they are nullable
+     */
+    private String columnArrayType(final IRColumn column) {
+        final String type = InferType.typeStringFromColumn(column);
+        if (column.getJooqField().getDataType().nullable()) {
+            return type;
+        }
+        switch (column.getType()) {
+            case INT:
+                return "int";
+            case BOOL:
+                return "boolean";
+            default:
+                return type;
+        }
+    }
+
+    /**
+     * @return the method of ColumnValues that reads values of the given column's Java type
+     */
+    private static String columnGetter(final IRColumn column) {
+        switch (column.getType()) {
+            case INT:
+                return "getInt";
+            case BOOL:
+                return "getBoolean";
+            case STRING:
+                return "getString";
+            case FLOAT:
+                return "getFloat";
+            default:
+                throw new IllegalArgumentException(column.toString());
+        }
+    }
+
+    private boolean isPrimitiveColumn(final IRColumn column) {
+        return !column.isControllable() && !column.getIRTable().isViewTable()
+                && !viewToFieldIndex.containsKey(column.getIRTable().getName())
+                && Character.isLowerCase(columnArrayType(column).charAt(0));
+    }
+
+    /**
+     * Hints the solver with the current value of a controllable column, for rows where it is not null.
+     */
+    private void addSolutionHints(final MethodSpec.Builder output, final IRTable table, final String fieldName,
+                                  final IRColumn field) {
+        final String hintValue;
+        switch (field.getType()) {
+            case STRING:
+                hintValue = "encoder.toLong((String) hint)";
+                break;
+            case BOOL:
+                hintValue = "(Boolean) hint ? 1 : 0";
+                break;
+            case INT:
+                hintValue = "((Number) hint).longValue()";
+                break;
+            default:
+                LOG.warn("Not adding solution hints for column {} of type {}", fieldName, field.getType());
+                return;
+        }
+        final String hintsName = columnValuesStr(table.getName(), fieldName);
+        output.addStatement("final $T $L = context.getTable($S).getIRColumns().get($S).getFieldValues()",
+                            ColumnValues.class, hintsName, table.getName(), fieldName)
+              .beginControlFlow("for (int i = 0; i < $L; i++)", tableNumRowsStr(table.getName()))
+              .addStatement("final Object hint = $L.get(i)", hintsName)
+              .beginControlFlow("if (hint != null)")
+              .addStatement("model.addHint($L[i], $L)", fieldNameStr(table.getName(), fieldName), hintValue)
+              .endControlFlow()
+              .endControlFlow();
+    }
+
     /**
      * Creates array declarations and returns the set of tables that have controllable columns in them.
+     * Controllable columns whose domains were inferred from the constraint views start out with those domains.
      */
-    private void addArrayDeclarations(final MethodSpec.Builder output,
-                                      final IRContext context) throws ClassNotFoundException {
+    private void addArrayDeclarations(final MethodSpec.Builder output, final IRContext context,
+                                      final InferDomains inferDomains) {
+        final Set<String> declaredDomains = new HashSet<>();
         // For each table...
         for (final IRTable table: context.getTables()) {
             if (table.isViewTable()) {
                 continue;
             }
 
-            // ...1) figure out the jooq record type (e.g., Record3<Integer, String, Boolean>)
-            final Class recordType = Class.forName("org.jooq.Record" + table.getIRColumns().size());
+            // ...1) track the Java type of each field
             Preconditions.checkArgument(!tableToFieldToType.containsKey(table.getAliasedName()));
-            final String recordTypeParameters = table.getIRColumns().entrySet().stream()
-                    .map(e -> {
-                        final String retVal = InferType.typeStringFromColumn(e.getValue());
-                        // Tracks the type of each field.
-                        tableToFieldToType.computeIfAbsent(table.getAliasedName(), (k) -> new HashMap<>())
-                                          .putIfAbsent(e.getKey(), retVal);
-                        return retVal;
-                    }
-                    ).collect(Collectors.joining(", "));
+            table.getIRColumns().forEach(
+                (fieldName, field) -> tableToFieldToType.computeIfAbsent(table.getAliasedName(), k -> new HashMap<>())
+                                                        .putIfAbsent(fieldName,
+                                                                     InferType.typeStringFromColumn(field))
+            );
 
             if (table.isAliasedTable()) {
                 continue;
             }
             output.addCode("\n");
             output.addCode("/* Table $S */\n", table.getName());
-            // ...2) create a List<[RecordType]> to represent the table
-            output.addStatement("final $T<$T<$L>> $L = (List<$T<$L>>) context.getTable($S).getCurrentData()",
-                                 List.class, recordType, recordTypeParameters, tableNameStr(table.getName()),
-                                 recordType, recordTypeParameters, table.getName());
+            // ...2) the table is read column by column, from the values held by its IRColumns
+            output.addStatement("final int $L = context.getTable($S).getNumRows()", tableNumRowsStr(table.getName()),
+                                table.getName());
 
             // ...3) for controllable fields, create a corresponding array of IntVars.
             for (final Map.Entry<String, IRColumn> fieldEntrySet : table.getIRColumns().entrySet()) {
@@ -828,12 +1286,37 @@ public class OrToolsSolver implements ISolverBackend {
                 final IRColumn field = fieldEntrySet.getValue();
                 if (field.isControllable()) {
                     final String variableName = fieldNameStr(table.getName(), fieldName);
+                    final Set<IRColumn> domainValues = inferDomains.getDomains().getOrDefault(field, Set.of());
                     output.addStatement("final $T[] $L = new $T[$L]", IntVar.class, variableName, IntVar.class,
-                                                                       tableNumRowsStr(table.getName()))
-                            .beginControlFlow("for (int i = 0; i < $L; i++)",
-                                              tableNumRowsStr(table.getName()))
-                            .addStatement("$L[i] = $N(model, $S)", variableName, INT_VAR_NO_BOUNDS, fieldName)
-                            .endControlFlow();
+                                                                       tableNumRowsStr(table.getName()));
+                    if (domainValues.isEmpty()) {
+                        output.beginControlFlow("for (int i = 0; i < $L; i++)", tableNumRowsStr(table.getName()))
+                              .addStatement("$L[i] = $N(model, $S)", variableName, INT_VAR_NO_BOUNDS, fieldName)
+                              .endControlFlow();
+                    } else {
+                        // The constraint views restrict this column to the values of other columns, so we create
+                        // its variables with the intersection of those values as their domain
+                        final List<String> domainStrs = new ArrayList<>();
+                        for (final IRColumn values : domainValues) {
+                            final String domainStr = valuesDomainStr(values.getIRTable().getName(),
+                                                                     values.getName());
+                            if (declaredDomains.add(domainStr)) {
+                                addCachedDomain(output, domainStr, values);
+                            }
+                            domainStrs.add(domainStr);
+                        }
+                        final String domainStr = fieldNameStr(table.getName(), fieldName) + "InferredDomain";
+                        output.addStatement("final $T $L = $L", Domain.class, domainStr,
+                                            String.join(".intersectionWith(", domainStrs)
+                                                + ")".repeat(domainStrs.size() - 1));
+                        output.beginControlFlow("for (int i = 0; i < $L; i++)", tableNumRowsStr(table.getName()))
+                              .addStatement("$L[i] = model.newIntVarFromDomain($L, $S)", variableName, domainStr,
+                                            fieldName)
+                              .endControlFlow();
+                    }
+                    if (configUseSolutionHints) {
+                        addSolutionHints(output, table, fieldName, field);
+                    }
                 }
             }
         }
@@ -879,7 +1362,6 @@ public class OrToolsSolver implements ISolverBackend {
             //..5) introduce foreign-key constraints
             table.getForeignKeys().forEach(e -> {
                 if (e.hasConstraint()) {
-                    final AtomicInteger fieldIndex = new AtomicInteger(0);
                     e.getFields().forEach((child, parent) -> {
                         if (!child.isControllable()) {
                             return;
@@ -888,24 +1370,16 @@ public class OrToolsSolver implements ISolverBackend {
                         output.addCode("/* Foreign key constraints: $L.$L -> $L.$L */\n",
                                 child.getIRTable().getName(), child.getName(),
                                 parent.getIRTable().getName(), parent.getName());
+                        // The domain only depends on the parent table, and is cached in a field of the generated
+                        // class until the data in the parent table changes
+                        final String domainStr = fkDomainStr(child.getIRTable().getName(), child.getName());
+                        addCachedDomain(output, domainStr, parent);
                         output.beginControlFlow("for (int i = 0; i < $L; i++)",
                                 tableNumRowsStr(table.getName()));
                         final String fkChildStr =
                                 fieldNameStrWithIter(child.getIRTable().getName(), child.getName(), "i");
-                        final String snippet = Joiner.on('\n').join(
-                                "final long[] domain$L = context.getTable($S).getCurrentData()",
-                                "                        .getValues($S, $L.class)",
-                                "                        .stream()",
-                                "                        .mapToLong(encoder::toLong).toArray()"
-                        );
-
-                        output.addStatement(snippet,
-                               fieldIndex.get(), parent.getIRTable().getName(), parent.getName().toUpperCase(Locale.US),
-                               toJavaClass(parent.getType()));
-                        output.addStatement("model.addLinearExpressionInDomain($L, $T.fromValues(domain$L))",
-                                fkChildStr, Domain.class, fieldIndex.get());
+                        output.addStatement("model.addLinearExpressionInDomain($L, $L)", fkChildStr, domainStr);
                         output.endControlFlow();
-                        fieldIndex.incrementAndGet();
                     });
                 }
             });
@@ -914,19 +1388,57 @@ public class OrToolsSolver implements ISolverBackend {
         output.addStatement(printTime("Array declarations"));
     }
 
-    private static String toJavaClass(final IRColumn.FieldType type) {
-        switch (type) {
-            case FLOAT:
-                return "Float";
-            case INT:
-                return "Integer";
-            case BOOL:
-                return "Boolean";
-            case STRING:
-                return "String";
-            default:
-                throw new RuntimeException();
+    /**
+     * Declares a field in the generated class that caches the set of values in a column as a Domain, and
+     * recomputes it whenever the data in the column's table changes. Nulls are not part of the domain. The codes
+     * of a string column are also kept, to mark them as used in every solve that reuses the domain, and the domain
+     * is recomputed if the encoder evicted strings in the meantime.
+     */
+    private void addCachedDomain(final MethodSpec.Builder output, final String domainStr, final IRColumn values) {
+        final String versionStr = domainStr + "Version";
+        final boolean isString = values.getType() == IRColumn.FieldType.STRING;
+        generatedFields.add(FieldSpec.builder(Domain.class, domainStr, Modifier.PRIVATE)
+                                     .addAnnotation(Nullable.class)
+                                     .initializer("null")
+                                     .build());
+        generatedFields.add(FieldSpec.builder(long.class, versionStr, Modifier.PRIVATE)
+                                     .initializer("-1")
+                                     .build());
+        if (isString) {
+            generatedFields.add(FieldSpec.builder(long[].class, domainStr + "Codes", Modifier.PRIVATE)
+                                         .initializer("new long[0]")
+                                         .build());
+            generatedFields.add(FieldSpec.builder(long.class, domainStr + "EncoderVersion", Modifier.PRIVATE)
+                                         .initializer("-1")
+                                         .build());
         }
+        output.addStatement("final $T $LParent = context.getTable($S)", IRTable.class, domainStr,
+                            values.getIRTable().getName());
+        if (isString) {
+            output.beginControlFlow("if ($1L == null || $2L != $1LParent.getDataVersion()" +
+                                    " || $1LEncoderVersion != encoder.getVersion())", domainStr, versionStr);
+        } else {
+            output.beginControlFlow("if ($L == null || $L != $LParent.getDataVersion())",
+                                    domainStr, versionStr, domainStr);
+        }
+        output.addStatement("final $T $LValues = $LParent.getIRColumns().get($S).getFieldValues()",
+                            ColumnValues.class, domainStr, domainStr, values.getName().toUpperCase(Locale.US));
+        final String snippet = Joiner.on('\n').join(
+                "final long[] $LCodes = $T.range(0, $LValues.size())",
+                "                        .filter(i -> !$LValues.isNull(i))",
+                "                        .mapToLong(i -> encoder.toLong($LValues.$L(i))).toArray()"
+        );
+        output.addStatement(snippet, domainStr, IntStream.class, domainStr, domainStr, domainStr,
+                            columnGetter(values))
+              .addStatement("$L = $T.fromValues($LCodes)", domainStr, Domain.class, domainStr)
+              .addStatement("$L = $LParent.getDataVersion()", versionStr, domainStr);
+        if (isString) {
+            output.addStatement("this.$1LCodes = $1LCodes", domainStr)
+                  .addStatement("$LEncoderVersion = encoder.getVersion()", domainStr)
+                  .nextControlFlow("else")
+                  .addStatement("encoder.markUsed($LCodes)", domainStr);
+        }
+        output.endControlFlow();
     }
 
     /**
@@ -947,9 +1459,10 @@ public class OrToolsSolver implements ISolverBackend {
                .addComment("Create the model.")
                .addStatement("final long startTime = $T.nanoTime()", System.class)
                .addStatement("final $T model = new $T()", CpModel.class, CpModel.class)
-               .addStatement("final $1T encoder = new $1T()", StringEncoding.class)
-               .addStatement("final $1T o = new $1T(model, encoder, $2L)", Ops.class,
-                             configUseFullReifiedConstraintsForJoinPreferences)
+               .addStatement("encoder.newEpoch()")
+               .addStatement("final $1T o = new $1T(model, encoder, $2L, $3L)", Ops.class,
+                             configUseFullReifiedConstraintsForJoinPreferences,
+                             configUseBinPackingForCapacityConstraints)
                .addCode("\n");
     }
 
@@ -979,35 +1492,32 @@ public class OrToolsSolver implements ISolverBackend {
                                                                                  .isControllable())
                                                                    .map(Map.Entry::getKey)
                                                                    .collect(Collectors.toSet());
-            // If the table does not have vars, we can return the original input as is
+            // Tables without vars are left out, as their contents are the same as the input
             if (controllableColumns.isEmpty()) {
-                // Is an input table/view
-                output.addStatement("result.put(context.getTable($1S), context.getTable($1S).getCurrentData())",
-                                     tableName);
-            } else {
-                table.getIRColumns().forEach(
-                    (name, field) -> {
-                        // Else, we update the records corresponding to the table.
-                        if (controllableColumns.contains(name)) {
-                            final int i = intermediateViewCounter.incrementAndGet();
-                            output.addStatement("final Result<? extends Record> tmp$L = " +
-                                    "context.getTable($S).getCurrentData()", i, tableName);
-                            output.beginControlFlow("for (int i = 0; i < $L; i++)",
-                                    tableNumRowsStr(tableName));
-                            if (field.getType().equals(IRColumn.FieldType.STRING)) {
-                                output.addStatement("obj[0] = encoder.toStr(solver.value($L[i]))",
-                                        fieldNameStr(tableName, field.getName()));
-                            } else {
-                                output.addStatement("obj[0] = solver.value($L[i])",
-                                        fieldNameStr(tableName, field.getName()));
-                            }
-                            output.addStatement("tmp$L.get(i).from(obj, $S)", i, field.getName());
-                            output.endControlFlow();
-                            output.addStatement("result.put(context.getTable($S), tmp$L)", tableName, i);
+                continue;
+            }
+            // Else, we return a fresh copy of the table's records, with the values of its controllable columns
+            // replaced by those of the solution
+            final int i = intermediateViewCounter.incrementAndGet();
+            output.addStatement("final Result<? extends Record> tmp$L = context.getTable($S).newRecords()",
+                                i, tableName);
+            table.getIRColumns().forEach(
+                (name, field) -> {
+                    if (controllableColumns.contains(name)) {
+                        output.beginControlFlow("for (int i = 0; i < $L; i++)", tableNumRowsStr(tableName));
+                        if (field.getType().equals(IRColumn.FieldType.STRING)) {
+                            output.addStatement("obj[0] = encoder.toStr(solver.value($L[i]))",
+                                    fieldNameStr(tableName, field.getName()));
+                        } else {
+                            output.addStatement("obj[0] = solver.value($L[i])",
+                                    fieldNameStr(tableName, field.getName()));
                         }
+                        output.addStatement("tmp$L.get(i).from(obj, $S)", i, field.getName());
+                        output.endControlFlow();
                     }
-                );
-            }
+                }
+            );
+            output.addStatement("result.put(context.getTable($S), tmp$L)", tableName, i);
         }
         output.addStatement("return result");
         output.endControlFlow();
@@ -1035,15 +1545,40 @@ public class OrToolsSolver implements ISolverBackend {
                 final int fieldIndex = viewToFieldIndex.get(tableName).get(fieldName);
                 return String.format("%s.get(%s).value%s()", tableNameStr(tableName), iterStr, fieldIndex);
             } else {
-                final String type = tableToFieldToType.get(tableName).get(fieldName);
-                return String.format("%s.get(%s).get(\"%s\", %s.class)",
-                        tableNameStr(tableName), iterStr, fieldName, type);
+                referencedColumns.computeIfAbsent(tableName, k -> new LinkedHashSet<>()).add(fieldName);
+                return String.format("%s[%s]", columnArrayStr(tableName, fieldName), iterStr);
             }
         }
     }
 
-    private static String tableNumRowsStr(final String tableName) {
-        return String.format("%s.size()", CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, tableName));
+    private static String columnValuesStr(final String tableName, final String fieldName) {
+        return String.format("%sValues", fieldNameStr(tableName, fieldName));
+    }
+
+    private static String columnArrayStr(final String tableName, final String fieldName) {
+        return String.format("%sColumn", fieldNameStr(tableName, fieldName));
+    }
+
+    private static String indexStr(final String tableName, final String fieldName) {
+        return String.format("%sIndex", fieldNameStr(tableName, fieldName));
+    }
+
+    private static String fkDomainStr(final String tableName, final String fieldName) {
+        return String.format("%sDomain", fieldNameStr(tableName, fieldName));
+    }
+
+    private static String valuesDomainStr(final String tableName, final String fieldName) {
+        return String.format("%sValuesDomain", fieldNameStr(tableName, fieldName));
+    }
+
+    /**
+     * Input tables are read column by column, whereas views are lists of tuples
+     */
+    private String tableNumRowsStr(final String tableName) {
+        if (tableToFieldToType.containsKey(tableName)) {
+            return String.format("%sNumRows", tableNameStr(tableName));
+        }
+        return String.format("%s.size()", tableNameStr(tableName));
     }
 
     private static String iterStr(final String tableName) {
@@ -1054,55 +1589,63 @@ public class OrToolsSolver implements ISolverBackend {
         return String.format("%s", CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, tableName));
     }
 
-    // TODO: need to perform compilation entirely in memory
     private List<String> compile(final TypeSpec spec) {
         final JavaFile javaFile = JavaFile.builder("org.dcm.backend", spec).build();
         LOG.info("Generating Java or-tools code: {}\n", javaFile.toString());
 
-        // Compile Java code. This steps requires an SDK, and a JRE will not suffice
-        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-        final StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
-        final Iterable<? extends JavaFileObject> compilationUnit = Collections.singleton(javaFile.toJavaFileObject());
+        final Map<String, byte[]> classes = InMemoryCompiler.compile(javaFile.toJavaFileObject());
+        if (modelCacheKey != null) {
+            storeCachedModel(modelCacheKey, classes);
+        }
 
+        // Once compiled, load the generated class, save an instance of it to the generatedBackend method
+        // which we will invoke whenever we run the solver, and return the generated Java source to the caller.
+        loadGeneratedBackend(classes);
         try {
-            // Invoke SDK compiler
-            final Path path = Path.of("/tmp/compilerOutput");
-            final BufferedWriter fileWriter = Files.newBufferedWriter(path);
-            final Boolean call = compiler.getTask(fileWriter, fileManager, null,
-                    ImmutableList.of("-verbose", "-d", "/tmp/"), null, compilationUnit)
-                    .call();
-            if (!call) {
-                final List<String> strings = Files.readAllLines(path);
-                LOG.error("Compilation failed");
-                for (final String line: strings) {
-                    LOG.error("{}", line);
-                }
-                throw new RuntimeException();
-            }
+            final StringWriter writer = new StringWriter();
+            javaFile.writeTo(writer);
+            return Collections.singletonList(writer.toString());
         } catch (final IOException e) {
             throw new RuntimeException(e);
         }
+    }
 
-        // Once compiled, load the generated class, save an instance of it to the generatedBackend method
-        // which we will invoke whenever we run the solver, and return the generated Java source to the caller.
+    private void loadGeneratedBackend(final Map<String, byte[]> classes) {
         try {
-            final File classesDir = new File(GENERATED_BACKEND_CLASS_FILE_PATH);
-            // Load and instantiate compiled class.
-            final URLClassLoader classLoader = URLClassLoader.newInstance(new URL[]{classesDir.toURI().toURL()});
+            final ClassLoader classLoader = new InMemoryCompiler.GeneratedClassLoader(classes,
+                                                                    OrToolsSolver.class.getClassLoader());
             // Loading the class
             final Class<?> cls = Class.forName(String.format("org.dcm.backend.%s", GENERATED_BACKEND_NAME), true,
                                                classLoader);
             final Constructor<?> declaredConstructor = cls.getDeclaredConstructor();
             generatedBackend = (IGeneratedBackend) declaredConstructor.newInstance();
-            final StringWriter writer = new StringWriter();
-            javaFile.writeTo(writer);
-            return Collections.singletonList(writer.toString());
-        } catch (final IOException | ClassNotFoundException | InstantiationException
+        } catch (final ClassNotFoundException | InstantiationException
                       | InvocationTargetException | NoSuchMethodException | IllegalAccessException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Stores compiled classes in the model cache. Classes are first written to a temporary directory that is
+     * then atomically renamed, so that concurrent readers never observe a partially written model.
+     */
+    private void storeCachedModel(final String key, final Map<String, byte[]> classes) {
+        assert configModelCacheDirectory != null;
+        try {
+            final Path cacheDirectory = Files.createDirectories(configModelCacheDirectory.toPath());
+            final Path tmpDirectory = Files.createTempDirectory(cacheDirectory, key);
+            for (final Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                Files.write(tmpDirectory.resolve(entry.getKey() + ".class"), entry.getValue());
+            }
+            Files.move(tmpDirectory, cacheDirectory.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Stored model {} in cache {}", key, configModelCacheDirectory);
+        } catch (final IOException e) {
+            // Another instance might have stored the same model concurrently. Either way, the cache is
+            // only an optimization
+            LOG.warn("Could not store model {} in cache {}", key, configModelCacheDirectory, e);
+        }
+    }
+
     @Override
     public List<String> generateDataCode(final IRContext context) {
         this.context = context;
@@ -1175,6 +1718,7 @@ public class OrToolsSolver implements ISolverBackend {
         final Set<String> domain = new HashSet<>();
         final List<String> demands = new ArrayList<>();
         final List<String> capacities = new ArrayList<>();
+        final Set<String> nodeTables = new LinkedHashSet<>();
 
         capacityConstraint.forEach(
             monoidFunction -> {
@@ -1190,18 +1734,23 @@ public class OrToolsSolver implements ISolverBackend {
                     context.enterScope(forBlock);
                     final String variableToAssignTo = exprToStr(columnArg, context);
                     context.leaveScope();
-                    final String parameter = extractListFromLoop(variableToAssignTo, context.currentScope(),
-                                                                forBlock,
-                                                                inferType(columnArg));
+                    // The domain is passed as a list, so that it can be encoded according to its type
+                    final String parameter = i == 1
+                            ? extractListFromLoop(variableToAssignTo, context.currentScope(), forBlock,
+                                                  inferType(columnArg))
+                            : extractArrayFromLoop(variableToAssignTo, context.currentScope(), forBlock,
+                                                   inferType(columnArg));
 
                     if (i == 0) { // vars
                         vars.add(parameter);
                     } else if (i == 1) { // domain
                         domain.add(parameter);
+                        nodeTables.add(columnArg.getTableName());
                     } else if (i == 2) { // demands
                         demands.add(parameter);
                     } else { // capacities
                         capacities.add(parameter);
+                        nodeTables.add(columnArg.getTableName());
                     }
                 }
             }
@@ -1212,9 +1761,21 @@ public class OrToolsSolver implements ISolverBackend {
         final String domainParameterStr = domain.iterator().next();
         final String demandsParameterStr = String.join(", ", demands);
         final String capacitiesParameterStr = String.join(", ", capacities);
-        block.addBody(CodeBlock.of("o.capacityConstraint($L, $L, $T.of($L), $T.of($L));",
+        // Nodes are ordered by load in an index that is kept in a field of the generated class, and updated
+        // incrementally from one solve to the next. The domain and capacities are all the rows of the tables
+        // they are read from, so if those are input tables, their data versions tell whether the nodes changed.
+        final String nodeLoadsStr = tableNameStr(viewName) + "NodeLoads";
+        generatedFields.add(FieldSpec.builder(NodeLoadIndex.class, nodeLoadsStr, Modifier.PRIVATE, Modifier.FINAL)
+                                     .initializer("new $T()", NodeLoadIndex.class)
+                                     .build());
+        final CodeBlock dataVersion = nodeTables.stream().allMatch(tableToFieldToType::containsKey)
+                ? nodeTables.stream()
+                            .map(table -> CodeBlock.of("context.getTable($S).getDataVersion()", table))
+                            .collect(CodeBlock.joining(" + "))
+                : CodeBlock.of("$T.UNKNOWN_VERSION", NodeLoadIndex.class);
+        block.addBody(CodeBlock.of("o.capacityConstraint($L, $L, new int[][] {$L}, new int[][] {$L}, $L, $L);",
                                   varsParameterStr, domainParameterStr,
-                                  List.class, demandsParameterStr, List.class, capacitiesParameterStr));
+                                  demandsParameterStr, capacitiesParameterStr, nodeLoadsStr, dataVersion));
         return block;
     }
 
@@ -1259,8 +1820,6 @@ public class OrToolsSolver implements ISolverBackend {
             final String argumentType = inferType(node.getArgument().get(0));
             final boolean argumentIsIntVar = argumentType.equals("IntVar");
 
-            final String listOfProcessedItem =
-                    extractListFromLoop(processedArgument, context.currentScope(), forLoop, argumentType);
             String function;
             switch (node.getFunction()) {
                 case SUM:
@@ -1286,17 +1845,22 @@ public class OrToolsSolver implements ISolverBackend {
                     function = String.format("minV%s", argumentType);
                     break;
                 case ALL_EQUAL:
-                    function = "allEqual";
-                    break;
+                    final String listOfProcessedItem =
+                            extractListFromLoop(processedArgument, context.currentScope(), forLoop, argumentType);
+                    return CodeBlock.of("o.allEqual($L)", listOfProcessedItem).toString();
                 case INCREASING:
-                    context.currentScope().addBody(statement("o.increasing($L)", listOfProcessedItem));
+                    final String listOfIntVars =
+                            extractListFromLoop(processedArgument, context.currentScope(), forLoop, argumentType);
+                    context.currentScope().addBody(statement("o.increasing($L)", listOfIntVars));
                     return apply("model.newConstant(1)", context);
                 case ALL_DIFFERENT:
                 default:
                     throw new UnsupportedOperationException("Unsupported aggregate function " + node.getFunction());
             }
             Preconditions.checkNotNull(function);
-            return CodeBlock.of("o.$L($L)", function, listOfProcessedItem).toString();
+            final String arrayOfProcessedItem =
+                    extractArrayFromLoop(processedArgument, context.currentScope(), forLoop, argumentType);
+            return CodeBlock.of("o.$L($L)", function, arrayOfProcessedItem).toString();
         }
 
         @Nullable
@@ -1314,6 +1878,10 @@ public class OrToolsSolver implements ISolverBackend {
             final String type = inferType(node.getArgument());
             final String processedArgument = visit(node.getArgument(), context);
             Preconditions.checkArgument(!type.equals("IntVar"));
+            if (node.getArgument() instanceof ColumnIdentifier
+                    && isPrimitiveColumn(((ColumnIdentifier) node.getArgument()).getField())) {
+                return apply("false", context);
+            }
             return apply(String.format("%s == null", processedArgument), context);
         }
 
@@ -1325,6 +1893,10 @@ public class OrToolsSolver implements ISolverBackend {
             final String type = inferType(node.getArgument());
             final String processedArgument = visit(node.getArgument(), context);
             Preconditions.checkArgument(!type.equals("IntVar"));
+            if (node.getArgument() instanceof ColumnIdentifier
+                    && isPrimitiveColumn(((ColumnIdentifier) node.getArgument()).getField())) {
+                return apply("true", context);
+            }
             return apply(String.format("%s != null", processedArgument), context);
         }
 
@@ -1635,9 +2207,9 @@ public class OrToolsSolver implements ISolverBackend {
             context.leaveScope();
             final String argumentType = inferType(node);
             final String function = argumentType.equals("IntVar") ? "sumV" : "sum";
-            final String listOfProcessedItem =
-                    extractListFromLoop(processedArgument, context.currentScope(), forLoop, argumentType);
-            return CodeBlock.of("o.$L($L)", function, listOfProcessedItem).toString();
+            final String arrayOfProcessedItem =
+                    extractArrayFromLoop(processedArgument, context.currentScope(), forLoop, argumentType);
+            return CodeBlock.of("o.$L($L)", function, arrayOfProcessedItem).toString();
         }
 
         /**
@@ -1653,11 +2225,18 @@ public class OrToolsSolver implements ISolverBackend {
             final String coefficientsItem = Objects.requireNonNull(visit(coefficients,
                                                                          context.withEnterFunctionContext()));
             context.leaveScope();
-            final String listOfVariablesItem =
-                    extractListFromLoop(variablesItem, outerBlock, forLoop, "IntVar");
-            final String listOfCoefficientsItem =
-                    extractListFromLoop(coefficientsItem, outerBlock, forLoop, coefficientsType);
-            return CodeBlock.of("o.scalProd($L, $L)", listOfVariablesItem, listOfCoefficientsItem).toString();
+            if (!coefficientsType.equals("Integer")) {
+                final String listOfVariablesItem =
+                        extractListFromLoop(variablesItem, outerBlock, forLoop, "IntVar");
+                final String listOfCoefficientsItem =
+                        extractListFromLoop(coefficientsItem, outerBlock, forLoop, coefficientsType);
+                return CodeBlock.of("o.scalProd($L, $L)", listOfVariablesItem, listOfCoefficientsItem).toString();
+            }
+            final String arrayOfVariablesItem =
+                    extractArrayFromLoop(variablesItem, outerBlock, forLoop, "IntVar");
+            final String arrayOfCoefficientsItem =
+                    extractArrayFromLoop(coefficientsItem, outerBlock, forLoop, coefficientsType);
+            return CodeBlock.of("o.scalProd($L, $L)", arrayOfVariablesItem, arrayOfCoefficientsItem).toString();
         }
     }
 
@@ -1678,14 +2257,50 @@ public class OrToolsSolver implements ISolverBackend {
         // those loop blocks have a valid size. Use this for pre-allocating lists.
         final String maybeGuessSize = innerBlock instanceof OutputIR.ForBlock ?
                 ((OutputIR.ForBlock) innerBlock).getSize() : "";
-        final boolean wasAdded = outerBlock.addHeader(statement("final List<$L> listOf$L = new $T<>($L)",
-                variableType, variableToExtract, ArrayList.class, maybeGuessSize));
+        final boolean wasAdded = outerBlock.addHeader(statement("final $T<$L> listOf$L = new $T<>($L)",
+                List.class, variableType, variableToExtract, ArrayList.class, maybeGuessSize));
         if (wasAdded) {
             innerBlock.addBody(statement("$L.add($L)", listName, variableToExtract));
         }
         return listName;
     }
 
+    /**
+     * Like extractListFromLoop(), but collects IntVars, ints and longs into a primitive ArrayBuffer instead of
+     * a list of boxed values. Falls back to a list for other types.
+     *
+     * @return an expression that yields an array of the extracted values (or the list, for other types)
+     */
+    private String extractArrayFromLoop(final String variableToExtract, final OutputIR.Block outerBlock,
+                                        final OutputIR.Block innerBlock, final String variableType) {
+        final Class<?> bufferType;
+        switch (variableType) {
+            case "IntVar":
+                bufferType = ArrayBuffer.OfIntVar.class;
+                break;
+            case "Integer":
+                bufferType = ArrayBuffer.OfInt.class;
+                break;
+            case "Long":
+                bufferType = ArrayBuffer.OfLong.class;
+                break;
+            default:
+                return extractListFromLoop(variableToExtract, outerBlock, innerBlock, variableType);
+        }
+        final String bufferName = "arrayOf" + variableToExtract;
+        // Loop blocks may have a valid size, which is an upper bound on the number of extracted values.
+        // Buffers grow as needed otherwise.
+        final String maybeGuessSize = innerBlock instanceof OutputIR.ForBlock ?
+                ((OutputIR.ForBlock) innerBlock).getSize() : "";
+        final String size = maybeGuessSize.isEmpty() ? "10" : maybeGuessSize;
+        final boolean wasAdded = outerBlock.addHeader(statement("final $T $L = new $T($L)",
+                bufferType, bufferName, bufferType, size));
+        if (wasAdded) {
+            innerBlock.addBody(statement("$L.add($L)", bufferName, variableToExtract));
+        }
+        return bufferName + ".toArray()";
+    }
+
     /**
      * Used to extract a variable computed within each iteration of a loop into a list for later use (for
      * example, aggregate functions).
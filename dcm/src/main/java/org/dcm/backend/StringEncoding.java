@@ -6,16 +6,52 @@
 
 package org.dcm.backend;
 
-import java.util.HashMap;
+import javax.annotation.Nullable;
+import java.util.Arrays;
 
+/**
+ * Interns strings as dense integer codes, starting at 1, so that they can be used as values of solver variables.
+ * Null is reserved the code 0.
+ *
+ * An instance is shared across solves by a generated backend, so that strings that are seen every round (e.g.,
+ * node names) are only interned once. Each solve starts a new epoch. If, at that point, more than half of the
+ * interned strings went unused during the previous epoch, those strings are evicted and their codes are later
+ * reused, which keeps the table bounded by the strings in use rather than by every string ever seen. Codes are
+ * therefore only stable within an epoch, and for strings that are used in every epoch; callers that hold on to
+ * codes across epochs either mark them as used, or compare getVersion() to detect evictions.
+ *
+ * The forward lookup is an open-addressing hash table with linear probing over primitive arrays, and the reverse
+ * lookup is an array indexed by code, so neither direction boxes its keys or values. All methods are thread-safe.
+ */
 public class StringEncoding {
-    private static final int DEFAULT_CAPACITY = 10000;
-    private long counter = 0;
-    private final HashMap<String, Long> strToLongMap = new HashMap<>(DEFAULT_CAPACITY);
-    private final HashMap<Long, String> longToStrMap = new HashMap<>(DEFAULT_CAPACITY);
+    static final long NULL_CODE = 0;
+    private static final int DEFAULT_CAPACITY = 16384; // must be a power of two
+    private static final int EMPTY = 0;
+    private int counter = 0;
+    private String[] keys = new String[DEFAULT_CAPACITY];
+    private int[] codes = new int[DEFAULT_CAPACITY];
+    private String[] strings = new String[DEFAULT_CAPACITY / 2 + 1];
+    private int[] lastUsed = new int[DEFAULT_CAPACITY / 2 + 1];
+    private int[] freeCodes = new int[0];
+    private int numFree = 0;
+    private int epoch = 0;
+    private int numUsed = 0;
+    private long version = 0;
 
-    public long toLong(final String str) {
-        return strToLongMap.computeIfAbsent(str, this::update);
+    public synchronized long toLong(@Nullable final String str) {
+        if (str == null) {
+            return NULL_CODE;
+        }
+        final int mask = keys.length - 1;
+        int slot = mix(str.hashCode()) & mask;
+        while (codes[slot] != EMPTY) {
+            if (keys[slot].equals(str)) {
+                markUsed(codes[slot]);
+                return codes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return update(str, slot);
     }
 
     // Pass through
@@ -23,13 +59,124 @@ public class StringEncoding {
         return i;
     }
 
-    public String toStr(final long i) {
-        return longToStrMap.get(i);
+    @Nullable
+    public synchronized String toStr(final long i) {
+        return i > 0 && i <= counter ? strings[(int) i] : null;
+    }
+
+    /**
+     * Marks the strings with the given codes as used in the current epoch, as if they were looked up again.
+     * Codes that are not currently assigned are ignored.
+     */
+    public synchronized void markUsed(final long[] values) {
+        for (final long value : values) {
+            if (value > 0 && value <= counter && strings[(int) value] != null) {
+                markUsed((int) value);
+            }
+        }
+    }
+
+    /**
+     * Starts a new epoch, first evicting the strings that went unused during the previous one if they make up
+     * more than half of the table.
+     */
+    public synchronized void newEpoch() {
+        if (size() > 2 * numUsed) {
+            evictUnused();
+        }
+        epoch += 1;
+        numUsed = 0;
+    }
+
+    /**
+     * @return a version that changes every time strings are evicted, and with it, codes may be reassigned
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of strings currently interned
+     */
+    public synchronized int size() {
+        return counter - numFree;
+    }
+
+    private void markUsed(final int code) {
+        if (lastUsed[code] != epoch) {
+            lastUsed[code] = epoch;
+            numUsed += 1;
+        }
+    }
+
+    private int update(final String str, final int slot) {
+        final int code;
+        if (numFree > 0) {
+            numFree -= 1;
+            code = freeCodes[numFree];
+        } else {
+            counter += 1;
+            code = counter;
+            if (counter >= strings.length) {
+                strings = Arrays.copyOf(strings, strings.length * 2);
+                lastUsed = Arrays.copyOf(lastUsed, lastUsed.length * 2);
+            }
+        }
+        keys[slot] = str;
+        codes[slot] = code;
+        strings[code] = str;
+        lastUsed[code] = epoch;
+        numUsed += 1;
+        // Keep the load factor at or below one half
+        if (size() * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return code;
+    }
+
+    private void evictUnused() {
+        final int[] newFreeCodes = new int[counter];
+        int newNumFree = 0;
+        for (int code = counter; code >= 1; code--) {
+            if (strings[code] == null || lastUsed[code] != epoch) {
+                strings[code] = null;
+                newFreeCodes[newNumFree] = code;
+                newNumFree += 1;
+            }
+        }
+        // Free codes are handed out from the end of the array, lowest first
+        freeCodes = newFreeCodes;
+        numFree = newNumFree;
+        version += 1;
+        rehash(keys.length);
+    }
+
+    private void rehash(final int capacity) {
+        final String[] newKeys = new String[capacity];
+        final int[] newCodes = new int[capacity];
+        final int mask = capacity - 1;
+        for (int code = 1; code <= counter; code++) {
+            final String str = strings[code];
+            if (str == null) {
+                continue;
+            }
+            int slot = mix(str.hashCode()) & mask;
+            while (newCodes[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            newKeys[slot] = str;
+            newCodes[slot] = code;
+        }
+        keys = newKeys;
+        codes = newCodes;
     }
 
-    final long update(final String str) {
-        counter += 1;
-        longToStrMap.put(counter, str);
-        return counter;
+    /**
+     * Spreads the bits of String.hashCode(), whose low bits are often similar for strings like "node-1",
+     * "node-2", etc., so that they do not cluster when probing.
+     */
+    private static int mix(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
-}
\ No newline at end of file
+}
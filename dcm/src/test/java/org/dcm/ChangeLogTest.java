@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.jooq.impl.DSL.using;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChangeLogTest {
+
+    @Test
+    public void testChangesAreAppliedToColumns() {
+        final DSLContext conn = setup();
+        final Table<? extends Record> table = trackedTable(conn);
+        final ChangeLog changeLog = ChangeLog.install(conn, Collections.singletonList(irTable(table)));
+        assertTrue(changeLog.isTracked(table));
+        conn.execute("insert into t1 values (1, 'a', 10), (2, 'b', null), (3, 'a', 30)");
+
+        changeLog.consume();
+        final ColumnValues[] initial = changeLog.fetchIfChanged(table);
+        assertNotNull(initial);
+        assertSameRows(readAll(conn, table), initial);
+
+        // Nothing changed
+        changeLog.consume();
+        assertNull(changeLog.fetchIfChanged(table));
+
+        // Updating a single column leaves the other columns untouched
+        conn.execute("update t1 set c3 = 20 where c1 = 2");
+        changeLog.consume();
+        final ColumnValues[] updated = changeLog.fetchIfChanged(table);
+        assertNotNull(updated);
+        assertSameRows(readAll(conn, table), updated);
+        assertSame(initial[0], updated[0]);
+        assertSame(initial[1], updated[1]);
+        assertFalse(initial[2].equals(updated[2]));
+
+        // Deletes, inserts, key changes and strings that are no longer in use
+        conn.execute("delete from t1 where c1 = 1");
+        conn.execute("insert into t1 values (4, 'c', null)");
+        conn.execute("update t1 set c1 = 5, c2 = 'd' where c1 = 3");
+        conn.execute("update t1 set c2 = 'd' where c1 = 2");
+        changeLog.consume();
+        assertSameRows(readAll(conn, table), changeLog.fetchIfChanged(table));
+
+        // Deleting and re-inserting a row within a round
+        conn.execute("delete from t1 where c1 = 4");
+        conn.execute("insert into t1 values (4, 'e', 40)");
+        changeLog.consume();
+        assertSameRows(readAll(conn, table), changeLog.fetchIfChanged(table));
+        changeLog.uninstall();
+    }
+
+    @Test
+    public void testRandomChanges() {
+        final DSLContext conn = setup();
+        final Table<? extends Record> table = trackedTable(conn);
+        final ChangeLog changeLog = ChangeLog.install(conn, Collections.singletonList(irTable(table)));
+        final Random random = new Random(42);
+        changeLog.consume();
+        changeLog.fetchIfChanged(table);
+        for (int round = 0; round < 50; round++) {
+            for (int change = 0; change < 10; change++) {
+                final int key = random.nextInt(20);
+                final String name = "n" + random.nextInt(5);
+                final Integer value = random.nextBoolean() ? null : random.nextInt(3);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        conn.execute("merge into t1 key (c1) values ({0}, {1}, {2})", key, name, value);
+                        break;
+                    case 1:
+                        conn.execute("update t1 set c2 = {0}, c3 = {1} where c1 = {2}", name, value, key);
+                        break;
+                    default:
+                        conn.execute("delete from t1 where c1 = {0}", key);
+                        break;
+                }
+            }
+            changeLog.consume();
+            final ColumnValues[] columns = changeLog.fetchIfChanged(table);
+            if (columns != null) {
+                assertSameRows(readAll(conn, table), columns);
+            }
+        }
+        changeLog.uninstall();
+    }
+
+    @Test
+    public void testUninstall() {
+        final DSLContext conn = setup();
+        final Table<? extends Record> table = trackedTable(conn);
+        final ChangeLog changeLog = ChangeLog.install(conn, Collections.singletonList(irTable(table)));
+        assertEquals(3, numTriggers(conn));
+        assertEquals(1, conn.meta().getTables().stream()
+                               .filter(t -> t.getName().startsWith(ChangeLog.LOG_TABLE_PREFIX)).count());
+
+        changeLog.uninstall();
+        assertFalse(changeLog.isTracked(table));
+        assertEquals(0, numTriggers(conn));
+        assertEquals(0, conn.meta().getTables().stream()
+                               .filter(t -> t.getName().startsWith(ChangeLog.LOG_TABLE_PREFIX)).count());
+
+        // Changes are no longer logged
+        conn.execute("insert into t1 values (1, 'a', 10)");
+    }
+
+    /**
+     * Rows may be kept in a different order than that of a full scan, so we compare them by key
+     */
+    private static void assertSameRows(final ColumnValues[] expected, final ColumnValues[] actual) {
+        assertNotNull(actual);
+        assertEquals(rowsByKey(expected), rowsByKey(actual));
+    }
+
+    private static Map<Object, List<Object>> rowsByKey(final ColumnValues[] columns) {
+        final Map<Object, List<Object>> rows = new HashMap<>();
+        for (int row = 0; row < columns[0].size(); row++) {
+            final List<Object> values = new ArrayList<>(columns.length);
+            for (final ColumnValues column : columns) {
+                values.add(column.get(row));
+            }
+            assertNull(rows.put(values.get(0), values));
+        }
+        return rows;
+    }
+
+    private static int numTriggers(final DSLContext conn) {
+        return conn.fetch("select * from information_schema.triggers").size();
+    }
+
+    private static Table<? extends Record> trackedTable(final DSLContext conn) {
+        conn.execute("create table t1 (c1 integer not null primary key, c2 varchar(10) not null, c3 integer)");
+        return conn.meta().getTables().stream()
+                   .filter(t -> t.getName().equals("T1"))
+                   .findFirst()
+                   .orElseThrow();
+    }
+
+    /**
+     * Builds an IRTable the way Model does
+     */
+    private static IRTable irTable(final Table<? extends Record> table) {
+        final IRTable irTable = new IRTable(table);
+        for (final Field<?> field : table.fields()) {
+            irTable.addField(new IRColumn(irTable, field));
+        }
+        irTable.setPrimaryKey(new IRPrimaryKey(irTable, table.getPrimaryKey()));
+        return irTable;
+    }
+
+    private static ColumnValues[] readAll(final DSLContext conn, final Table<? extends Record> table) {
+        try (final ResultSet resultSet = conn.selectFrom(table).fetchResultSet()) {
+            return ColumnValues.readAll(resultSet, table.fields());
+        } catch (final SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static DSLContext setup() {
+        try {
+            final Connection conn = DriverManager.getConnection("jdbc:h2:mem:");
+            final DSLContext using = using(conn, SQLDialect.H2);
+            using.execute("create schema curr");
+            using.execute("set schema curr");
+            return using;
+        } catch (final SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
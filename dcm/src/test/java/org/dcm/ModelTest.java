@@ -9,15 +9,21 @@ package org.dcm;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Sets;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import org.dcm.backend.ISolverBackend;
 import org.dcm.backend.MinizincSolver;
 import org.dcm.backend.OrToolsSolver;
+import org.dcm.compiler.monoid.MonoidComprehension;
 import org.jooq.DSLContext;
 import org.jooq.Record;
 import org.jooq.Result;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
 import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.File;
@@ -25,6 +31,8 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -877,6 +885,525 @@ public class ModelTest {
     }
 
 
+    @ParameterizedTest
+    @MethodSource("solvers")
+    public void testIncrementalUpdates(final SolverConfig solver) {
+        final String modelName = "testIncrementalUpdates";
+        final DSLContext conn = setup();
+        conn.execute("create table t1\n" +
+                "(\n" +
+                "  c1 integer not null primary key,\n" +
+                "  controllable__c2 integer not null \n" +
+                ")\n");
+        conn.execute("create table t2\n" +
+                "(\n" +
+                "  c1 integer not null primary key" +
+                ")");
+        final String pod_info_constant = "create view constraint_ex as\n" +
+                " select * from t1 join t2 on t1.c1 = t2.c1" +
+                " where controllable__c2 = t1.c1";
+        conn.execute("insert into t1 values (1, 1)");
+        conn.execute("insert into t1 values (2, 1)");
+        conn.execute("insert into t1 values (3, 1)");
+        conn.execute("insert into t2 values (1)");
+        conn.execute("insert into t2 values (2)");
+        final Model model = buildModel(conn, solver, Collections.singletonList(pod_info_constant), modelName);
+        model.enableIncrementalUpdates();
+        model.updateData();
+        model.solveModel();
+        final Result<Record> t1 = conn.selectFrom("t1").fetch();
+        assertEquals(1, t1.get(0).get("CONTROLLABLE__C2"));
+        assertEquals(2, t1.get(1).get("CONTROLLABLE__C2"));
+
+        // t2 is only re-read through the change-log from here on
+        conn.execute("update t1 set controllable__c2 = 1");
+        conn.execute("insert into t2 values (3)");
+        conn.execute("delete from t2 where c1 = 1");
+        model.updateData();
+        model.solveModel();
+        final Result<Record> t1Updated = conn.selectFrom("t1").fetch();
+        assertEquals(2, t1Updated.get(1).get("CONTROLLABLE__C2"));
+        assertEquals(3, t1Updated.get(2).get("CONTROLLABLE__C2"));
+
+        // Tables are read in full again once incremental updates are disabled
+        model.disableIncrementalUpdates();
+        conn.execute("insert into t2 values (1)");
+        model.updateData();
+        model.solveModel();
+        assertEquals(1, conn.selectFrom("t1").fetch().get(0).get("CONTROLLABLE__C2"));
+    }
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testModelCache(@TempDir final File cacheDirectory) {
+        final String constraint = "create view constraint_ex as\n" +
+                " select * from t1 join t2 on t1.c1 = t2.c1" +
+                " where controllable__c2 = t1.c1";
+        // The first model is compiled and stored, the second one is loaded from the cache, and the third one
+        // is compiled again because a change to the solver's configuration changes the generated code
+        final int[] numThreads = {1, 1, 2};
+        final boolean[] expectCacheHit = {false, true, false};
+        final int[] expectCachedModels = {1, 1, 2};
+        for (int run = 0; run < numThreads.length; run++) {
+            final DSLContext conn = setup();
+            conn.execute("create table t1\n" +
+                    "(\n" +
+                    "  c1 integer not null primary key,\n" +
+                    "  controllable__c2 integer not null \n" +
+                    ")\n");
+            conn.execute("create table t2\n" +
+                    "(\n" +
+                    "  c1 integer not null primary key" +
+                    ")");
+            conn.execute("insert into t1 values (1, 1)");
+            conn.execute("insert into t1 values (2, 1)");
+            conn.execute("insert into t1 values (3, 1)");
+            conn.execute("insert into t2 values (" + (run + 1) + ")");
+            final CountingBackend backend = new CountingBackend(new OrToolsSolver.Builder()
+                                                                    .setNumThreads(numThreads[run])
+                                                                    .setModelCacheDirectory(cacheDirectory)
+                                                                    .build());
+            final Model model = Model.buildModel(conn, backend, Collections.singletonList(constraint));
+            assertEquals(expectCacheHit[run], backend.cacheHit);
+            assertEquals(expectCacheHit[run] ? 0 : 1, backend.numCompilations);
+            final String[] cachedModels = cacheDirectory.list();
+            assertTrue(cachedModels != null && cachedModels.length == expectCachedModels[run]);
+
+            model.updateData();
+            model.solveModel();
+            final Result<Record> t1 = conn.selectFrom("t1").fetch();
+            assertEquals(run + 1, t1.get(run).get("CONTROLLABLE__C2"));
+        }
+    }
+
+    /**
+     * Counts how often a backend generates a model, as opposed to loading it from a cache
+     */
+    private static final class CountingBackend implements ISolverBackend {
+        private final ISolverBackend backend;
+        private boolean cacheHit = false;
+        private int numCompilations = 0;
+
+        private CountingBackend(final ISolverBackend backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public Map<IRTable, Result<? extends Record>> runSolver(final DSLContext dbCtx,
+                                                                final Map<String, IRTable> irTables) {
+            return backend.runSolver(dbCtx, irTables);
+        }
+
+        @Override
+        public List<String> generateModelCode(final IRContext context,
+                                              final Map<String, MonoidComprehension> nonConstraintViews,
+                                              final Map<String, MonoidComprehension> constraintViews,
+                                              final Map<String, MonoidComprehension> objectiveFunctions) {
+            numCompilations++;
+            return backend.generateModelCode(context, nonConstraintViews, constraintViews, objectiveFunctions);
+        }
+
+        @Override
+        public List<String> generateDataCode(final IRContext context) {
+            return backend.generateDataCode(context);
+        }
+
+        @Override
+        public boolean needsGroupTables() {
+            return backend.needsGroupTables();
+        }
+
+        @Override
+        public boolean loadCachedModel(final String modelHash) {
+            cacheHit = backend.loadCachedModel(modelHash);
+            return cacheHit;
+        }
+    }
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testRepeatedSolves() {
+        final DSLContext conn = setup();
+        conn.execute("create table t1\n" +
+                "(\n" +
+                "  c1 integer not null primary key,\n" +
+                "  controllable__c2 integer not null \n" +
+                ")\n");
+        conn.execute("create table t2\n" +
+                "(\n" +
+                "  c1 integer not null primary key" +
+                ")");
+        final String constraint = "create view constraint_ex as\n" +
+                " select * from t1 join t2 on t1.c1 = t2.c1" +
+                " where controllable__c2 = t1.c1";
+        conn.execute("insert into t1 values (1, 1)");
+        conn.execute("insert into t1 values (2, 1)");
+        conn.execute("insert into t2 values (2)");
+        final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder().build();
+        final Model model = Model.buildModel(conn, orToolsSolver, Collections.singletonList(constraint));
+
+        // State that the generated backend retains across solves does not affect the solution
+        model.updateData();
+        final Result<? extends Record> first = model.solveModelWithoutTableUpdates(Set.of("T1")).get("T1");
+        assertEquals(2, first.get(1).get("CONTROLLABLE__C2"));
+        model.updateData();
+        final Result<? extends Record> second = model.solveModelWithoutTableUpdates(Set.of("T1")).get("T1");
+        assertEquals(2, second.get(1).get("CONTROLLABLE__C2"));
+
+        // Changes to the data are reflected in the next solve
+        conn.execute("delete from t2");
+        conn.execute("insert into t2 values (1)");
+        model.updateData();
+        final Result<? extends Record> third = model.solveModelWithoutTableUpdates(Set.of("T1")).get("T1");
+        assertEquals(1, third.get(0).get("CONTROLLABLE__C2"));
+    }
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testSolutionHints() {
+        final DSLContext conn = setup();
+        conn.execute("create table nodes\n" +
+                "(\n" +
+                "  name varchar(36) not null primary key" +
+                ")");
+        conn.execute("create table pods\n" +
+                "(\n" +
+                "  pod_name varchar(36) not null primary key,\n" +
+                "  controllable__node_name varchar(36),\n" +
+                "  controllable__priority integer,\n" +
+                "  foreign key(controllable__node_name) references nodes(name)\n" +
+                ")\n");
+        final String constraint = "create view constraint_priority as\n" +
+                " select * from pods where controllable__priority >= 0 and controllable__priority <= 5";
+        conn.execute("insert into nodes values ('n1')");
+        conn.execute("insert into nodes values ('n2')");
+        conn.execute("insert into pods values ('p1', 'n2', 3)");
+        conn.execute("insert into pods values ('p2', null, null)");
+        final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder().setUseSolutionHints(true).build();
+        final Model model = Model.buildModel(conn, orToolsSolver, Collections.singletonList(constraint));
+
+        // Rows with and without previous values both get assigned
+        model.updateData();
+        final Result<? extends Record> pods = model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS");
+        assertEquals(2, pods.size());
+        for (final Record pod : pods) {
+            assertTrue(Set.of("n1", "n2").contains(pod.get("CONTROLLABLE__NODE_NAME", String.class)));
+            final int priority = pod.get("CONTROLLABLE__PRIORITY", Integer.class);
+            assertTrue(priority >= 0 && priority <= 5);
+        }
+    }
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testForeignKeyDomainAcrossSolves() {
+        final DSLContext conn = setup();
+        conn.execute("create table nodes\n" +
+                "(\n" +
+                "  name varchar(36) not null primary key" +
+                ")");
+        conn.execute("create table pods\n" +
+                "(\n" +
+                "  pod_name varchar(36) not null primary key,\n" +
+                "  controllable__node_name varchar(36),\n" +
+                "  foreign key(controllable__node_name) references nodes(name)\n" +
+                ")\n");
+        final String constraint = "create view constraint_not_n1 as\n" +
+                " select * from pods where controllable__node_name != 'n1'";
+        conn.execute("insert into nodes values ('n1')");
+        conn.execute("insert into nodes values ('n2')");
+        conn.execute("insert into pods values ('p1', null)");
+        final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder().build();
+        final Model model = Model.buildModel(conn, orToolsSolver, Collections.singletonList(constraint));
+
+        model.updateData();
+        final Result<? extends Record> first = model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS");
+        assertEquals("n2", first.get(0).get("CONTROLLABLE__NODE_NAME"));
+
+        // The cached domain of the foreign key is recomputed once the parent table changes
+        conn.execute("insert into nodes values ('n3')");
+        conn.execute("delete from nodes where name = 'n2'");
+        model.updateData();
+        final Result<? extends Record> second = model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS");
+        assertEquals("n3", second.get(0).get("CONTROLLABLE__NODE_NAME"));
+
+        // Solves that reuse the cached domain keep its strings from being evicted by the encoder
+        conn.execute("insert into nodes values ('n4'), ('n5')");
+        for (int i = 0; i < 3; i++) {
+            model.updateData();
+            final Result<? extends Record> next = model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS");
+            assertTrue(Set.of("n3", "n4", "n5").contains(next.get(0).get("CONTROLLABLE__NODE_NAME", String.class)));
+        }
+    }
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testInferredDomainAcrossSolves() {
+        final DSLContext conn = setup();
+        conn.execute("create table available_nodes\n" +
+                "(\n" +
+                "  name varchar(36) not null primary key" +
+                ")");
+        conn.execute("create table reserved_nodes\n" +
+                "(\n" +
+                "  name varchar(36) not null primary key" +
+                ")");
+        conn.execute("create table pods\n" +
+                "(\n" +
+                "  pod_name varchar(36) not null primary key,\n" +
+                "  controllable__node_name varchar(36)\n" +
+                ")\n");
+        // The first view becomes the domain of every pod's variable. The second only restricts p2, and is
+        // still enforced as a constraint.
+        final String available = "create view constraint_available as\n" +
+                " select * from pods where controllable__node_name in (select name from available_nodes)";
+        final String reserved = "create view constraint_reserved as\n" +
+                " select * from pods where pod_name = 'p1' or\n" +
+                "                          controllable__node_name in (select name from reserved_nodes)";
+        conn.execute("insert into available_nodes values ('n1')");
+        conn.execute("insert into available_nodes values ('n2')");
+        conn.execute("insert into reserved_nodes values ('n2')");
+        conn.execute("insert into reserved_nodes values ('n3')");
+        conn.execute("insert into pods values ('p1', null)");
+        conn.execute("insert into pods values ('p2', null)");
+        final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder().build();
+        final Model model = Model.buildModel(conn, orToolsSolver, List.of(available, reserved));
+
+        model.updateData();
+        final Result<? extends Record> first = model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS");
+        final Map<String, String> firstAssignment = new HashMap<>();
+        first.forEach(r -> firstAssignment.put(r.get("POD_NAME", String.class),
+                                               r.get("CONTROLLABLE__NODE_NAME", String.class)));
+        assertTrue(Set.of("n1", "n2").contains(firstAssignment.get("p1")));
+        assertEquals("n2", firstAssignment.get("p2"));
+
+        // The inferred domain is recomputed once the table it was inferred from changes
+        conn.execute("delete from available_nodes where name = 'n1'");
+        conn.execute("insert into available_nodes values ('n3')");
+        conn.execute("delete from available_nodes where name = 'n2'");
+        model.updateData();
+        final Result<? extends Record> second = model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS");
+        second.forEach(r -> assertEquals("n3", r.get("CONTROLLABLE__NODE_NAME")));
+    }
+
+    /**
+     * Equi-joins between input columns are evaluated with hash indexes rather than nested loops. Rows of t1 that
+     * take part in the join are pinned to 0, and all others are maximized to 1, so the solution tells us exactly
+     * which rows the generated code joined. These have to be the same rows that a nested-loop join, as evaluated
+     * by the database, finds.
+     */
+    @ParameterizedTest
+    @MethodSource("hashJoins")
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testHashJoins(final String joinClause, final String t1Alias) {
+        final DSLContext conn = setup();
+        conn.execute("create table t1\n" +
+                "(\n" +
+                "  id integer not null primary key,\n" +
+                "  k1 varchar(10),\n" +
+                "  k2 integer,\n" +
+                "  controllable__c integer\n" +
+                ")\n");
+        conn.execute("create table t2\n" +
+                "(\n" +
+                "  id integer not null primary key,\n" +
+                "  k1 varchar(10),\n" +
+                "  k2 integer\n" +
+                ")\n");
+        conn.execute("insert into t1 values (1, 'a', 1, null), (2, 'a', 2, null), (3, 'b', 1, null), " +
+                     "(4, null, 1, null), (5, 'a', null, null), (6, 'c', 3, null), (7, null, null, null)");
+        conn.execute("insert into t2 values (1, 'a', 1), (2, 'b', 2), (3, null, 1), (4, 'a', null), " +
+                     "(5, 'd', 3), (6, null, null)");
+        final String domain = "create view constraint_domain as\n" +
+                " select * from t1 where controllable__c >= 0 and controllable__c <= 1";
+        final String join = "create view constraint_join as\n" +
+                " select * from " + joinClause + " where " + t1Alias + ".controllable__c = 0";
+        final String objective = "create view objective_unjoined as\n" +
+                " select sum(controllable__c) as total from t1";
+        final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder().build();
+        final Model model = Model.buildModel(conn, orToolsSolver, List.of(domain, join, objective));
+        model.updateData();
+        final Result<? extends Record> t1 = model.solveModelWithoutTableUpdates(Set.of("T1")).get("T1");
+
+        final Set<Integer> expected = new HashSet<>(conn.fetch("select distinct " + t1Alias + ".id from " +
+                                                               joinClause).getValues(0, Integer.class));
+        final Set<Integer> joined = new HashSet<>();
+        t1.forEach(r -> {
+            if (r.get("CONTROLLABLE__C", Integer.class) == 0) {
+                joined.add(r.get("ID", Integer.class));
+            }
+        });
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, joined);
+    }
+
+    static Stream<Arguments> hashJoins() {
+        return Stream.of(Arguments.of("t1 join t2 on t1.k2 = t2.k2", "t1"),
+                         // Aliased tables
+                         Arguments.of("t1 as A join t2 as B on A.k2 = B.k2", "A"),
+                         // Self-joins
+                         Arguments.of("t1 join t1 as A on t1.k1 = A.k1 and t1.id != A.id", "t1"),
+                         Arguments.of("t1 as A join t1 as B on B.k2 = A.k2 and A.id != B.id", "B"),
+                         // Multi-column keys
+                         Arguments.of("t1 join t2 on t1.k1 = t2.k1 and t1.k2 = t2.k2", "t1"),
+                         // Null keys on both sides, with the inner table on the left of the predicate
+                         Arguments.of("t1 join t2 on t2.k1 = t1.k1", "t1"));
+    }
+
+    /*
+     * In a constraint view, an equality in the where clause is the constraint itself, and not a join. It has to
+     * hold for every pair of rows, so pairs that do not match make the model infeasible instead of being skipped.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testWherePredicatesInConstraintsAreNotJoins() {
+        final DSLContext conn = setup();
+        conn.execute("create table t1\n" +
+                "(\n" +
+                "  id integer not null primary key,\n" +
+                "  x integer not null,\n" +
+                "  controllable__c integer\n" +
+                ")\n");
+        conn.execute("create table t2\n" +
+                "(\n" +
+                "  id integer not null primary key,\n" +
+                "  y integer not null\n" +
+                ")\n");
+        conn.execute("insert into t1 values (1, 1, null), (2, 2, null)");
+        conn.execute("insert into t2 values (1, 1)");
+        final String constraint = "create view constraint_all_equal as\n" +
+                " select * from t1, t2 where t1.x = t2.y and t1.controllable__c = 1";
+        final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder().build();
+        final Model model = Model.buildModel(conn, orToolsSolver, List.of(constraint));
+        model.updateData();
+        assertThrows(ModelException.class, () -> model.solveModelWithoutTableUpdates(Set.of("T1")));
+
+        // Once every pair matches, the constraint holds
+        conn.execute("update t1 set x = 1");
+        model.updateData();
+        final Result<? extends Record> t1 = model.solveModelWithoutTableUpdates(Set.of("T1")).get("T1");
+        t1.forEach(r -> assertEquals(1, r.get("CONTROLLABLE__C", Integer.class)));
+    }
+
+    /*
+     * The OR-tools backend reads input columns directly from their columnar values. Tables without controllable
+     * columns are still returned as records, if asked for.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testInputColumnsOfEachType() {
+        final DSLContext conn = setup();
+        conn.execute("create table nodes\n" +
+                "(\n" +
+                "  name varchar(36) not null primary key,\n" +
+                "  cpu bigint not null,\n" +
+                "  enabled boolean not null,\n" +
+                "  zone integer\n" +
+                ")");
+        conn.execute("create table pods\n" +
+                "(\n" +
+                "  pod_name varchar(36) not null primary key,\n" +
+                "  controllable__node_name varchar(36),\n" +
+                "  foreign key(controllable__node_name) references nodes(name)\n" +
+                ")\n");
+        conn.execute("insert into nodes values ('n1', 10, true, 1), ('n2', 10, false, 1), " +
+                     "('n3', 10, true, null), ('n4', 2, true, 2)");
+        conn.execute("insert into pods values ('p1', null), ('p2', 'n2')");
+        final String eligible = "create view constraint_eligible as\n" +
+                " select * from pods where controllable__node_name in\n" +
+                "   (select name from nodes where enabled = true and zone is not null and cpu >= 5)";
+        final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder().build();
+        final Model model = Model.buildModel(conn, orToolsSolver, List.of(eligible));
+        model.updateData();
+        final Map<String, Result<? extends Record>> results =
+                model.solveModelWithoutTableUpdates(Set.of("PODS", "NODES"));
+        final Result<? extends Record> pods = results.get("PODS");
+        assertEquals(2, pods.size());
+        pods.forEach(r -> assertEquals("n1", r.get("CONTROLLABLE__NODE_NAME")));
+        assertEquals(conn.fetch("select name from nodes").intoSet(0, String.class),
+                     results.get("NODES").intoSet("NAME", String.class));
+
+        // The current values of controllable columns are only used as hints
+        conn.execute("update pods set controllable__node_name = 'n4'");
+        model.updateData();
+        final Result<? extends Record> again = model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS");
+        again.forEach(r -> assertEquals("n1", r.get("CONTROLLABLE__NODE_NAME")));
+    }
+
+    /*
+     * Correlated sub-queries that equate a column of the outer table with one of the inner table look up the
+     * matching rows of the inner table, instead of scanning it for every row of the outer table.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testCorrelatedSubqueryHashJoin() {
+        final DSLContext conn = setup();
+        conn.execute("create table t1\n" +
+                "(\n" +
+                "  id integer not null primary key,\n" +
+                "  k1 varchar(10) not null,\n" +
+                "  controllable__c integer\n" +
+                ")\n");
+        conn.execute("create table t2\n" +
+                "(\n" +
+                "  k1 varchar(10) not null,\n" +
+                "  v integer not null\n" +
+                ")\n");
+        conn.execute("insert into t1 values (1, 'a', null), (2, 'b', null), (3, 'a', null), (4, 'c', null)");
+        conn.execute("insert into t2 values ('a', 1), ('a', 2), ('b', 3), ('c', 4), ('c', 5), ('d', 6)");
+        final String candidates = "create view constraint_candidates as\n" +
+                " select * from t1 where controllable__c in (select v from t2 where t2.k1 = t1.k1)";
+        final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder().build();
+        final Model model = Model.buildModel(conn, orToolsSolver, List.of(candidates));
+        model.updateData();
+        final Result<? extends Record> t1 = model.solveModelWithoutTableUpdates(Set.of("T1")).get("T1");
+
+        assertEquals(4, t1.size());
+        t1.forEach(r -> {
+            final Set<Integer> expected = new HashSet<>(conn.fetch("select v from t2 where k1 = ?",
+                                                                   r.get("K1", String.class))
+                                                            .getValues(0, Integer.class));
+            assertTrue(expected.contains(r.get("CONTROLLABLE__C", Integer.class)));
+        });
+    }
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
+    public void testBuildViewsInParallel() {
+        final DSLContext conn = setup();
+        conn.execute("create table nodes\n" +
+                "(\n" +
+                "  name varchar(36) not null primary key,\n" +
+                "  cpu integer not null\n" +
+                ")");
+        conn.execute("create table pods\n" +
+                "(\n" +
+                "  pod_name varchar(36) not null primary key,\n" +
+                "  controllable__node_name varchar(36),\n" +
+                "  foreign key(controllable__node_name) references nodes(name)\n" +
+                ")\n");
+        // preferred_nodes depends on large_nodes, and neither depends on controllable columns
+        final String largeNodes = "create view large_nodes as\n" +
+                " select name, cpu from nodes where cpu >= 10";
+        final String preferredNodes = "create view preferred_nodes as\n" +
+                " select name from large_nodes where cpu >= 20";
+        final String constraint = "create view constraint_preferred as\n" +
+                " select * from pods where controllable__node_name in (select name from preferred_nodes)";
+        conn.execute("insert into nodes values ('n1', 5)");
+        conn.execute("insert into nodes values ('n2', 15)");
+        conn.execute("insert into nodes values ('n3', 25)");
+        conn.execute("insert into pods values ('p1', null)");
+        conn.execute("insert into pods values ('p2', null)");
+        final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder().setBuildViewsInParallel(true).build();
+        final Model model = Model.buildModel(conn, orToolsSolver, List.of(largeNodes, preferredNodes, constraint));
+
+        model.updateData();
+        final Result<? extends Record> pods = model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS");
+        assertEquals(2, pods.size());
+        for (final Record pod : pods) {
+            assertEquals("n3", pod.get("CONTROLLABLE__NODE_NAME"));
+        }
+    }
+
     @ParameterizedTest
     @MethodSource("solvers")
     public void testControllableInJoinLarge(final SolverConfig solver) {
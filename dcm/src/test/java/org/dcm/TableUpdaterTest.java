@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm;
+
+import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultExecuteListener;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TableUpdaterTest {
+
+    @Test
+    public void testUpdatesByKeyAreBatched() {
+        final Connection connection = connection();
+        final DSLContext conn = DSL.using(connection, SQLDialect.H2);
+        conn.execute("create table t1 (c1 integer not null primary key, controllable__c2 integer not null, " +
+                     "controllable__c3 varchar(10) not null)");
+        conn.execute("insert into t1 values (1, 1, 'a'), (2, 1, 'a'), (3, 1, 'a'), (4, 1, 'a'), (5, 1, 'a')");
+        final Table<? extends Record> table = table(conn, "T1");
+
+        // Two rows change c2, one row changes c3, one changes both and one is left as is
+        final Result<? extends Record> output = output(conn, table,
+                                                       new Object[]{1, 2, "a"}, new Object[]{2, 2, "a"},
+                                                       new Object[]{3, 1, "b"}, new Object[]{4, 2, "b"},
+                                                       new Object[]{5, 1, "a"});
+        final TableUpdater updater = TableUpdater.diff(conn, irTable(table), output);
+        assertEquals(4, updater.numChanges());
+        assertFalse(updater.modifiesRows());
+
+        // One batch per set of changed columns
+        final AtomicInteger numStatements = new AtomicInteger(0);
+        updater.execute(countingContext(connection, numStatements));
+        assertEquals(3, numStatements.get());
+        assertEquals(rows(output), rows(conn.selectFrom(table).fetch()));
+    }
+
+    @Test
+    public void testRowsAreReplacedWithoutPrimaryKey() {
+        final DSLContext conn = DSL.using(connection(), SQLDialect.H2);
+        conn.execute("create table t1 (c1 integer, controllable__c2 integer)");
+        conn.execute("insert into t1 values (1, 1), (2, 1), (3, null), (null, 1)");
+        final Table<? extends Record> table = table(conn, "T1");
+
+        // Rows are matched as a whole, including rows with null values
+        final Result<? extends Record> output = output(conn, table,
+                                                       new Object[]{1, 1}, new Object[]{2, 2},
+                                                       new Object[]{3, 3}, new Object[]{null, 1});
+        final TableUpdater updater = TableUpdater.diff(conn, irTable(table), output);
+        assertEquals(4, updater.numChanges());
+        assertTrue(updater.modifiesRows());
+        updater.execute(conn);
+        assertEquals(rows(output), rows(conn.selectFrom(table).fetch()));
+    }
+
+    @Test
+    public void testUpdatesByKeyRespectForeignKeys() {
+        final DSLContext conn = DSL.using(connection(), SQLDialect.H2);
+        conn.execute("create table nodes (name varchar(10) not null primary key)");
+        conn.execute("create table pods (name varchar(10) not null primary key, " +
+                     "controllable__node varchar(10) not null, " +
+                     "foreign key (controllable__node) references nodes(name))");
+        conn.execute("insert into nodes values ('n1'), ('n2')");
+        conn.execute("insert into pods values ('p1', 'n1'), ('p2', 'n1')");
+        final Table<? extends Record> table = table(conn, "PODS");
+
+        // Updates leave keys in place, so they do not require foreign key constraints to be removed
+        final Result<? extends Record> output = output(conn, table,
+                                                       new Object[]{"p1", "n1"}, new Object[]{"p2", "n2"});
+        final TableUpdater updater = TableUpdater.diff(conn, irTable(table), output);
+        assertEquals(1, updater.numChanges());
+        assertFalse(updater.modifiesRows());
+        updater.execute(conn);
+        assertEquals(rows(output), rows(conn.selectFrom(table).fetch()));
+
+        // Rows that are absent from the output are deleted, which does require it
+        final Result<? extends Record> fewerRows = output(conn, table, new Object[]{"p1", "n2"});
+        final TableUpdater deleter = TableUpdater.diff(conn, irTable(table), fewerRows);
+        assertEquals(2, deleter.numChanges());
+        assertTrue(deleter.modifiesRows());
+    }
+
+    @Test
+    public void testBackendValueTypesAreNormalized() {
+        final DSLContext conn = DSL.using(connection(), SQLDialect.H2);
+        conn.execute("create table t1 (c1 integer not null primary key, controllable__c2 integer not null)");
+        conn.execute("create table t2 (c1 integer, controllable__c2 integer)");
+        conn.execute("insert into t1 values (1, 1), (2, 2)");
+        conn.execute("insert into t2 values (1, 1), (2, 2)");
+
+        // The OR-tools backend produces longs for integer columns, whereas the MiniZinc
+        // backend's values are parsed from text. Neither should be mistaken for a change.
+        final Field<?>[] longFields = {field(name("C1"), Long.class), field(name("CONTROLLABLE__C2"), Long.class)};
+        final Field<?>[] textFields = {field(name("C1"), String.class),
+                                       field(name("CONTROLLABLE__C2"), String.class)};
+        for (final String tableName : Arrays.asList("T1", "T2")) {
+            final IRTable irTable = irTable(table(conn, tableName));
+            final Result<Record> longOutput = conn.newResult(longFields);
+            longOutput.add(record(conn, longFields, 1L, 1L));
+            longOutput.add(record(conn, longFields, 2L, 2L));
+            assertEquals(0, TableUpdater.diff(conn, irTable, longOutput).numChanges());
+
+            final Result<Record> textOutput = conn.newResult(textFields);
+            textOutput.add(record(conn, textFields, "1", "1"));
+            textOutput.add(record(conn, textFields, "2", "3"));
+            assertEquals(tableName.equals("T1") ? 1 : 2, TableUpdater.diff(conn, irTable, textOutput).numChanges());
+        }
+    }
+
+    @Test
+    public void testDiffAgainstCurrentRows() {
+        final DSLContext conn = DSL.using(connection(), SQLDialect.H2);
+        conn.execute("create table t1 (c1 integer not null primary key, controllable__c2 integer not null)");
+        conn.execute("insert into t1 values (1, 1), (2, 1)");
+        final Table<? extends Record> table = table(conn, "T1");
+        final IRTable irTable = irTable(table);
+        irTable.updateValues(conn.selectFrom(table).fetch());
+
+        // The table changes after the model was last updated, so only the difference
+        // with the current rows has to be written
+        conn.execute("update t1 set controllable__c2 = 2 where c1 = 1");
+        final Result<? extends Record> output = output(conn, table, new Object[]{1, 2}, new Object[]{2, 2});
+        final TableUpdater updater = TableUpdater.diff(conn, irTable, output);
+        assertEquals(1, updater.numChanges());
+        updater.execute(conn);
+        assertEquals(rows(output), rows(conn.selectFrom(table).fetch()));
+    }
+
+    private static Result<? extends Record> output(final DSLContext conn, final Table<? extends Record> table,
+                                                   final Object[]... rows) {
+        final Result<? extends Record> result = conn.newResult(table);
+        for (final Object[] row : rows) {
+            @SuppressWarnings("unchecked") final List<Record> records = (List<Record>) result;
+            records.add(record(conn, table.fields(), row));
+        }
+        return result;
+    }
+
+    private static Record record(final DSLContext conn, final Field<?>[] fields, final Object... values) {
+        final Record record = conn.newRecord(fields);
+        record.fromArray(values);
+        return record;
+    }
+
+    private static Set<List<Object>> rows(final Result<? extends Record> result) {
+        return result.stream().map(r -> Arrays.asList(r.intoArray())).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    private static DSLContext countingContext(final Connection connection, final AtomicInteger numStatements) {
+        final DefaultExecuteListener listener = new DefaultExecuteListener() {
+            @Override
+            public void executeStart(final ExecuteContext ctx) {
+                numStatements.incrementAndGet();
+            }
+        };
+        return DSL.using(new DefaultConfiguration().set(connection)
+                                                   .set(SQLDialect.H2)
+                                                   .set(new DefaultExecuteListenerProvider(listener)));
+    }
+
+    private static Table<? extends Record> table(final DSLContext conn, final String name) {
+        return conn.meta().getTables().stream()
+                   .filter(t -> t.getName().equals(name))
+                   .findFirst()
+                   .orElseThrow();
+    }
+
+    /**
+     * Builds an IRTable the way Model does
+     */
+    private static IRTable irTable(final Table<? extends Record> table) {
+        final IRTable irTable = new IRTable(table);
+        for (final Field<?> field : table.fields()) {
+            irTable.addField(new IRColumn(irTable, field));
+        }
+        irTable.setPrimaryKey(new IRPrimaryKey(irTable, table.getPrimaryKey()));
+        return irTable;
+    }
+
+    private static Connection connection() {
+        try {
+            return DriverManager.getConnection("jdbc:h2:mem:");
+        } catch (final SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
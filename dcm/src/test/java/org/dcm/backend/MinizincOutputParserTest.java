@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm.backend;
+
+import org.dcm.IRTable;
+import org.dcm.ModelException;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.junit.jupiter.api.Test;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.jooq.impl.DSL.using;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MinizincOutputParserTest {
+
+    @Test
+    public void testParseTables() throws SQLException {
+        final DSLContext conn = using(DriverManager.getConnection("jdbc:h2:mem:"), SQLDialect.H2);
+        conn.execute("create table hosts (host_id varchar(36), controllable__in_segment boolean, weight integer)");
+        final Table<?> hosts = conn.meta().getTables("HOSTS").get(0);
+        final IRTable irTable = new IRTable(hosts);
+        final MinizincOutputParser parser = new MinizincOutputParser(conn, Map.of("HOSTS", irTable));
+
+        // Columns may appear in a different order than in the table
+        final List<String> lines = List.of("", "!!HOSTS", "CONTROLLABLE__IN_SEGMENT,HOST_ID,WEIGHT",
+                                           "true,'h1',10", "false,'h,2',null", "");
+        lines.forEach(line -> assertTrue(parser.parseLine(line)));
+        assertFalse(parser.parseLine(MinizincOutputParser.MNZ_SOLUTION_SEP));
+        assertFalse(parser.parseLine("!!HOSTS"));
+
+        final Result<? extends Record> records = parser.getRecordsPerTable().get(irTable);
+        assertEquals(2, records.size());
+        assertEquals("h1", records.get(0).get("HOST_ID"));
+        assertEquals(true, records.get(0).get("CONTROLLABLE__IN_SEGMENT"));
+        assertEquals(10, records.get(0).get("WEIGHT"));
+        assertEquals("h,2", records.get(1).get("HOST_ID"));
+        assertEquals(false, records.get(1).get("CONTROLLABLE__IN_SEGMENT"));
+        assertNull(records.get(1).get("WEIGHT"));
+    }
+
+    @Test
+    public void testUnsatisfiable() throws SQLException {
+        final DSLContext conn = using(DriverManager.getConnection("jdbc:h2:mem:"), SQLDialect.H2);
+        final MinizincOutputParser parser = new MinizincOutputParser(conn, Map.of());
+        assertThrows(ModelException.class, () -> parser.parseLine(MinizincOutputParser.MNZ_UNSATISFIABLE));
+    }
+
+    @Test
+    public void testSplitCsvLine() {
+        assertEquals(List.of("a", "b c", "d,e", "it's", ""),
+                     MinizincOutputParser.splitCsvLine("a,'b c',\"d,e\",\"it's\","));
+    }
+}
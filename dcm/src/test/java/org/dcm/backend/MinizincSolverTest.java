@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm.backend;
+
+import org.dcm.Conf;
+import org.dcm.Model;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+
+import static org.jooq.impl.DSL.using;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MinizincSolverTest {
+
+    /*
+     * With cache_fzn set, the model is only flattened again once the data changes
+     */
+    @Test
+    public void testCachedFlatZinc(@TempDir final File tempDir) throws SQLException {
+        final DSLContext conn = using(DriverManager.getConnection("jdbc:h2:mem:"), SQLDialect.H2);
+        conn.execute("create table nodes (name varchar(36) not null primary key)");
+        conn.execute("create table pods (pod_name varchar(36) not null primary key, " +
+                     "controllable__node_name varchar(36))");
+        conn.execute("insert into nodes values ('n1')");
+        conn.execute("insert into pods values ('p1', null), ('p2', null)");
+        final String constraint = "create view constraint_nodes as " +
+                                  "select * from pods where controllable__node_name in (select name from nodes)";
+        final Conf conf = new Conf();
+        conf.setProperty("cache_fzn", "true");
+        final MinizincSolver solver = new MinizincSolver(new File(tempDir, "model.mzn"),
+                                                         new File(tempDir, "data.dzn"), conf);
+        final Model model = Model.buildModel(conn, solver, List.of(constraint));
+
+        model.updateData();
+        assertNodes(Set.of("n1"), model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS"));
+        assertEquals(1, solver.getNumCompilations());
+
+        // Neither the model nor the data changed
+        model.updateData();
+        assertNodes(Set.of("n1"), model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS"));
+        assertEquals(1, solver.getNumCompilations());
+
+        // The data changed, which invalidates the cached FlatZinc
+        conn.execute("insert into nodes values ('n2')");
+        conn.execute("delete from nodes where name = 'n1'");
+        model.updateData();
+        assertNodes(Set.of("n2"), model.solveModelWithoutTableUpdates(Set.of("PODS")).get("PODS"));
+        assertEquals(2, solver.getNumCompilations());
+    }
+
+    private static void assertNodes(final Set<String> expected, final Result<? extends Record> pods) {
+        assertEquals(2, pods.size());
+        pods.forEach(r -> assertTrue(expected.contains(r.get("CONTROLLABLE__NODE_NAME", String.class))));
+    }
+}
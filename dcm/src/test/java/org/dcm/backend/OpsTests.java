@@ -56,6 +56,27 @@ public class OpsTests {
         assertEquals(10, ops.sum(entries));
     }
 
+    @Test
+    public void testSumArray() {
+        assertEquals(10, ops.sum(new int[]{1, 2, 3, 4}));
+    }
+
+    @Test
+    public void testSumVArray() {
+        final IntVar[] entries = {model.newIntVar(0, 1, ""),
+                                  model.newIntVar(1, 2, ""),
+                                  model.newIntVar(2, 3, "")};
+        final IntVar sum = ops.sumV(entries);
+        model.addEquality(sum, 6L);
+        final IntVar scalProd = ops.scalProd(entries, new int[]{1, 10, 100});
+        final CpSolver solver = new CpSolver();
+        final CpSolverStatus solve = solver.solve(model);
+        assertEquals(CpSolverStatus.OPTIMAL, solve);
+        assertEquals(6, solver.value(sum));
+        assertEquals(solver.value(entries[0]) + 10 * solver.value(entries[1]) + 100 * solver.value(entries[2]),
+                     solver.value(scalProd));
+    }
+
     @Test
     public void testSumVEquals() {
         final List<IntVar> entries = List.of(model.newIntVar(0, 1, ""),
@@ -169,6 +190,24 @@ public class OpsTests {
         assertEquals(4L, ops.maxVLong(entriesLong));
     }
 
+    @Test
+    public void maxVAndMinVArrays() {
+        assertEquals(4, ops.maxVInteger(new int[]{1, 2, 4, 3}));
+        assertEquals(4L, ops.maxVLong(new long[]{1L, 2L, 4L, 3L}));
+        assertEquals(1, ops.minVInteger(new int[]{1, 2, 4, 3}));
+        assertEquals(1L, ops.minVLong(new long[]{1L, 2L, 4L, 3L}));
+
+        final IntVar[] entries = {model.newIntVar(0, 10, ""), model.newIntVar(0, 10, "")};
+        final IntVar maxV = ops.maxVIntVar(entries);
+        final IntVar minV = ops.minVIntVar(entries);
+        model.addEquality(maxV, 9);
+        model.addEquality(minV, 2);
+        final CpSolver solver = new CpSolver();
+        final CpSolverStatus solve = solver.solve(model);
+        assertEquals(CpSolverStatus.OPTIMAL, solve);
+        assertEquals(Set.of(2L, 9L), Set.of(solver.value(entries[0]), solver.value(entries[1])));
+    }
+
     @Test
     public void minV() {
         final List<IntVar> entries = List.of(model.newIntVar(0, 10, ""),
@@ -287,6 +326,41 @@ public class OpsTests {
     }
 
 
+    @Test
+    public void arithmeticBounds() {
+        final IntVar left = model.newIntVar(-2, 3, "");
+        final IntVar right = model.newIntVar(1, 4, "");
+        assertDomain(3, 6, ops.plus(right, 2));
+        assertDomain(-1, 7, ops.plus(left, right));
+        assertDomain(1, 4, ops.minus(5, right));
+        assertDomain(-6, 2, ops.minus(left, right));
+        assertDomain(-9, 6, ops.mult(left, -3));
+        assertDomain(-8, 12, ops.mult(left, right));
+        assertDomain(0, 2, ops.div(right, 2));
+        assertDomain(-1, 7, ops.sumV(new IntVar[]{left, right}));
+        assertDomain(1, 4, ops.maxVIntVar(new IntVar[]{left, right}));
+        assertDomain(-2, 3, ops.minVIntVar(new IntVar[]{left, right}));
+
+        // No intermediate variables for identities
+        assertEquals(left, ops.plus(left, 0));
+        assertEquals(left, ops.mult(left, 1));
+        assertEquals(left, ops.sumV(new IntVar[]{left}));
+
+        // Constraints are unchanged by the tighter bounds
+        final IntVar expr = ops.minus(ops.plus(ops.mult(left, 3), right), 1);
+        model.addEquality(expr, 12);
+        final CpSolver solver = new CpSolver();
+        final CpSolverStatus solve = solver.solve(model);
+        assertEquals(CpSolverStatus.OPTIMAL, solve);
+        assertEquals(3L, solver.value(left));
+        assertEquals(4L, solver.value(right));
+    }
+
+    private static void assertDomain(final long lb, final long ub, final IntVar var) {
+        assertEquals(lb, var.getDomain().min());
+        assertEquals(ub, var.getDomain().max());
+    }
+
     @Test
     public void multVars() {
         final IntVar left = model.newIntVar(-100, 100, "");
@@ -674,6 +748,21 @@ public class OpsTests {
         assertTrue(longs.contains(solver.value(var)));
     }
 
+    @Test
+    public void inLongArray() {
+        final long[] longs = {2L, 3L};
+        final IntVar var = model.newIntVar(0, 6L, "");
+
+        final IntVar in = ops.inLong(var, longs);
+        model.addEquality(in, 0L);
+        ops.restrictToInteger(var, new int[]{3, 4});
+
+        final CpSolver solver = new CpSolver();
+        final CpSolverStatus solve = solver.solve(model);
+        assertEquals(CpSolverStatus.OPTIMAL, solve);
+        assertEquals(4, solver.value(var));
+    }
+
     @Test
     public void inInt() {
         final List<Integer> ints = List.of(2, 3);
@@ -17,10 +17,17 @@ import com.google.ortools.util.Domain;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @EnabledIfEnvironmentVariable(named = "OR_TOOLS_LIB", matches = ".*libjniortools.*")
 public class OrToolsTest {
@@ -394,6 +401,99 @@ public class OrToolsTest {
         assertEquals("world", encoder.toStr(worldAgain));
     }
 
+    @Test
+    public void testStringEncoderConcurrentGrowth() {
+        final StringEncoding encoder = new StringEncoding();
+        final int numStrings = 100000;
+        // Intern the same strings from several threads, forcing the tables to grow along the way
+        final List<long[]> codes = IntStream.range(0, 4).parallel()
+                .mapToObj(t -> IntStream.range(0, numStrings).mapToLong(i -> encoder.toLong("node-" + i)).toArray())
+                .collect(Collectors.toList());
+        assertEquals(numStrings, encoder.size());
+        for (int i = 0; i < numStrings; i++) {
+            for (final long[] threadCodes : codes) {
+                assertEquals(codes.get(0)[i], threadCodes[i]);
+            }
+            assertEquals("node-" + i, encoder.toStr(codes.get(0)[i]));
+        }
+        assertNull(encoder.toStr(0));
+        assertNull(encoder.toStr(numStrings + 1));
+    }
+
+    @Test
+    public void testStringEncoderNulls() {
+        final StringEncoding encoder = new StringEncoding();
+        final long hello = encoder.toLong("hello");
+        assertEquals(StringEncoding.NULL_CODE, encoder.toLong((String) null));
+        assertNotEquals(hello, encoder.toLong((String) null));
+        assertNull(encoder.toStr(encoder.toLong((String) null)));
+        assertEquals(1, encoder.size());
+    }
+
+    @Test
+    public void testStringEncoderEviction() {
+        final StringEncoding encoder = new StringEncoding();
+        encoder.newEpoch();
+        final long[] nodes = IntStream.range(0, 10).mapToLong(i -> encoder.toLong("node-" + i)).toArray();
+        long version = encoder.getVersion();
+
+        // Every round, the nodes are still in use, but the pods of the previous round are gone
+        for (int round = 0; round < 100; round++) {
+            encoder.newEpoch();
+            final int podsRound = round;
+            IntStream.range(0, 10).forEach(i -> encoder.toLong("pod-" + podsRound + "-" + i));
+            encoder.markUsed(Arrays.copyOf(nodes, 5));
+            IntStream.range(5, 10).forEach(i -> assertEquals(nodes[i], encoder.toLong("node-" + i)));
+            // At most twice the strings in use during the previous round, plus those of this round
+            assertTrue(encoder.size() <= 50);
+        }
+        assertTrue(encoder.getVersion() > version);
+
+        // Codes of strings in use are stable, and evicted codes are reused
+        for (int i = 0; i < nodes.length; i++) {
+            assertEquals("node-" + i, encoder.toStr(nodes[i]));
+        }
+        // Once nothing is in use, everything is evicted
+        version = encoder.getVersion();
+        encoder.newEpoch();
+        encoder.newEpoch();
+        assertTrue(encoder.getVersion() > version);
+        assertEquals(0, encoder.size());
+        assertNull(encoder.toStr(nodes[0]));
+        assertEquals(1, encoder.toLong("pod"));
+    }
+
+    @Test
+    public void testNodeLoadIndexUpdates() {
+        final NodeLoadIndex index = new NodeLoadIndex();
+        final long[] domain = {1, 2, 3};
+        // Two resources, and tasks that only demand the first one: node 3 is the least loaded, followed by 2 and 1
+        index.update(domain, new int[][]{{10, 20, 40}, {5, 50, 10}}, new long[]{30, 0}, 1);
+        assertArrayEquals(new long[]{3, 2, 1}, index.leastLoaded(10));
+        assertArrayEquals(new long[]{3}, index.leastLoaded(1));
+
+        // Tasks that only demand the second resource re-score every node
+        index.update(domain, new int[][]{{10, 20, 40}, {5, 50, 10}}, new long[]{0, 30}, 1);
+        assertArrayEquals(new long[]{2, 3, 1}, index.leastLoaded(10));
+
+        // With the same weights and the same version, the nodes are taken to be unchanged
+        index.update(domain, new int[][]{{10, 20, 40}, {100, 50, 10}}, new long[]{0, 60}, 1);
+        assertArrayEquals(new long[]{2, 3, 1}, index.leastLoaded(10));
+        index.update(domain, new int[][]{{10, 20, 40}, {100, 50, 10}}, new long[]{0, 60}, 2);
+        assertArrayEquals(new long[]{1, 2, 3}, index.leastLoaded(10));
+
+        // Node 2 is removed and node 4 is added
+        index.update(new long[]{1, 3, 4}, new int[][]{{10, 40, 20}, {100, 10, 20}}, new long[]{0, 60}, 3);
+        assertArrayEquals(new long[]{1, 4, 3}, index.leastLoaded(10));
+        assertEquals(3, index.size());
+
+        // Without a version, every node is compared with its previous capacities
+        index.update(new long[]{1, 3, 4}, new int[][]{{10, 40, 20}, {100, 10, 200}}, new long[]{0, 60},
+                     NodeLoadIndex.UNKNOWN_VERSION);
+        assertArrayEquals(new long[]{4, 1, 3}, index.leastLoaded(10));
+        assertEquals(3, index.size());
+    }
+
 
 
     @Test
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the largest number of pods to schedule per round, based on the latency of previous rounds. The limit
+ * grows multiplicatively while rounds that use it in full complete within the target latency, and shrinks
+ * multiplicatively when a round exceeds it. Rounds with fewer pending pods than the limit simply schedule all of
+ * them, so the limit only changes when the latency calls for it.
+ */
+final class AdaptiveBatchSize {
+    private final int maxBatchSize;
+    private final long targetLatencyNs;
+    private int limit;
+
+    /**
+     * @param initialBatchSize the limit to use for the first round
+     * @param maxBatchSize the largest number of pods to schedule in a round
+     * @param targetLatencyMs the target time to fetch data and solve a single round
+     */
+    AdaptiveBatchSize(final int initialBatchSize, final int maxBatchSize, final long targetLatencyMs) {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize should be positive: " + maxBatchSize);
+        Preconditions.checkArgument(targetLatencyMs > 0, "targetLatencyMs should be positive: " + targetLatencyMs);
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatencyNs = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.limit = Math.max(1, Math.min(initialBatchSize, maxBatchSize));
+    }
+
+    /**
+     * @return the largest number of pods to schedule in the next round
+     */
+    int nextBatchSize() {
+        return limit;
+    }
+
+    /**
+     * Updates the limit after a round completes.
+     *
+     * @param batchSize the number of pods that were scheduled in the round
+     * @param latencyNs the time taken to fetch data and solve the round
+     */
+    void onRoundCompleted(final int batchSize, final long latencyNs) {
+        if (latencyNs > targetLatencyNs) {
+            limit = Math.max(1, Math.min(limit, batchSize) / 2);
+        } else if (batchSize >= limit) {
+            // Only grow if we were limited by the batch size rather than by the number of pending pods
+            limit = Math.min(maxBatchSize, limit * 2);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import io.fabric8.kubernetes.api.model.NodeList;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.api.model.PodList;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
 import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
 import io.fabric8.kubernetes.client.informers.SharedInformerFactory;
 import org.slf4j.Logger;
@@ -36,9 +37,15 @@ class KubernetesStateSync {
 
     void setupInformersAndPodEventStream(final DBConnectionPool dbConnectionPool,
                                                        final Consumer<PodEvent> podEventNotification) {
+        setupInformersAndPodEventStream(new NodeResourceEventHandler(dbConnectionPool, service),
+                                        podEventNotification);
+    }
+
+    void setupInformersAndPodEventStream(final ResourceEventHandler<Node> nodeEventHandler,
+                                         final Consumer<PodEvent> podEventNotification) {
         final SharedIndexInformer<Node> nodeSharedIndexInformer = sharedInformerFactory
                 .sharedIndexInformerFor(Node.class, NodeList.class, 30000);
-        nodeSharedIndexInformer.addEventHandler(new NodeResourceEventHandler(dbConnectionPool, service));
+        nodeSharedIndexInformer.addEventHandler(nodeEventHandler);
 
         // Pod informer
         final SharedIndexInformer<Pod> podInformer = sharedInformerFactory
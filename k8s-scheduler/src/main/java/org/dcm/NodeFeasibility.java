@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.NodeSelectorRequirement;
+import io.fabric8.kubernetes.api.model.NodeSelectorTerm;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceRequirements;
+import io.fabric8.kubernetes.api.model.Taint;
+import io.fabric8.kubernetes.api.model.Toleration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Checks whether a node can host a pod, going by the pod's node selector, required node affinity, tolerations
+ * and resource requests. These mirror the corresponding constraints in scheduler_tables.sql, but are evaluated
+ * for a single pod, before the pod is added to a database, and only from the Node object itself. Resource
+ * requests are therefore compared against the node's allocatable resources, and not against what other pods
+ * leave of them. Requirements we do not model here, like inter-pod affinity, are assumed to be satisfied, so
+ * that a node is never wrongly ruled out.
+ */
+final class NodeFeasibility {
+    private final long cpuRequest;
+    private final long memoryRequest;
+    private final Map<String, String> nodeSelector;
+    private final List<NodeSelectorTerm> nodeSelectorTerms;
+    private final List<Toleration> tolerations;
+
+    NodeFeasibility(final Pod pod) {
+        final List<ResourceRequirements> resourceRequirements = pod.getSpec().getContainers().stream()
+                .map(Container::getResources)
+                .collect(Collectors.toList());
+        this.cpuRequest = (long) Utils.resourceRequirementSum(resourceRequirements, "cpu");
+        this.memoryRequest = (long) Utils.resourceRequirementSum(resourceRequirements, "memory");
+        this.nodeSelector = Objects.requireNonNullElse(pod.getSpec().getNodeSelector(), Collections.emptyMap());
+        final boolean hasNodeAffinity = pod.getSpec().getAffinity() != null
+                && pod.getSpec().getAffinity().getNodeAffinity() != null
+                && pod.getSpec().getAffinity().getNodeAffinity().getRequiredDuringSchedulingIgnoredDuringExecution()
+                   != null;
+        this.nodeSelectorTerms = hasNodeAffinity ? pod.getSpec().getAffinity().getNodeAffinity()
+                                                      .getRequiredDuringSchedulingIgnoredDuringExecution()
+                                                      .getNodeSelectorTerms()
+                                                 : Collections.emptyList();
+        this.tolerations = Objects.requireNonNullElse(pod.getSpec().getTolerations(), Collections.emptyList());
+    }
+
+    /**
+     * @param node the node to check
+     * @return true if the pod may be placed on the node, were the node empty
+     */
+    boolean fits(final Node node) {
+        return fitsAllocatable(node) && matchesNodeSelector(node) && matchesNodeAffinity(node)
+                && toleratesTaints(node);
+    }
+
+    /**
+     * Resources that a node does not report are not checked
+     */
+    private boolean fitsAllocatable(final Node node) {
+        if (node.getStatus() == null || node.getStatus().getAllocatable() == null) {
+            return true;
+        }
+        final Map<String, Quantity> allocatable = node.getStatus().getAllocatable();
+        final Quantity cpu = allocatable.get("cpu");
+        final Quantity memory = allocatable.get("memory");
+        return (cpu == null || cpuRequest <= Long.parseLong(cpu.getAmount()) * 1000L)
+                && (memory == null || memoryRequest <= (long) Utils.convertUnit(memory, "memory"));
+    }
+
+    private boolean matchesNodeSelector(final Node node) {
+        final Map<String, String> labels = labels(node);
+        return nodeSelector.entrySet().stream()
+                           .allMatch(e -> e.getValue().equals(labels.get(e.getKey())));
+    }
+
+    /**
+     * Node selector terms are ORed, and the match expressions within a term are ANDed
+     */
+    private boolean matchesNodeAffinity(final Node node) {
+        if (nodeSelectorTerms.isEmpty()) {
+            return true;
+        }
+        final Map<String, String> labels = labels(node);
+        return nodeSelectorTerms.stream()
+                .anyMatch(term -> term.getMatchExpressions().stream().allMatch(expr -> matches(expr, labels)));
+    }
+
+    private static boolean matches(final NodeSelectorRequirement expr, final Map<String, String> labels) {
+        final String value = labels.get(expr.getKey());
+        final List<String> values = Objects.requireNonNullElse(expr.getValues(), Collections.emptyList());
+        switch (expr.getOperator()) {
+            case "In":
+                return value != null && values.contains(value);
+            case "NotIn":
+                return value == null || !values.contains(value);
+            case "Exists":
+                return value != null;
+            case "DoesNotExist":
+                return value == null;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Every taint of a node has to be tolerated by the pod
+     */
+    private boolean toleratesTaints(final Node node) {
+        final List<Taint> taints = node.getSpec().getTaints();
+        if (taints == null) {
+            return true;
+        }
+        return taints.stream().allMatch(taint -> tolerations.stream().anyMatch(t -> tolerates(t, taint)));
+    }
+
+    /**
+     * A toleration with an empty key and the Exists operator tolerates every taint, and one with an empty effect
+     * tolerates every effect
+     */
+    private static boolean tolerates(final Toleration toleration, final Taint taint) {
+        final boolean exists = "Exists".equals(toleration.getOperator());
+        final boolean anyKey = exists && (toleration.getKey() == null || toleration.getKey().isEmpty());
+        return (anyKey || Objects.equals(toleration.getKey(), taint.getKey()))
+                && (toleration.getEffect() == null || toleration.getEffect().isEmpty()
+                    || toleration.getEffect().equals(taint.getEffect()))
+                && (exists || Objects.equals(toleration.getValue(), taint.getValue()));
+    }
+
+    private static Map<String, String> labels(final Node node) {
+        return Objects.requireNonNullElse(node.getMetadata().getLabels(), Collections.emptyMap());
+    }
+}
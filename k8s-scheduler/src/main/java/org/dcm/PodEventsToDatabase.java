@@ -103,7 +103,10 @@ class PodEventsToDatabase {
                 final boolean isDeletion = (oldRow != null && newRow == null && oldRow[2] != null);
                 final boolean isNodeNameUpdate =
                         oldRow != null && newRow != null && oldRow[2] == null && newRow[2] != null;
-                if (isDeletion) {
+                // The scheduler undoes the assignments of pods it failed to bind
+                final boolean isNodeNameReset =
+                        oldRow != null && newRow != null && oldRow[2] != null && newRow[2] == null;
+                if (isDeletion || isNodeNameReset) {
                     applyPodInfoUpdateAgainstNode(stmt, oldRow, (String) oldRow[2], true);
                 } else if (isInsert || isNodeNameUpdate) {
                     applyPodInfoUpdateAgainstNode(stmt, newRow, (String) newRow[2], false);
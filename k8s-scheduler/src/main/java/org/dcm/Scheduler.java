@@ -24,9 +24,11 @@ import org.jooq.DSLContext;
 import org.jooq.Record;
 import org.jooq.Result;
 import org.jooq.Update;
+import org.jooq.impl.DSL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
@@ -54,6 +56,9 @@ public final class Scheduler {
     private static final Logger LOG = LoggerFactory.getLogger(Scheduler.class);
     private static final String MINIZINC_MODEL_PATH = "/tmp";
     private static final int DEFAULT_SOLVER_MAX_TIME_IN_SECONDS = 1;
+    // The limit in the pods_to_assign view's definition: see scheduler_tables.sql.
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long DEFAULT_TARGET_LATENCY_MS = TimeUnit.SECONDS.toMillis(DEFAULT_SOLVER_MAX_TIME_IN_SECONDS);
 
     // This constant is also used in our views: see scheduler_tables.sql. Do not change.
     static final String SCHEDULER_NAME = "dcm-scheduler";
@@ -69,7 +74,11 @@ public final class Scheduler {
     private final PodEventsToDatabase podEventsToDatabase;
     private final DBConnectionPool dbConnectionPool;
     private final ExecutorService scheduler = Executors.newSingleThreadExecutor(namedThreadFactory);
+    private final ExecutorService bindingStage = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("binding-thread-%d").build());
     private final LinkedBlockingDeque<Boolean> notificationQueue = new LinkedBlockingDeque<>();
+    private final boolean pipelined;
+    private int podsToAssignLimit = DEFAULT_BATCH_SIZE;
 
     Scheduler(final DBConnectionPool dbConnectionPool, final List<String> policies, final String solverToUse,
               final boolean debugMode, final int numThreads) {
@@ -78,6 +87,18 @@ public final class Scheduler {
 
     Scheduler(final DBConnectionPool dbConnectionPool, final List<String> policies, final String solverToUse,
               final boolean debugMode, final int numThreads, final int solverMaxTimeInSeconds) {
+        this(dbConnectionPool, policies, solverToUse, debugMode, numThreads, solverMaxTimeInSeconds, false);
+    }
+
+    /**
+     * @param pipelined if true, the decisions of a batch are handed to the binder on a separate thread, while the
+     *                  next batch is being scheduled. The decisions are still written back before the next batch
+     *                  starts, so that it accounts for their resource demands, and the pods are marked as in
+     *                  flight until they are bound.
+     */
+    Scheduler(final DBConnectionPool dbConnectionPool, final List<String> policies, final String solverToUse,
+              final boolean debugMode, final int numThreads, final int solverMaxTimeInSeconds,
+              final boolean pipelined) {
         final InputStream resourceAsStream = Scheduler.class.getResourceAsStream("/git.properties");
         try (final BufferedReader gitPropertiesFile = new BufferedReader(new InputStreamReader(resourceAsStream,
                 StandardCharsets.UTF_8))) {
@@ -87,6 +108,7 @@ public final class Scheduler {
             throw new RuntimeException(e);
         }
         this.dbConnectionPool = dbConnectionPool;
+        this.pipelined = pipelined;
         this.podEventsToDatabase = new PodEventsToDatabase(dbConnectionPool);
         this.model = createDcmModel(dbConnectionPool.getConnectionToDb(), solverToUse, policies, numThreads,
                                     solverMaxTimeInSeconds);
@@ -105,62 +127,192 @@ public final class Scheduler {
     }
 
     void startScheduler(final IPodToNodeBinder binder, final int batchCount, final long batchTimeMs) {
+        startScheduler(binder, batchCount, batchTimeMs, DEFAULT_TARGET_LATENCY_MS);
+    }
+
+    /**
+     * Starts scheduling pods on a separate thread, as they arrive.
+     *
+     * @param binder the binder to bind pods to nodes with
+     * @param batchCount the largest number of pods to schedule in a single round
+     * @param batchTimeMs notifications of new pods are coalesced for up to this long before a round starts
+     * @param targetLatencyMs the target latency for a single round. The number of pods per round is adapted to
+     *                        meet it.
+     */
+    void startScheduler(final IPodToNodeBinder binder, final int batchCount, final long batchTimeMs,
+                        final long targetLatencyMs) {
+        startScheduler(binder, batchCount, batchTimeMs, targetLatencyMs, () -> { });
+    }
+
+    /**
+     * Like startScheduler(binder, batchCount, batchTimeMs, targetLatencyMs), but also runs onModelException on the
+     * scheduling thread whenever the pending pods could not be placed.
+     */
+    void startScheduler(final IPodToNodeBinder binder, final int batchCount, final long batchTimeMs,
+                        final long targetLatencyMs, final Runnable onModelException) {
+        final AdaptiveBatchSize batchSize = new AdaptiveBatchSize(DEFAULT_BATCH_SIZE, batchCount, targetLatencyMs);
         scheduler.execute(
                 () -> {
                     while (!Thread.currentThread().isInterrupted()) {
                         try {
-                            notificationQueue.take();
-                            LOG.info("Attempting schedule");
-                            scheduleAllPendingPods(binder);
+                            final int notifications = awaitNotifications(batchCount, batchTimeMs);
+                            LOG.info("Attempting schedule after {} notifications", notifications);
+                            scheduleAllPendingPods(binder, batchSize);
                         } catch (final InterruptedException e) {
                             Thread.currentThread().interrupt();
                             break;
                         } catch (final ModelException e) {
                             LOG.error("Received Model Exception. Dumping DB state to /tmp/", e);
                             DebugUtils.dbDump(dbConnectionPool.getConnectionToDb());
+                            onModelException.run();
                         }
                     }
                 }
         );
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Blocks until a pod is pending, and then coalesces the notifications that arrive within a window, so that a
+     * burst of pod additions is scheduled by a single call to scheduleAllPendingPods() rather than one per pod.
+     *
+     * @param maxNotifications stop waiting once this many notifications, enough to fill a batch, have arrived
+     * @param windowMs the longest time to wait for further notifications after the first one
+     * @return the number of notifications consumed
+     */
+    private int awaitNotifications(final int maxNotifications, final long windowMs) throws InterruptedException {
+        notificationQueue.take();
+        int notifications = 1;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+        while (notifications < maxNotifications) {
+            final long remainingNs = deadline - System.nanoTime();
+            if (remainingNs <= 0 || notificationQueue.poll(remainingNs, TimeUnit.NANOSECONDS) == null) {
+                break;
+            }
+            notifications++;
+        }
+        // Pods whose notifications we drop here are pending in the database already, and will be picked up by
+        // the round that follows. Pods added after this point enqueue a new notification.
+        notifications += notificationQueue.drainTo(new ArrayList<>());
+        return notifications;
+    }
+
+    /**
+     * Schedules all pending pods, using the default number of pods per round.
+     */
     void scheduleAllPendingPods(final IPodToNodeBinder binder) {
+        scheduleAllPendingPods(binder, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    void scheduleAllPendingPods(final IPodToNodeBinder binder, @Nullable final AdaptiveBatchSize batchSize) {
         int fetchCount = dbConnectionPool.getConnectionToDb().fetchCount(Tables.PODS_TO_ASSIGN_NO_LIMIT);
         while (fetchCount > 0) {
             LOG.info("Fetchcount is {}", fetchCount);
             final int batch = batchId.incrementAndGet();
+            setPodsToAssignLimit(batchSize != null ? batchSize.nextBatchSize() : DEFAULT_BATCH_SIZE);
 
             final long now = System.nanoTime();
             final Result<? extends Record> podsToAssignUpdated = runOneLoop();
             final long totalTime = System.nanoTime() - now;
             solverInvocations.mark();
+            if (batchSize != null) {
+                batchSize.onRoundCompleted(podsToAssignUpdated.size(), totalTime);
+            }
 
             fetchCount -= podsToAssignUpdated.size();
 
-            // First, locally update the node_name entries for pods
+            // The assignments are written back before the next batch starts, so that it accounts for the
+            // resources they use, even if they are still to be bound
+            writeBack(podsToAssignUpdated, pipelined);
+            if (pipelined) {
+                bindingStage.execute(() -> bindInFlightBatch(binder, podsToAssignUpdated, batch, totalTime));
+            } else {
+                bindBatch(binder, podsToAssignUpdated, batch, totalTime);
+            }
+        }
+    }
+
+    /**
+     * Writes back the node_name assignments of a batch. Pods that are yet to be bound by the binding stage are
+     * marked as in flight.
+     */
+    private void writeBack(final Result<? extends Record> podsToAssignUpdated, final boolean inFlight) {
+        try (final DSLContext conn = dbConnectionPool.getConnectionToDb()) {
+            final List<Update<?>> updates = new ArrayList<>();
+            podsToAssignUpdated.forEach(r -> {
+                final String podName = r.get(Tables.PODS_TO_ASSIGN.POD_NAME);
+                final String nodeName = r.get(Tables.PODS_TO_ASSIGN.CONTROLLABLE__NODE_NAME);
+                updates.add(
+                    conn.update(Tables.POD_INFO)
+                            .set(Tables.POD_INFO.NODE_NAME, nodeName)
+                            .set(Tables.POD_INFO.IN_FLIGHT, inFlight)
+                            .where(Tables.POD_INFO.POD_NAME.eq(podName))
+                );
+            });
+            conn.batch(updates).execute();
+        }
+        LOG.info("Done with updates");
+    }
+
+    /**
+     * Issues bind requests for a batch whose assignments were written back.
+     */
+    private void bindBatch(final IPodToNodeBinder binder, final Result<? extends Record> podsToAssignUpdated,
+                           final int batch, final long totalTime) {
+        podsToAssignUpdated.forEach(r -> LOG.info("Scheduling decision for pod {} as part of batch {} " +
+                                                  "made in time: {}",
+                                                  r.get(Tables.PODS_TO_ASSIGN.POD_NAME), batch, totalTime));
+        binder.bindManyAsnc(podsToAssignUpdated);
+        LOG.info("Done with bindings for batch {}", batch);
+    }
+
+    /**
+     * Binds a batch on the binding stage, and then clears its in-flight marks. If binding fails, the pods'
+     * assignments are undone, which makes them pending again so that a later batch places them. Any exception
+     * is caught, as it would otherwise be dropped by the binding stage's executor.
+     */
+    @SuppressWarnings("checkstyle:illegalcatch")
+    private void bindInFlightBatch(final IPodToNodeBinder binder, final Result<? extends Record> podsToAssignUpdated,
+                                   final int batch, final long totalTime) {
+        final List<String> podNames = podsToAssignUpdated.getValues(Tables.PODS_TO_ASSIGN.POD_NAME);
+        try {
+            bindBatch(binder, podsToAssignUpdated, batch, totalTime);
             try (final DSLContext conn = dbConnectionPool.getConnectionToDb()) {
-                final List<Update<?>> updates = new ArrayList<>();
-                podsToAssignUpdated.forEach(r -> {
-                    final String podName = r.get(Tables.PODS_TO_ASSIGN.POD_NAME);
-                    final String nodeName = r.get(Tables.PODS_TO_ASSIGN.CONTROLLABLE__NODE_NAME);
-                    updates.add(
-                        conn.update(Tables.POD_INFO)
-                                .set(Tables.POD_INFO.NODE_NAME, nodeName)
-                                .where(Tables.POD_INFO.POD_NAME.eq(podName))
-                    );
-                    LOG.info("Scheduling decision for pod {} as part of batch {} made in time: {}",
-                             podName, batch, totalTime);
-                });
-                conn.batch(updates).execute();
+                conn.update(Tables.POD_INFO)
+                    .set(Tables.POD_INFO.IN_FLIGHT, false)
+                    .where(Tables.POD_INFO.POD_NAME.in(podNames))
+                    .execute();
             }
-            LOG.info("Done with updates");
-            // Next, issue bind requests for pod -> node_name
-            binder.bindManyAsnc(podsToAssignUpdated);
-            LOG.info("Done with bindings");
+        } catch (final RuntimeException e) {
+            LOG.error("Could not bind batch {}, its pods will be scheduled again", batch, e);
+            try (final DSLContext conn = dbConnectionPool.getConnectionToDb()) {
+                conn.update(Tables.POD_INFO)
+                    .set(Tables.POD_INFO.NODE_NAME, (String) null)
+                    .set(Tables.POD_INFO.IN_FLIGHT, false)
+                    .where(Tables.POD_INFO.POD_NAME.in(podNames))
+                    .execute();
+            }
+            notificationQueue.add(true);
         }
     }
 
+    /**
+     * Changes the number of pods returned by the pods_to_assign view. There is no clean way to use a dynamic
+     * "LIMIT" clause in a view, so we redefine the view instead.
+     */
+    private void setPodsToAssignLimit(final int limit) {
+        if (limit == podsToAssignLimit) {
+            return;
+        }
+        LOG.info("Changing the number of pods to assign per round from {} to {}", podsToAssignLimit, limit);
+        try (final DSLContext conn = dbConnectionPool.getConnectionToDb()) {
+            conn.createOrReplaceView(Tables.PODS_TO_ASSIGN)
+                .as(conn.selectFrom(Tables.PODS_TO_ASSIGN_NO_LIMIT).limit(DSL.inline(limit)))
+                .execute();
+        }
+        podsToAssignLimit = limit;
+    }
+
     Result<? extends Record> runOneLoop() {
         final Timer.Context updateDataTimer = updateDataTimes.time();
         model.updateData();
@@ -185,9 +337,13 @@ public final class Scheduler {
                 final MinizincSolver solver = new MinizincSolver(modelFile, dataFile, new Conf());
                 return Model.buildModel(conn, solver, policies);
             case "ORTOOLS":
+            case "ORTOOLS-BINPACKING":
                 final OrToolsSolver orToolsSolver = new OrToolsSolver.Builder()
                                                      .setNumThreads(numThreads)
-                                                     .setMaxTimeInSeconds(solverMaxTimeInSeconds).build();
+                                                     .setMaxTimeInSeconds(solverMaxTimeInSeconds)
+                                                     .setUseBinPackingForCapacityConstraints(
+                                                             solverToUse.equals("ORTOOLS-BINPACKING"))
+                                                     .build();
                 return Model.buildModel(conn, orToolsSolver, policies);
             default:
                 throw new IllegalArgumentException(solverToUse);
@@ -197,6 +353,16 @@ public final class Scheduler {
     void shutdown() throws InterruptedException {
         scheduler.shutdownNow();
         scheduler.awaitTermination(100, TimeUnit.SECONDS);
+        bindingStage.shutdown();
+        bindingStage.awaitTermination(100, TimeUnit.SECONDS);
+    }
+
+    private static void setMaxCandidateNodes(final DBConnectionPool dbConnectionPool, final CommandLine cmd) {
+        if (cmd.hasOption("max-candidate-nodes")) {
+            dbConnectionPool.getConnectionToDb().insertInto(Tables.CANDIDATE_NODES_LIMIT)
+                            .values(Integer.parseInt(cmd.getOptionValue("max-candidate-nodes")))
+                            .execute();
+        }
     }
 
     public static void main(final String[] args) throws InterruptedException, ParseException {
@@ -205,30 +371,72 @@ public final class Scheduler {
         options.addRequiredOption("bc", "batch-size", true,
                 "Scheduler batch size count");
         options.addRequiredOption("bi", "batch-interval-ms", true,
-                "Scheduler batch interval");
+                "Scheduler batch interval: how long to wait for more pods to arrive before a round starts");
+        options.addOption("tl", "target-latency-ms", true,
+                "Target latency of a round, to which the number of pods per round is adapted (default: " +
+                DEFAULT_TARGET_LATENCY_MS + ")");
         options.addRequiredOption("m", "solver", true,
-                "Solver to use: MNZ-CHUFFED, ORTOOLS");
+                "Solver to use: MNZ-CHUFFED, ORTOOLS, ORTOOLS-BINPACKING (or-tools with a bin-packing " +
+                "encoding of capacity constraints, for large clusters)");
         options.addRequiredOption("t", "num-threads", true,
                 "Number of threads to use for or-tools");
+        options.addOption("p", "pipelined", false,
+                "Write back and bind pods on a separate thread while the next batch is being scheduled");
+        options.addOption("s", "shards", true,
+                "Number of shards to partition nodes and pods into, each scheduled independently (default: 1)");
+        options.addOption("c", "max-candidate-nodes", true,
+                "Largest number of candidate nodes to consider per pod (default: all nodes that fit the pod)");
         final CommandLineParser parser = new DefaultParser();
         final CommandLine cmd = parser.parse(options, args);
+        final int numShards = Integer.parseInt(cmd.getOptionValue("shards", "1"));
+        final int batchCount = Integer.parseInt(cmd.getOptionValue("batch-size"));
+        final long batchTimeMs = Long.parseLong(cmd.getOptionValue("batch-interval-ms"));
+        final long targetLatencyMs = Long.parseLong(cmd.getOptionValue("target-latency-ms",
+                                                                       String.valueOf(DEFAULT_TARGET_LATENCY_MS)));
 
-        final DBConnectionPool conn = new DBConnectionPool();
-        final Scheduler scheduler = new Scheduler(conn,
-                Policies.getDefaultPolicies(),
-                cmd.getOptionValue("solver"),
-                Boolean.parseBoolean(cmd.getOptionValue("debug-mode")),
-                Integer.parseInt(cmd.getOptionValue("num-threads")));
+        final List<String> policies = cmd.hasOption("max-candidate-nodes")
+                                      ? Policies.getDefaultPoliciesWithCandidateNodes()
+                                      : Policies.getDefaultPolicies();
 
         final KubernetesClient kubernetesClient = new DefaultKubernetesClient();
         LOG.info("Running a scheduler that connects to a Kubernetes cluster on {}",
                  kubernetesClient.getConfiguration().getMasterUrl());
-
         final KubernetesStateSync stateSync = new KubernetesStateSync(kubernetesClient);
-        stateSync.setupInformersAndPodEventStream(conn, scheduler::handlePodEvent);
         final KubernetesBinder binder = new KubernetesBinder(kubernetesClient);
-        scheduler.startScheduler(binder, Integer.parseInt(cmd.getOptionValue("batch-size")),
-                                 Long.parseLong(cmd.getOptionValue("batch-interval-ms")));
+
+        if (numShards > 1) {
+            final ShardedScheduler scheduler = new ShardedScheduler(numShards,
+                    policies,
+                    cmd.getOptionValue("solver"),
+                    Boolean.parseBoolean(cmd.getOptionValue("debug-mode")),
+                    Integer.parseInt(cmd.getOptionValue("num-threads")),
+                    DEFAULT_SOLVER_MAX_TIME_IN_SECONDS,
+                    cmd.hasOption("pipelined"));
+            for (int i = 0; i < numShards; i++) {
+                setMaxCandidateNodes(scheduler.getDbConnectionPool(i), cmd);
+            }
+            stateSync.setupInformersAndPodEventStream(scheduler.getNodeEventHandler(), scheduler::handlePodEvent);
+            scheduler.startScheduler(conn -> binder, batchCount, batchTimeMs, targetLatencyMs);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    scheduler.shutdown();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        } else {
+            final DBConnectionPool conn = new DBConnectionPool();
+            final Scheduler scheduler = new Scheduler(conn,
+                    policies,
+                    cmd.getOptionValue("solver"),
+                    Boolean.parseBoolean(cmd.getOptionValue("debug-mode")),
+                    Integer.parseInt(cmd.getOptionValue("num-threads")),
+                    DEFAULT_SOLVER_MAX_TIME_IN_SECONDS,
+                    cmd.hasOption("pipelined"));
+            setMaxCandidateNodes(conn, cmd);
+            stateSync.setupInformersAndPodEventStream(conn, scheduler::handlePodEvent);
+            scheduler.startScheduler(binder, batchCount, batchTimeMs, targetLatencyMs);
+        }
         stateSync.startProcessingEvents();
         Thread.currentThread().join();
     }
@@ -0,0 +1,290 @@
+/*
+ * Copyright © 2018-2020 VMware, Inc. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: BSD-2
+ */
+
+package org.dcm;
+
+import com.google.common.base.Preconditions;
+import io.fabric8.kubernetes.api.model.Node;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import org.dcm.k8s.generated.Tables;
+import org.jooq.DSLContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+
+/**
+ * Partitions the cluster into shards, each with its own database, Model and scheduling thread, so that
+ * solve times depend on the size of a shard rather than that of the whole cluster.
+ *
+ * Nodes are assigned to shards by hashing their names. Pods that are bound to a node live in that node's
+ * shard, so that their resource usage is accounted for. A pending pod is routed to one of the shards that hold
+ * a node the pod fits on, going by its node selector, node affinity, tolerations and resource requests (see
+ * NodeFeasibility), and stays there until it is bound. Each shard only places pods on its own nodes, so shards
+ * never contend for the same node. If a pod is nevertheless bound to a node in a different shard (e.g., by
+ * another scheduler), it is moved to that shard.
+ *
+ * Routing only looks at the nodes as last reported, and not at the resources that other pods already use on
+ * them, so that it does not query a shard's database for every pod event. If a shard then fails to place its
+ * pending pods, they are re-routed to the other shards they fit in, each shard being tried at most once per pod.
+ *
+ * Constraints are only enforced within a shard: for example, inter-pod anti-affinity does not account for
+ * pods in other shards.
+ */
+final class ShardedScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedScheduler.class);
+    private final List<DBConnectionPool> dbConnectionPools;
+    private final List<Scheduler> shards;
+    private final List<NodeResourceEventHandler> nodeEventHandlers;
+    private final List<Map<String, Node>> nodesPerShard;
+    private final Map<String, Integer> shardForPod = new ConcurrentHashMap<>();
+    private final Map<String, Pod> pendingPods = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> failedShardsForPod = new ConcurrentHashMap<>();
+    private final ExecutorService service;
+
+    ShardedScheduler(final int numShards, final List<String> policies, final String solverToUse,
+                     final boolean debugMode, final int numThreads, final int solverMaxTimeInSeconds,
+                     final boolean pipelined) {
+        Preconditions.checkArgument(numShards > 0, "numShards should be positive: " + numShards);
+        this.dbConnectionPools = new ArrayList<>(numShards);
+        this.shards = new ArrayList<>(numShards);
+        this.nodeEventHandlers = new ArrayList<>(numShards);
+        this.nodesPerShard = new ArrayList<>(numShards);
+        this.service = Executors.newFixedThreadPool(numShards);
+        for (int i = 0; i < numShards; i++) {
+            final DBConnectionPool dbConnectionPool = new DBConnectionPool();
+            dbConnectionPools.add(dbConnectionPool);
+            shards.add(new Scheduler(dbConnectionPool, policies, solverToUse, debugMode, numThreads,
+                                     solverMaxTimeInSeconds, pipelined));
+            nodeEventHandlers.add(new NodeResourceEventHandler(dbConnectionPool, service));
+            nodesPerShard.add(new ConcurrentHashMap<>());
+        }
+        LOG.info("Initialized {} scheduler shards", numShards);
+    }
+
+    DBConnectionPool getDbConnectionPool(final int shard) {
+        return dbConnectionPools.get(shard);
+    }
+
+    /**
+     * @return a handler that reflects node events in the database of the shard each node belongs to
+     */
+    NodeEventHandler getNodeEventHandler() {
+        return new NodeEventHandler();
+    }
+
+    /**
+     * Routes a pod event to the shard the pod belongs to.
+     */
+    synchronized void handlePodEvent(final PodEvent podEvent) {
+        final Pod pod = podEvent.getPod();
+        final String podName = pod.getMetadata().getName();
+        if (podEvent.getAction() == PodEvent.Action.DELETED) {
+            pendingPods.remove(podName);
+            failedShardsForPod.remove(podName);
+            final Integer shard = shardForPod.remove(podName);
+            shards.get(shard == null ? shardForPod(pod) : shard).handlePodEvent(podEvent);
+            return;
+        }
+        if (pod.getSpec().getNodeName() == null) {
+            pendingPods.put(podName, pod);
+        } else {
+            pendingPods.remove(podName);
+            failedShardsForPod.remove(podName);
+        }
+        final Integer previousShard = shardForPod.get(podName);
+        final int shard = pod.getSpec().getNodeName() == null && previousShard != null ? previousShard
+                                                                                       : shardForPod(pod);
+        shardForPod.put(podName, shard);
+        if (previousShard != null && previousShard != shard) {
+            // The pod was bound to a node in a different shard than the one it was pending in
+            LOG.info("Moving pod {} from shard {} to shard {}", podName, previousShard, shard);
+            movePod(pod, previousShard, shard);
+            return;
+        }
+        shards.get(shard).handlePodEvent(podEvent);
+    }
+
+    /**
+     * Moves the pods that are pending in a shard, which failed to place them, to the next shard they fit in.
+     * Pods that do not fit in any shard they have not been tried in yet stay where they are.
+     *
+     * @return the number of pods that were moved
+     */
+    private synchronized int rerouteUnschedulablePods(final int shard) {
+        final List<String> podNames;
+        try (final DSLContext conn = dbConnectionPools.get(shard).getConnectionToDb()) {
+            podNames = conn.select(Tables.PODS_TO_ASSIGN_NO_LIMIT.POD_NAME)
+                           .from(Tables.PODS_TO_ASSIGN_NO_LIMIT)
+                           .fetch(Tables.PODS_TO_ASSIGN_NO_LIMIT.POD_NAME);
+        }
+        int numMoved = 0;
+        for (final String podName : podNames) {
+            final Pod pod = pendingPods.get(podName);
+            final Integer currentShard = shardForPod.get(podName);
+            if (pod == null || currentShard == null || currentShard != shard) {
+                continue;
+            }
+            failedShardsForPod.computeIfAbsent(podName, k -> new HashSet<>()).add(shard);
+            final int newShard = feasibleShard(pod);
+            if (newShard != -1) {
+                LOG.info("Re-routing unschedulable pod {} from shard {} to shard {}", podName, shard, newShard);
+                shardForPod.put(podName, newShard);
+                movePod(pod, shard, newShard);
+                numMoved++;
+            }
+        }
+        return numMoved;
+    }
+
+    private void movePod(final Pod pod, final int fromShard, final int toShard) {
+        shards.get(fromShard).handlePodEvent(new PodEvent(PodEvent.Action.DELETED, pod));
+        shards.get(toShard).handlePodEvent(new PodEvent(PodEvent.Action.ADDED, pod));
+    }
+
+    /**
+     * Starts scheduling pods in every shard, each on its own thread.
+     *
+     * @param binderForShard returns the binder to use for a shard, given the shard's database
+     * @param batchCount the largest number of pods to schedule in a single round, per shard
+     * @param batchTimeMs notifications of new pods are coalesced for up to this long before a round starts
+     * @param targetLatencyMs the target latency for a single round
+     */
+    void startScheduler(final Function<DBConnectionPool, IPodToNodeBinder> binderForShard, final int batchCount,
+                        final long batchTimeMs, final long targetLatencyMs) {
+        for (int i = 0; i < shards.size(); i++) {
+            final int shard = i;
+            shards.get(i).startScheduler(binderForShard.apply(dbConnectionPools.get(i)), batchCount, batchTimeMs,
+                                         targetLatencyMs, () -> rerouteUnschedulablePods(shard));
+        }
+    }
+
+    /**
+     * Schedules all pending pods in every shard, concurrently, and waits for all shards to complete.
+     *
+     * @param binderForShard returns the binder to use for a shard, given the shard's database
+     */
+    void scheduleAllPendingPods(final Function<DBConnectionPool, IPodToNodeBinder> binderForShard) {
+        // Every round that fails re-routes some pods to a shard they have not been tried in, so this terminates
+        boolean rerouted = true;
+        while (rerouted) {
+            final List<CompletableFuture<Boolean>> futures = new ArrayList<>(shards.size());
+            for (int i = 0; i < shards.size(); i++) {
+                final int shard = i;
+                final IPodToNodeBinder binder = binderForShard.apply(dbConnectionPools.get(i));
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        shards.get(shard).scheduleAllPendingPods(binder);
+                        return false;
+                    } catch (final ModelException e) {
+                        LOG.info("Shard {} could not place its pending pods", shard, e);
+                        return rerouteUnschedulablePods(shard) > 0;
+                    }
+                }, service));
+            }
+            rerouted = futures.stream().map(CompletableFuture::join).reduce(false, Boolean::logicalOr);
+        }
+    }
+
+    void shutdown() throws InterruptedException {
+        for (final Scheduler shard : shards) {
+            shard.shutdown();
+        }
+        service.shutdown();
+        service.awaitTermination(100, TimeUnit.SECONDS);
+    }
+
+    private int shardForPod(final Pod pod) {
+        @Nullable final String nodeName = pod.getSpec().getNodeName();
+        if (nodeName != null) {
+            return shardForNode(nodeName);
+        }
+        final int shard = feasibleShard(pod);
+        return shard != -1 ? shard : shardFor(pod.getMetadata().getName());
+    }
+
+    /**
+     * Picks one of the shards with a node that the pod fits on, among those the pod has not failed in yet.
+     * Hashing the pod's name spreads pods over these shards.
+     *
+     * @return a shard, or -1 if there is none
+     */
+    private int feasibleShard(final Pod pod) {
+        final String podName = pod.getMetadata().getName();
+        final Set<Integer> failedShards = failedShardsForPod.getOrDefault(podName, Collections.emptySet());
+        final NodeFeasibility feasibility = new NodeFeasibility(pod);
+        final List<Integer> feasibleShards = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (!failedShards.contains(shard) && hasFeasibleNode(shard, feasibility)) {
+                feasibleShards.add(shard);
+            }
+        }
+        return feasibleShards.isEmpty() ? -1 : feasibleShards.get(Math.floorMod(podName.hashCode(),
+                                                                                feasibleShards.size()));
+    }
+
+    private boolean hasFeasibleNode(final int shard, final NodeFeasibility feasibility) {
+        return nodesPerShard.get(shard).values().stream().anyMatch(feasibility::fits);
+    }
+
+    private int shardForNode(final String nodeName) {
+        return shardFor(nodeName);
+    }
+
+    private int shardFor(final String name) {
+        return Math.floorMod(name.hashCode(), shards.size());
+    }
+
+    /**
+     * Routes node events to the NodeResourceEventHandler of the shard each node belongs to
+     */
+    final class NodeEventHandler implements ResourceEventHandler<Node> {
+        private NodeResourceEventHandler handlerFor(final Node node) {
+            return nodeEventHandlers.get(shardForNode(node.getMetadata().getName()));
+        }
+
+        private Map<String, Node> nodesFor(final Node node) {
+            return nodesPerShard.get(shardForNode(node.getMetadata().getName()));
+        }
+
+        @Override
+        public void onAdd(final Node node) {
+            nodesFor(node).put(node.getMetadata().getName(), node);
+            handlerFor(node).onAdd(node);
+        }
+
+        @Override
+        public void onUpdate(final Node oldNode, final Node newNode) {
+            nodesFor(newNode).put(newNode.getMetadata().getName(), newNode);
+            handlerFor(newNode).onUpdate(oldNode, newNode);
+        }
+
+        @Override
+        public void onDelete(final Node node, final boolean deletedFinalStateUnknown) {
+            nodesFor(node).remove(node.getMetadata().getName());
+            handlerFor(node).onDelete(node, deletedFinalStateUnknown);
+        }
+
+        public void onAddSync(final Node node) {
+            nodesFor(node).put(node.getMetadata().getName(), node);
+            handlerFor(node).onAddSync(node);
+        }
+    }
+}
@@ -22,6 +22,8 @@ create table node_info
   pods_allocated bigint not null
 );
 
+-- The in_flight column is set while a pod that the scheduler has placed, and whose
+-- node_name is already written back, waits to be bound. See Scheduler.
 create table pod_info
 (
   pod_name varchar(100) not null primary key,
@@ -40,7 +42,8 @@ create table pod_info
   has_pod_affinity_requirements boolean not null,
   has_pod_anti_affinity_requirements boolean not null,
   equivalence_class bigint not null,
-  qos_class varchar(10) not null
+  qos_class varchar(10) not null,
+  in_flight boolean default false not null
 );
 
 -- This table tracks the "ContainerPorts" fields of each pod.
@@ -223,7 +226,7 @@ select
   equivalence_class,
   qos_class
 from pod_info
-where status = 'Pending' and node_name is null and schedulerName = 'dcm-scheduler';
+where status = 'Pending' and node_name is null and schedulerName = 'dcm-scheduler' and in_flight = false;
 
 create view assigned_pods as
 select
@@ -601,4 +604,28 @@ select distinct node_name from node_taints;
 -- Avoid overloaded nodes or nodes that report being under resource pressure
 create view allowed_nodes as
 select name
-from spare_capacity_per_node;
\ No newline at end of file
+from spare_capacity_per_node;
+
+-- Candidate nodes per pending pod: the nodes that have enough spare capacity to fit a pod by
+-- itself, bounded to max_candidates nodes per pod (all of them if candidate_nodes_limit is empty).
+-- Like kube-scheduler's percentageOfNodesToScore, this trades placement quality for a smaller
+-- model. We keep the nodes with the most spare capacity.
+create table candidate_nodes_limit
+(
+  max_candidates integer not null primary key
+);
+
+create view pod_candidate_nodes as
+select pod_name, node_name
+from (select pods_to_assign.pod_name as pod_name,
+             spare_capacity_per_node.name as node_name,
+             row_number() over (partition by pods_to_assign.pod_name
+                                order by spare_capacity_per_node.cpu_remaining desc,
+                                         spare_capacity_per_node.memory_remaining desc,
+                                         spare_capacity_per_node.name) as candidate_rank
+      from pods_to_assign
+      join spare_capacity_per_node
+           on pods_to_assign.cpu_request <= spare_capacity_per_node.cpu_remaining
+           and pods_to_assign.memory_request <= spare_capacity_per_node.memory_remaining
+           and pods_to_assign.pods_request <= spare_capacity_per_node.pods_remaining) as candidates
+where candidate_rank <= coalesce((select max(max_candidates) from candidate_nodes_limit), 2147483647);
@@ -39,21 +39,29 @@ import org.dcm.k8s.generated.tables.records.PodInfoRecord;
 import org.jooq.DSLContext;
 import org.jooq.Record;
 import org.jooq.Result;
+import org.jooq.impl.DSL;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -61,6 +69,7 @@ import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -848,13 +857,14 @@ public class SchedulerTest {
     /*
      * Capacity constraints
      */
-    @ParameterizedTest(name = "{0} => feasible:{8}")
+    @ParameterizedTest(name = "{0} ({9}) => feasible:{8}")
     @MethodSource("spareCapacityValues")
     public void testSpareCapacity(final String displayName, final List<Integer> cpuRequests,
                                   final List<Integer> memoryRequests, final List<Integer> nodeCpuCapacities,
                                   final List<Integer> nodeMemoryCapacities,
                                   final boolean useHardConstraint, final boolean useSoftConstraint,
-                                  final Predicate<List<String>> assertOn, final boolean feasible) {
+                                  final Predicate<List<String>> assertOn, final boolean feasible,
+                                  final String solverToUse) {
         assertEquals(cpuRequests.size(), memoryRequests.size());
         assertEquals(nodeCpuCapacities.size(), nodeMemoryCapacities.size());
         final DBConnectionPool dbConnectionPool = new DBConnectionPool();
@@ -903,7 +913,7 @@ public class SchedulerTest {
 
         final List<String> policies = Policies.from(Policies.nodePredicates(),
                                                     Policies.capacityConstraint(useHardConstraint, useSoftConstraint));
-        final Scheduler scheduler = new Scheduler(dbConnectionPool, policies, "ORTOOLS", true, numThreads);
+        final Scheduler scheduler = new Scheduler(dbConnectionPool, policies, solverToUse, true, numThreads);
         if (feasible) {
             final Result<? extends Record> result = scheduler.runOneLoop();
             assertEquals(numPods, result.size());
@@ -947,7 +957,11 @@ public class SchedulerTest {
                         List.of(0, 0, 0), List.of(10, 10, 10),
                         List.of(1, 1, 1, 1, 1), List.of(100, 100, 100, 100, 100), false, true,
                         onePodPerNode , true)
-        );
+        ).flatMap(args -> Stream.of("ORTOOLS", "ORTOOLS-BINPACKING").map(solverToUse -> {
+            final Object[] values = Arrays.copyOf(args.get(), args.get().length + 1);
+            values[values.length - 1] = solverToUse;
+            return Arguments.of(values);
+        }));
     }
 
     @ParameterizedTest(name = "{0}")
@@ -1142,10 +1156,11 @@ public class SchedulerTest {
 
     /*
      * Make sure that the scheduler places all pending pods even though it may attempt to place only a subset
-     * of them at a time
+     * of them at a time, and whether or not binding is pipelined with scheduling the next batch
      */
-    @Test
-    public void testPlaceAllPendingPodsRegardlessOfBatchSize() {
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void testPlaceAllPendingPodsRegardlessOfBatchSize(final boolean pipelined) throws InterruptedException {
         final DBConnectionPool dbConnectionPool = new DBConnectionPool();
         final DSLContext conn = dbConnectionPool.getConnectionToDb();
         final List<String> policies = Policies.getDefaultPolicies();
@@ -1173,10 +1188,543 @@ public class SchedulerTest {
         }
 
         // All pod additions have completed
+        final Scheduler scheduler = new Scheduler(dbConnectionPool, policies, "ORTOOLS", true, numThreads,
+                                                  1, pipelined);
+        scheduler.scheduleAllPendingPods(new EmulatedPodToNodeBinder(dbConnectionPool));
+        scheduler.shutdown();
+        final Result<PodInfoRecord> fetch = conn.selectFrom(Tables.POD_INFO).fetch();
+        fetch.forEach(e -> assertTrue(e.getNodeName() != null && e.getNodeName().startsWith("n")));
+    }
+
+    /*
+     * Tests that in pipelined mode, batches are scheduled while earlier ones are still being bound, and that
+     * pods which are in flight are not scheduled again
+     */
+    @Test
+    public void testPipelinedBatchesOverlap() throws InterruptedException {
+        final DBConnectionPool dbConnectionPool = new DBConnectionPool();
+        final DSLContext conn = dbConnectionPool.getConnectionToDb();
+        final List<String> policies = Policies.getDefaultPolicies();
+        final NodeResourceEventHandler nodeResourceEventHandler = new NodeResourceEventHandler(dbConnectionPool);
+        final PodEventsToDatabase eventHandler = new PodEventsToDatabase(dbConnectionPool);
+        final PodResourceEventHandler handler = new PodResourceEventHandler(eventHandler::handle);
+        final int numNodes = 50;
+        final int numPods = 120;
+        for (int i = 0; i < numNodes; i++) {
+            nodeResourceEventHandler.onAddSync(addNode("n" + i, Collections.emptyMap(),
+                                           Collections.emptyList()));
+        }
+        for (int i = 0; i < numPods; i++) {
+            handler.onAddSync(newPod("p" + i));
+        }
+
+        // The first batch is not bound until all batches have been scheduled
+        final CountDownLatch allBatchesScheduled = new CountDownLatch(1);
+        final AtomicBoolean overlapped = new AtomicBoolean(true);
+        final List<String> boundPods = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger numBatches = new AtomicInteger(0);
+        final EmulatedPodToNodeBinder emulatedBinder = new EmulatedPodToNodeBinder(dbConnectionPool);
+        final IPodToNodeBinder binder = records -> {
+            try {
+                if (numBatches.incrementAndGet() == 1 && !allBatchesScheduled.await(1, TimeUnit.MINUTES)) {
+                    overlapped.set(false);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            records.forEach(r -> boundPods.add(r.get(Tables.PODS_TO_ASSIGN.POD_NAME)));
+            emulatedBinder.bindManyAsnc(records);
+        };
+        final Scheduler scheduler = new Scheduler(dbConnectionPool, policies, "ORTOOLS", true, numThreads,
+                                                  1, true);
+        scheduler.scheduleAllPendingPods(binder);
+        allBatchesScheduled.countDown();
+        scheduler.shutdown();
+
+        assertTrue(overlapped.get());
+        assertTrue(numBatches.get() > 1);
+        assertEquals(numPods, boundPods.size());
+        assertEquals(numPods, new HashSet<>(boundPods).size());
+        final Result<PodInfoRecord> fetch = conn.selectFrom(Tables.POD_INFO).fetch();
+        fetch.forEach(e -> assertTrue(e.getNodeName() != null && e.getNodeName().startsWith("n")));
+        fetch.forEach(e -> assertFalse(e.getInFlight()));
+    }
+
+    /*
+     * Tests that in pipelined mode, a batch accounts for the resources taken by earlier batches that are still
+     * to be bound
+     */
+    @Test
+    public void testPipelinedBatchesDoNotOvercommitNodes() throws InterruptedException {
+        final DBConnectionPool dbConnectionPool = new DBConnectionPool();
+        final DSLContext conn = dbConnectionPool.getConnectionToDb();
+        final NodeResourceEventHandler nodeResourceEventHandler = new NodeResourceEventHandler(dbConnectionPool);
+        final PodEventsToDatabase eventHandler = new PodEventsToDatabase(dbConnectionPool);
+        final PodResourceEventHandler handler = new PodResourceEventHandler(eventHandler::handle);
+        final int numNodes = 5;
+        final int numPods = 10;
+        addNodesWithCpu(nodeResourceEventHandler, handler, numNodes, "10");
+        addPodsWithCpu(handler, numPods, "5");
+
+        // No batch is bound until all of them have been scheduled
+        final CountDownLatch allBatchesScheduled = new CountDownLatch(1);
+        final EmulatedPodToNodeBinder emulatedBinder = new EmulatedPodToNodeBinder(dbConnectionPool);
+        final IPodToNodeBinder binder = records -> {
+            try {
+                allBatchesScheduled.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            emulatedBinder.bindManyAsnc(records);
+        };
+        final Scheduler scheduler = new Scheduler(dbConnectionPool, Policies.getDefaultPolicies(), "ORTOOLS", true,
+                                                  numThreads, 1, true);
+        scheduler.scheduleAllPendingPods(binder, new AdaptiveBatchSize(2, 2, TimeUnit.HOURS.toMillis(1)));
+        allBatchesScheduled.countDown();
+        scheduler.shutdown();
+
+        final Map<String, Long> cpuPerNode = new HashMap<>();
+        conn.selectFrom(Tables.POD_INFO)
+            .where(Tables.POD_INFO.POD_NAME.like("p%"))
+            .forEach(pod -> {
+                assertNotNull(pod.getNodeName());
+                cpuPerNode.merge(pod.getNodeName(), pod.getCpuRequest(), Long::sum);
+            });
+        final long cpuCapacity = conn.select(Tables.NODE_INFO.CPU_ALLOCATABLE).from(Tables.NODE_INFO)
+                                     .fetchAny().value1();
+        cpuPerNode.values().forEach(cpu -> assertTrue(cpu <= cpuCapacity, cpuPerNode.toString()));
+    }
+
+    /*
+     * Tests that in pipelined mode, pods whose binding fails are scheduled again
+     */
+    @Test
+    public void testPipelinedBindingFailure() throws InterruptedException {
+        final DBConnectionPool dbConnectionPool = new DBConnectionPool();
+        final DSLContext conn = dbConnectionPool.getConnectionToDb();
+        final NodeResourceEventHandler nodeResourceEventHandler = new NodeResourceEventHandler(dbConnectionPool);
+        final PodEventsToDatabase eventHandler = new PodEventsToDatabase(dbConnectionPool);
+        final PodResourceEventHandler handler = new PodResourceEventHandler(eventHandler::handle);
+        final int numNodes = 5;
+        final int numPods = 10;
+        addNodesWithCpu(nodeResourceEventHandler, handler, numNodes, "10");
+        addPodsWithCpu(handler, numPods, "5");
+
+        final AtomicInteger numBatches = new AtomicInteger(0);
+        final EmulatedPodToNodeBinder emulatedBinder = new EmulatedPodToNodeBinder(dbConnectionPool);
+        final IPodToNodeBinder binder = records -> {
+            if (numBatches.incrementAndGet() == 1) {
+                throw new IllegalStateException("Binding failed");
+            }
+            emulatedBinder.bindManyAsnc(records);
+        };
+        final Scheduler scheduler = new Scheduler(dbConnectionPool, Policies.getDefaultPolicies(), "ORTOOLS", true,
+                                                  numThreads, 1, true);
+        scheduler.scheduleAllPendingPods(binder);
+
+        // The pods of the failed batch become pending again, and release the resources they were assigned
+        final long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (conn.fetchCount(Tables.POD_INFO, Tables.POD_INFO.IN_FLIGHT.eq(true)) > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(numPods, conn.fetchCount(Tables.PODS_TO_ASSIGN_NO_LIMIT));
+        assertEquals(0, conn.select(DSL.sum(Tables.NODE_INFO.CPU_ALLOCATED)).from(Tables.NODE_INFO)
+                            .fetchOne().value1().longValue());
+
+        scheduler.scheduleAllPendingPods(binder);
+        scheduler.shutdown();
+        assertEquals(2, numBatches.get());
+        final Result<PodInfoRecord> fetch = conn.selectFrom(Tables.POD_INFO).fetch();
+        fetch.forEach(e -> assertTrue(e.getNodeName() != null && e.getNodeName().startsWith("n")));
+        fetch.forEach(e -> assertFalse(e.getInFlight()));
+    }
+
+    private void addNodesWithCpu(final NodeResourceEventHandler nodeResourceEventHandler,
+                                 final PodResourceEventHandler handler, final int numNodes, final String cpu) {
+        for (int i = 0; i < numNodes; i++) {
+            final Node node = addNode("n" + i, Collections.emptyMap(), Collections.emptyList());
+            node.getStatus().getCapacity().put("cpu", new Quantity(cpu));
+            nodeResourceEventHandler.onAddSync(node);
+
+            // Add one system pod per node
+            final Pod pod = newPod("system-pod-n" + i, "Running", Collections.emptyMap(), Collections.emptyMap());
+            pod.getSpec().setNodeName("n" + i);
+            handler.onAddSync(pod);
+        }
+    }
+
+    private void addPodsWithCpu(final PodResourceEventHandler handler, final int numPods, final String cpu) {
+        // Distinct labels put every pod in its own equivalence class
+        for (int i = 0; i < numPods; i++) {
+            final Pod pod = newPod("p" + i, "Pending", Collections.emptyMap(), Map.of("app", "p" + i));
+            pod.getSpec().getContainers().get(0).getResources()
+               .setRequests(Map.of("cpu", new Quantity(cpu), "pods", new Quantity("1")));
+            handler.onAddSync(pod);
+        }
+    }
+
+    /*
+     * Tests that the batch size adapts to the latency of each round
+     */
+    @Test
+    public void testAdaptiveBatchSize() {
+        final AdaptiveBatchSize batchSize = new AdaptiveBatchSize(4, 10, 100);
+        assertEquals(4, batchSize.nextBatchSize());
+
+        // Rounds that do not use the full batch do not grow it
+        batchSize.onRoundCompleted(2, TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(4, batchSize.nextBatchSize());
+
+        // Fast rounds grow the batch, up to the maximum
+        batchSize.onRoundCompleted(4, TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(8, batchSize.nextBatchSize());
+        batchSize.onRoundCompleted(8, TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(10, batchSize.nextBatchSize());
+
+        // Slow rounds shrink it, but never below a single pod
+        batchSize.onRoundCompleted(10, TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(5, batchSize.nextBatchSize());
+        for (int i = 0; i < 5; i++) {
+            batchSize.onRoundCompleted(batchSize.nextBatchSize(), TimeUnit.MILLISECONDS.toNanos(200));
+        }
+        assertEquals(1, batchSize.nextBatchSize());
+    }
+
+    /*
+     * Tests that the scheduler resizes the pods_to_assign view when using an adaptive batch size
+     */
+    @Test
+    public void testPlaceAllPendingPodsWithAdaptiveBatchSize() throws InterruptedException {
+        final DBConnectionPool dbConnectionPool = new DBConnectionPool();
+        final DSLContext conn = dbConnectionPool.getConnectionToDb();
+        final List<String> policies = Policies.getDefaultPolicies();
+        final NodeResourceEventHandler nodeResourceEventHandler = new NodeResourceEventHandler(dbConnectionPool);
+        final PodEventsToDatabase eventHandler = new PodEventsToDatabase(dbConnectionPool);
+        final PodResourceEventHandler handler = new PodResourceEventHandler(eventHandler::handle);
+        final int numNodes = 10;
+        final int numPods = 30;
+        for (int i = 0; i < numNodes; i++) {
+            nodeResourceEventHandler.onAddSync(addNode("n" + i, Collections.emptyMap(),
+                                           Collections.emptyList()));
+        }
+        for (int i = 0; i < numPods; i++) {
+            handler.onAddSync(newPod("p" + i));
+        }
+
         final Scheduler scheduler = new Scheduler(dbConnectionPool, policies, "ORTOOLS", true, numThreads);
+        final AdaptiveBatchSize batchSize = new AdaptiveBatchSize(3, 7, TimeUnit.MINUTES.toMillis(1));
+        scheduler.scheduleAllPendingPods(new EmulatedPodToNodeBinder(dbConnectionPool), batchSize);
+        scheduler.shutdown();
+        final Result<PodInfoRecord> fetch = conn.selectFrom(Tables.POD_INFO).fetch();
+        assertEquals(numPods, fetch.size());
+        fetch.forEach(e -> assertTrue(e.getNodeName() != null && e.getNodeName().startsWith("n")));
+
+        // The view retains the last limit
+        for (int i = numPods; i < 2 * numPods; i++) {
+            handler.onAddSync(newPod("p" + i));
+        }
+        assertEquals(7, conn.fetchCount(Tables.PODS_TO_ASSIGN));
+
+        // Scheduling without an adaptive batch size restores the default limit
         scheduler.scheduleAllPendingPods(new EmulatedPodToNodeBinder(dbConnectionPool));
+        for (int i = 2 * numPods; i < 5 * numPods; i++) {
+            handler.onAddSync(newPod("p" + i));
+        }
+        assertEquals(50, conn.fetchCount(Tables.PODS_TO_ASSIGN));
+    }
+
+    /*
+     * Tests that a burst of pod additions, whose notifications are coalesced, is scheduled in fewer rounds than
+     * there are notifications
+     */
+    @Test
+    public void testSchedulerCoalescesNotifications() throws InterruptedException {
+        final DBConnectionPool dbConnectionPool = new DBConnectionPool();
+        final DSLContext conn = dbConnectionPool.getConnectionToDb();
+        final List<String> policies = Policies.getDefaultPolicies();
+        final NodeResourceEventHandler nodeResourceEventHandler = new NodeResourceEventHandler(dbConnectionPool);
+        final int numNodes = 10;
+        final int numPods = 30;
+        for (int i = 0; i < numNodes; i++) {
+            nodeResourceEventHandler.onAddSync(addNode("n" + i, Collections.emptyMap(),
+                                           Collections.emptyList()));
+        }
+        final Scheduler scheduler = new Scheduler(dbConnectionPool, policies, "ORTOOLS", true, numThreads);
+
+        // Every round binds its pods with a single call to the binder
+        final AtomicInteger numRounds = new AtomicInteger(0);
+        final EmulatedPodToNodeBinder emulatedBinder = new EmulatedPodToNodeBinder(dbConnectionPool);
+        final IPodToNodeBinder binder = records -> {
+            numRounds.incrementAndGet();
+            emulatedBinder.bindManyAsnc(records);
+        };
+        scheduler.startScheduler(binder, 100, TimeUnit.SECONDS.toMillis(2));
+        for (int i = 0; i < numPods; i++) {
+            scheduler.handlePodEvent(new PodEvent(PodEvent.Action.ADDED, newPod("p" + i)));
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (conn.fetchCount(Tables.POD_INFO, Tables.POD_INFO.NODE_NAME.isNull()) > 0
+               && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        scheduler.shutdown();
         final Result<PodInfoRecord> fetch = conn.selectFrom(Tables.POD_INFO).fetch();
+        assertEquals(numPods, fetch.size());
         fetch.forEach(e -> assertTrue(e.getNodeName() != null && e.getNodeName().startsWith("n")));
+
+        // The pods of the burst were coalesced into fewer rounds than there are pods
+        assertTrue(numRounds.get() < numPods);
+    }
+
+
+    /*
+     * Tests that pods are only placed on their candidate nodes: those that fit the pod, bounded to the ones
+     * with the most spare capacity.
+     */
+    @Test
+    public void testCandidateNodes() {
+        final DBConnectionPool dbConnectionPool = new DBConnectionPool();
+        final DSLContext conn = dbConnectionPool.getConnectionToDb();
+        final NodeResourceEventHandler nodeResourceEventHandler = new NodeResourceEventHandler(dbConnectionPool);
+        final PodEventsToDatabase eventHandler = new PodEventsToDatabase(dbConnectionPool);
+        final PodResourceEventHandler handler = new PodResourceEventHandler(eventHandler::handle);
+        final int numNodes = 10;
+        final int numPods = 10;
+        conn.insertInto(Tables.CANDIDATE_NODES_LIMIT).values(3).execute();
+        for (int i = 0; i < numNodes; i++) {
+            final Node node = addNode("n" + i, Collections.emptyMap(), Collections.emptyList());
+            node.getStatus().getCapacity().put("cpu", new Quantity(String.valueOf(10 + i)));
+            nodeResourceEventHandler.onAddSync(node);
+
+            // Add one system pod per node
+            final Pod pod = newPod("system-pod-n" + i, "Running", Collections.emptyMap(), Collections.emptyMap());
+            pod.getSpec().setNodeName("n" + i);
+            handler.onAddSync(pod);
+        }
+        for (int i = 0; i < numPods; i++) {
+            handler.onAddSync(newPod("p" + i));
+        }
+        assertEquals(3 * numPods, conn.fetchCount(Tables.POD_CANDIDATE_NODES));
+
+        // The policy is only registered when asked for
+        final List<String> candidateNodesPolicy = Policies.from(Policies.candidateNodes());
+        assertFalse(Policies.getDefaultPolicies().containsAll(candidateNodesPolicy));
+        final List<String> policies = Policies.getDefaultPoliciesWithCandidateNodes();
+        assertTrue(policies.containsAll(candidateNodesPolicy));
+        final Scheduler scheduler = new Scheduler(dbConnectionPool, policies, "ORTOOLS", true, numThreads);
+        final Result<? extends Record> results = scheduler.runOneLoop();
+        assertEquals(numPods, results.size());
+        final Set<String> nodesWithMostCpu = Set.of("n7", "n8", "n9");
+        results.forEach(r -> assertTrue(nodesWithMostCpu.contains(
+                r.get("CONTROLLABLE__NODE_NAME", String.class))));
+    }
+
+    /*
+     * Tests the placements made by the capacity constraint over several batches, which reuse the ordering of
+     * nodes by load from one round to the next. A workload that mostly needs cpu is spread across the nodes with
+     * the most spare cpu.
+     */
+    @Test
+    public void testCapacityConstraintPlacementQuality() {
+        final DBConnectionPool dbConnectionPool = new DBConnectionPool();
+        final DSLContext conn = dbConnectionPool.getConnectionToDb();
+        final NodeResourceEventHandler nodeResourceEventHandler = new NodeResourceEventHandler(dbConnectionPool);
+        final PodEventsToDatabase eventHandler = new PodEventsToDatabase(dbConnectionPool);
+        final PodResourceEventHandler handler = new PodResourceEventHandler(eventHandler::handle);
+        final int numNodes = 10;
+        final int numPods = 40;
+        final int batchSize = 10;
+        // Half the nodes have four times as much cpu as the other half
+        for (int i = 0; i < numNodes; i++) {
+            final Node node = addNode("n" + i, Collections.emptyMap(), Collections.emptyList());
+            node.getStatus().getCapacity().put("cpu", new Quantity(i < numNodes / 2 ? "100" : "400"));
+            nodeResourceEventHandler.onAddSync(node);
+
+            // Add one system pod per node
+            final Pod pod = newPod("system-pod-n" + i, "Running", Collections.emptyMap(), Collections.emptyMap());
+            pod.getSpec().setNodeName("n" + i);
+            handler.onAddSync(pod);
+        }
+        // Distinct labels put every pod in its own equivalence class, so that symmetry breaking does not
+        // favor spreading pods over nodes
+        for (int i = 0; i < numPods; i++) {
+            final Pod pod = newPod("p" + i, "Pending", Collections.emptyMap(), Map.of("app", "p" + i));
+            pod.getSpec().getContainers().get(0).getResources()
+               .setRequests(Map.of("cpu", new Quantity("20"), "memory", new Quantity("10"),
+                                   "pods", new Quantity("1")));
+            handler.onAddSync(pod);
+        }
+
+        final Scheduler scheduler = new Scheduler(dbConnectionPool, Policies.getDefaultPolicies(), "ORTOOLS", true,
+                                                  numThreads);
+        scheduler.scheduleAllPendingPods(new EmulatedPodToNodeBinder(dbConnectionPool),
+                                         new AdaptiveBatchSize(batchSize, batchSize, TimeUnit.HOURS.toMillis(1)));
+        final Map<String, Integer> podsPerNode = new HashMap<>();
+        conn.selectFrom(Tables.POD_INFO)
+            .where(Tables.POD_INFO.POD_NAME.like("p%"))
+            .forEach(pod -> {
+                assertNotNull(pod.getNodeName());
+                podsPerNode.merge(pod.getNodeName(), 1, Integer::sum);
+            });
+        assertEquals(numPods, podsPerNode.values().stream().mapToInt(Integer::intValue).sum());
+
+        // The cpu-rich nodes take most of the pods, and no node is more than half full
+        final int podsOnCpuRichNodes = IntStream.range(numNodes / 2, numNodes)
+                                                .map(i -> podsPerNode.getOrDefault("n" + i, 0))
+                                                .sum();
+        assertTrue(podsOnCpuRichNodes >= numPods * 3 / 4, podsPerNode.toString());
+        for (int i = 0; i < numNodes; i++) {
+            final int cpuCapacity = i < numNodes / 2 ? 100 : 400;
+            assertTrue(podsPerNode.getOrDefault("n" + i, 0) * 20 <= cpuCapacity / 2, podsPerNode.toString());
+        }
+    }
+
+    /*
+     * Tests that a sharded scheduler places every pod, and only on nodes of the shard the pod was routed to
+     */
+    @Test
+    public void testShardedScheduler() throws InterruptedException {
+        final int numShards = 3;
+        final int numNodes = 12;
+        final int numPods = 40;
+        final ShardedScheduler scheduler = new ShardedScheduler(numShards, Policies.getDefaultPolicies(), "ORTOOLS",
+                                                                true, numThreads, 1, false);
+        final ShardedScheduler.NodeEventHandler nodeEventHandler = scheduler.getNodeEventHandler();
+        for (int i = 0; i < numNodes; i++) {
+            nodeEventHandler.onAddSync(addNode("n" + i, Collections.emptyMap(), Collections.emptyList()));
+
+            // Add one system pod per node, which has to be routed to the node's shard
+            final Pod pod = newPod("system-pod-n" + i, "Running", Collections.emptyMap(), Collections.emptyMap());
+            pod.getSpec().setNodeName("n" + i);
+            scheduler.handlePodEvent(new PodEvent(PodEvent.Action.ADDED, pod));
+        }
+        for (int i = 0; i < numPods; i++) {
+            scheduler.handlePodEvent(new PodEvent(PodEvent.Action.ADDED, newPod("p" + i)));
+        }
+        scheduler.scheduleAllPendingPods(EmulatedPodToNodeBinder::new);
+        scheduler.shutdown();
+
+        int totalPods = 0;
+        int totalNodes = 0;
+        for (int shard = 0; shard < numShards; shard++) {
+            final DSLContext conn = scheduler.getDbConnectionPool(shard).getConnectionToDb();
+            final Set<String> nodes = new HashSet<>(conn.selectFrom(Tables.NODE_INFO)
+                                                        .fetch(Tables.NODE_INFO.NAME));
+            final Result<PodInfoRecord> pods = conn.selectFrom(Tables.POD_INFO).fetch();
+            pods.forEach(e -> assertTrue(e.getNodeName() != null && nodes.contains(e.getNodeName())));
+            totalNodes += nodes.size();
+            totalPods += pods.size();
+        }
+        assertEquals(numNodes, totalNodes);
+        assertEquals(numNodes + numPods, totalPods);
+    }
+
+    /*
+     * Tests that pending pods are routed to a shard with a node they fit on, rather than to an arbitrary shard
+     */
+    @Test
+    public void testShardedSchedulerRoutesPodsToFeasibleShards() throws InterruptedException {
+        final int numShards = 3;
+        final int numNodes = 12;
+        final int numPods = 10;
+        final ShardedScheduler scheduler = new ShardedScheduler(numShards, Policies.getDefaultPolicies(), "ORTOOLS",
+                                                                true, numThreads, 1, false);
+        final ShardedScheduler.NodeEventHandler nodeEventHandler = scheduler.getNodeEventHandler();
+        for (int i = 0; i < numNodes; i++) {
+            final Map<String, String> labels = i == 5 ? map("disk", "ssd") : Collections.emptyMap();
+            nodeEventHandler.onAddSync(addNode("n" + i, labels, Collections.emptyList()));
+        }
+        for (int i = 0; i < numPods; i++) {
+            scheduler.handlePodEvent(new PodEvent(PodEvent.Action.ADDED,
+                    newPod("p" + i, "Pending", map("disk", "ssd"), Collections.emptyMap())));
+        }
+        scheduler.scheduleAllPendingPods(EmulatedPodToNodeBinder::new);
+        scheduler.shutdown();
+
+        int totalPods = 0;
+        for (int shard = 0; shard < numShards; shard++) {
+            final DSLContext conn = scheduler.getDbConnectionPool(shard).getConnectionToDb();
+            final Result<PodInfoRecord> pods = conn.selectFrom(Tables.POD_INFO).fetch();
+            pods.forEach(e -> assertEquals("n5", e.getNodeName()));
+            totalPods += pods.size();
+        }
+        assertEquals(numPods, totalPods);
+    }
+
+    /*
+     * Tests that pods which a shard fails to place are re-routed to another shard that they fit in
+     */
+    @Test
+    public void testShardedSchedulerReroutesUnschedulablePods() throws InterruptedException {
+        final int numShards = 2;
+        final int numPods = 4;
+        final ShardedScheduler scheduler = new ShardedScheduler(numShards, Policies.getDefaultPolicies(), "ORTOOLS",
+                                                                true, numThreads, 1, false);
+        final ShardedScheduler.NodeEventHandler nodeEventHandler = scheduler.getNodeEventHandler();
+
+        // n0 and n1 hash to different shards. n0 can only host one more pod, but pods are routed to it
+        // regardless, because each of them fits on it by itself.
+        for (int i = 0; i < numShards; i++) {
+            final Node node = addNode("n" + i, Collections.emptyMap(), Collections.emptyList());
+            if (i == 0) {
+                final Map<String, Quantity> allocatable = new HashMap<>(node.getStatus().getAllocatable());
+                allocatable.put("pods", new Quantity("2"));
+                node.getStatus().setAllocatable(allocatable);
+            }
+            nodeEventHandler.onAddSync(node);
+            final Pod pod = newPod("system-pod-n" + i, "Running", Collections.emptyMap(), Collections.emptyMap());
+            pod.getSpec().setNodeName("n" + i);
+            scheduler.handlePodEvent(new PodEvent(PodEvent.Action.ADDED, pod));
+        }
+        for (int i = 0; i < numPods; i++) {
+            scheduler.handlePodEvent(new PodEvent(PodEvent.Action.ADDED, newPod("p" + i)));
+        }
+        scheduler.scheduleAllPendingPods(EmulatedPodToNodeBinder::new);
+        scheduler.shutdown();
+
+        int totalPods = 0;
+        final Map<String, Integer> podsPerNode = new HashMap<>();
+        for (int shard = 0; shard < numShards; shard++) {
+            final DSLContext conn = scheduler.getDbConnectionPool(shard).getConnectionToDb();
+            final Result<PodInfoRecord> pods = conn.selectFrom(Tables.POD_INFO).fetch();
+            pods.forEach(e -> {
+                assertTrue(e.getNodeName() != null);
+                podsPerNode.merge(e.getNodeName(), 1, Integer::sum);
+            });
+            totalPods += pods.size();
+        }
+        assertEquals(numShards + numPods, totalPods);
+        assertTrue(podsPerNode.get("n0") <= 2);
+    }
+
+    /*
+     * Tests that a toleration with an empty key and the Exists operator tolerates taints of any key, when
+     * routing pods to shards
+     */
+    @Test
+    public void testNodeFeasibilityWildcardTolerations() {
+        final Node node = addNode("n0", Collections.emptyMap(), Collections.emptyList());
+        final Taint taint = new Taint();
+        taint.setKey("k1");
+        taint.setValue("v1");
+        taint.setEffect("NoSchedule");
+        node.getSpec().setTaints(List.of(taint));
+
+        final BiFunction<String, String, Boolean> fitsWithToleration = (key, operator) -> {
+            final Toleration toleration = new Toleration();
+            toleration.setKey(key);
+            toleration.setOperator(operator);
+            final Pod pod = newPod("p0");
+            pod.getSpec().setTolerations(List.of(toleration));
+            return new NodeFeasibility(pod).fits(node);
+        };
+        assertTrue(fitsWithToleration.apply(null, "Exists"));
+        assertTrue(fitsWithToleration.apply("", "Exists"));
+        assertTrue(fitsWithToleration.apply("k1", "Exists"));
+        assertFalse(fitsWithToleration.apply("k2", "Exists"));
+        assertFalse(fitsWithToleration.apply(null, "Equal"));
+        assertFalse(new NodeFeasibility(newPod("p1")).fits(node));
     }
 
 